@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import android.nfc.NdefRecord;
+
+/**
+ * Headless batch decoder for exported NDEF dumps, for auditing tag provisioning off-device. Uses the same decoding as
+ * the plug-in: {@link NdefPayloads} and {@link NdefRecordCursor} for URI and text records, and
+ * {@link NfcSmartPoster#parse(NdefRecord)} for smart posters, so it needs the android.nfc NDEF classes on the class
+ * path, either the platform's or the JVM stand-ins of the unit tests. It is a tool, not part of the plug-in, so it
+ * lives in the instrumentation sources.
+ * <p>
+ * Each input file holds one NDEF message per line, hex encoded, optionally preceded by an identifier and a tab. Input
+ * is read in fixed-size batches which are decoded on a fork/join pool, and at most a fixed number of batches is in
+ * flight at any time, so memory use does not depend on the corpus size. Results are written in input order as JSON
+ * lines, followed by a summary line with throughput and per-type decode/failure counts.
+ * <p>
+ * Usage: {@code NdefCorpusDecoder [-o out.jsonl] [-p parallelism] [-b batchSize] dump...} ("-" reads standard input).
+ */
+public class NdefCorpusDecoder {
+	static final int TYPE_URI = 0;
+	static final int TYPE_TEXT = 1;
+	static final int TYPE_SMART_POSTER = 2;
+	static final int TYPE_EXTERNAL = 3;
+	static final int TYPE_OTHER = 4;
+	static final int TYPE_MESSAGE = 5;
+	static final String[] TYPE_NAMES = new String[] { "uri", "text", "smart_poster", "external", "other", "message" };
+	/** Lines decoded sequentially by a single fork/join leaf */
+	private static final int LEAF_SIZE = 256;
+	private final ForkJoinPool pool;
+	private final int batchSize;
+	private final int maxInFlight;
+
+	/**
+	 * Per-type counters, merged up the fork/join tree so that workers never share counters.
+	 */
+	static final class Stats {
+		final long[] decoded = new long[TYPE_NAMES.length];
+		final long[] failed = new long[TYPE_NAMES.length];
+		long messages;
+		long bytes;
+
+		void add(Stats other) {
+			for (int i = 0; i < decoded.length; i++) {
+				decoded[i] += other.decoded[i];
+				failed[i] += other.failed[i];
+			}
+			messages += other.messages;
+			bytes += other.bytes;
+		}
+	}
+
+	/**
+	 * Decoded output of a range of lines, kept as the per-leaf buffers to avoid copying when merging.
+	 */
+	private static final class Chunk {
+		final List<StringBuilder> parts = new ArrayList<StringBuilder>();
+		final Stats stats = new Stats();
+
+		Chunk merge(Chunk right) {
+			parts.addAll(right.parts);
+			stats.add(right.stats);
+			return this;
+		}
+	}
+
+	private static final class DecodeTask extends RecursiveTask<Chunk> {
+		private static final long serialVersionUID = 1L;
+		private final String[] lines;
+		private final String source;
+		private final long firstLine;
+		private final int from;
+		private final int to;
+
+		DecodeTask(String[] lines, String source, long firstLine, int from, int to) {
+			this.lines = lines;
+			this.source = source;
+			this.firstLine = firstLine;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Chunk compute() {
+			if (to - from <= LEAF_SIZE) {
+				Chunk chunk = new Chunk();
+				StringBuilder out = new StringBuilder((to - from) * 128);
+				NdefRecordCursor cursor = new NdefRecordCursor();
+				for (int i = from; i < to; i++)
+					decodeLine(lines[i], source, firstLine + i, cursor, out, chunk.stats);
+				chunk.parts.add(out);
+				return chunk;
+			}
+			int middle = (from + to) >>> 1;
+			DecodeTask left = new DecodeTask(lines, source, firstLine, from, middle);
+			left.fork();
+			Chunk right = new DecodeTask(lines, source, firstLine, middle, to).compute();
+			return left.join().merge(right);
+		}
+	}
+
+	public NdefCorpusDecoder(int parallelism, int batchSize) {
+		this.pool = new ForkJoinPool(parallelism);
+		this.batchSize = batchSize;
+		this.maxInFlight = parallelism * 2;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String output = null;
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		int batchSize = 16384;
+		List<String> inputs = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-o") && i + 1 < args.length)
+				output = args[++i];
+			else if (args[i].equals("-p") && i + 1 < args.length)
+				parallelism = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-b") && i + 1 < args.length)
+				batchSize = Integer.parseInt(args[++i]);
+			else
+				inputs.add(args[i]);
+		}
+		if (inputs.isEmpty()) {
+			System.err.println("Usage: NdefCorpusDecoder [-o out.jsonl] [-p parallelism] [-b batchSize] dump...");
+			System.exit(1);
+		}
+		Writer out = new BufferedWriter(new OutputStreamWriter(output == null ? System.out : new FileOutputStream(
+				output), NdefPayloads.UTF_8), 1 << 16);
+		NdefCorpusDecoder decoder = new NdefCorpusDecoder(parallelism, batchSize);
+		try {
+			Stats stats = new Stats();
+			long start = System.nanoTime();
+			for (String input : inputs) {
+				BufferedReader in = new BufferedReader(new InputStreamReader(input.equals("-") ? System.in
+						: new FileInputStream(input), NdefPayloads.US_ASCII), 1 << 16);
+				try {
+					stats.add(decoder.decode(in, input, out));
+				} finally {
+					in.close();
+				}
+			}
+			String summary = summarize(stats, System.nanoTime() - start, parallelism);
+			out.write(summary);
+			out.write('\n');
+			System.err.println(summary);
+		} finally {
+			out.close();
+			decoder.shutdown();
+		}
+	}
+
+	/**
+	 * Decodes every line of the given reader, writing one JSON line per dump to out in input order.
+	 */
+	public Stats decode(BufferedReader in, String source, Writer out) throws IOException {
+		Stats stats = new Stats();
+		ArrayDeque<ForkJoinTask<Chunk>> pending = new ArrayDeque<ForkJoinTask<Chunk>>();
+		long lineNumber = 1;
+		String[] batch = new String[batchSize];
+		int count = 0;
+		String line;
+		while (true) {
+			line = in.readLine();
+			if (line != null)
+				batch[count++] = line;
+			if (count == batchSize || (line == null && count > 0)) {
+				pending.addLast(pool.submit(new DecodeTask(batch, source, lineNumber, 0, count)));
+				lineNumber += count;
+				batch = new String[batchSize];
+				count = 0;
+				// Bound the amount of buffered input and output
+				if (pending.size() >= maxInFlight)
+					write(pending.removeFirst().join(), out, stats);
+			}
+			if (line == null)
+				break;
+		}
+		while (!pending.isEmpty())
+			write(pending.removeFirst().join(), out, stats);
+		return stats;
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private static void write(Chunk chunk, Writer out, Stats stats) throws IOException {
+		for (StringBuilder part : chunk.parts)
+			out.append(part);
+		stats.add(chunk.stats);
+	}
+
+	static void decodeLine(String line, String source, long lineNumber, NdefRecordCursor cursor, StringBuilder out,
+			Stats stats) {
+		int tab = line.indexOf('\t');
+		String id = tab >= 0 ? line.substring(0, tab) : null;
+		int length = out.length();
+		out.append("{\"source\":");
+		appendJson(out, source);
+		out.append(",\"line\":").append(lineNumber);
+		if (id != null) {
+			out.append(",\"id\":");
+			appendJson(out, id);
+		}
+		byte[] message;
+		try {
+			message = HexStrings.toBytes(line, tab + 1);
+			cursor.reset(message, 0, message.length);
+			stats.messages++;
+			stats.bytes += message.length;
+			out.append(",\"records\":[");
+			boolean first = true;
+			while (cursor.next()) {
+				if (!first)
+					out.append(',');
+				first = false;
+				decodeRecord(cursor, out, stats);
+			}
+			out.append("]}\n");
+			stats.decoded[TYPE_MESSAGE]++;
+		} catch (IllegalArgumentException e) {
+			// Drop any partial record list and report the message as a whole
+			out.setLength(length);
+			out.append("{\"source\":");
+			appendJson(out, source);
+			out.append(",\"line\":").append(lineNumber).append(",\"error\":");
+			appendJson(out, String.valueOf(e.getMessage()));
+			out.append("}\n");
+			stats.failed[TYPE_MESSAGE]++;
+		}
+	}
+
+	private static void decodeRecord(NdefRecordCursor cursor, StringBuilder out, Stats stats) {
+		byte[] data = cursor.data();
+		int type = classify(cursor);
+		int length = out.length();
+		out.append("{\"type\":\"").append(TYPE_NAMES[type]).append('"');
+		try {
+			switch (type) {
+			case TYPE_URI:
+				out.append(",\"uri\":");
+				appendJson(out, decodeUri(cursor));
+				break;
+			case TYPE_TEXT:
+				out.append(",\"language\":");
+				appendJson(out, NdefPayloads.decodeTextLanguage(data, cursor.payloadOffset, cursor.payloadLength));
+				out.append(",\"text\":");
+				appendJson(out, NdefPayloads.decodeText(data, cursor.payloadOffset, cursor.payloadLength));
+				break;
+			case TYPE_SMART_POSTER:
+				decodeSmartPoster(data, cursor.payloadOffset, cursor.payloadLength, out);
+				break;
+			case TYPE_EXTERNAL:
+				out.append(",\"name\":");
+				appendJson(out, new String(data, cursor.typeOffset, cursor.typeLength, NdefPayloads.US_ASCII));
+				out.append(",\"length\":").append(cursor.payloadLength);
+				break;
+			default:
+				out.append(",\"tnf\":").append(cursor.tnf).append(",\"length\":").append(cursor.payloadLength);
+			}
+			out.append('}');
+			stats.decoded[type]++;
+		} catch (IllegalArgumentException e) {
+			// Drop any partially written fields
+			out.setLength(length);
+			out.append("{\"type\":\"").append(TYPE_NAMES[type]).append("\",\"error\":");
+			appendJson(out, String.valueOf(e.getMessage()));
+			out.append('}');
+			stats.failed[type]++;
+		}
+	}
+
+	/**
+	 * Decodes the URI and title of a smart poster payload (a nested NDEF message) with the plug-in's
+	 * {@link NfcSmartPoster#parse(NdefRecord)}.
+	 */
+	private static void decodeSmartPoster(byte[] data, int offset, int length, StringBuilder out) {
+		NdefRecord record = new NdefRecord(NdefRecord.TNF_WELL_KNOWN, NdefRecord.RTD_SMART_POSTER, new byte[0],
+				Arrays.copyOfRange(data, offset, offset + length));
+		NfcSmartPoster poster;
+		try {
+			poster = NfcSmartPoster.parse(record);
+		} catch (IllegalArgumentException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalArgumentException(e);
+		}
+		INfcUriRecord uri = poster.getNfcUriRecord();
+		if (uri == null)
+			throw new IllegalArgumentException("Smart poster without URI record");
+		out.append(",\"uri\":");
+		appendJson(out, uri.getUri().toString());
+		INfcTextRecord title = poster.getTitle();
+		if (title != null) {
+			out.append(",\"title\":");
+			appendJson(out, title.getText());
+		}
+	}
+
+	private static String decodeUri(NdefRecordCursor cursor) {
+		if (cursor.tnf == NdefPayloads.TNF_ABSOLUTE_URI)
+			return NdefPayloads.decodeUtf8(cursor.data(), cursor.typeOffset, cursor.typeLength);
+		return NdefPayloads.decodeWellKnownUri(cursor.data(), cursor.payloadOffset, cursor.payloadLength);
+	}
+
+	private static int classify(NdefRecordCursor cursor) {
+		if (cursor.chunked)
+			throw new IllegalArgumentException("Chunked records are not supported");
+		switch (cursor.tnf) {
+		case NdefPayloads.TNF_WELL_KNOWN:
+			if (cursor.typeEquals(NdefPayloads.TYPE_URI))
+				return TYPE_URI;
+			if (cursor.typeEquals(NdefPayloads.TYPE_TEXT))
+				return TYPE_TEXT;
+			if (cursor.typeEquals(NdefPayloads.TYPE_SMART_POSTER))
+				return TYPE_SMART_POSTER;
+			return TYPE_OTHER;
+		case NdefPayloads.TNF_ABSOLUTE_URI:
+			return TYPE_URI;
+		case NdefPayloads.TNF_EXTERNAL_TYPE:
+			return TYPE_EXTERNAL;
+		default:
+			return TYPE_OTHER;
+		}
+	}
+
+	static String summarize(Stats stats, long elapsedNanos, int parallelism) {
+		double seconds = Math.max(elapsedNanos, 1) / 1e9;
+		StringBuilder sb = new StringBuilder(256);
+		sb.append("{\"summary\":{\"messages\":").append(stats.messages);
+		sb.append(",\"bytes\":").append(stats.bytes);
+		sb.append(",\"seconds\":").append(String.format(Locale.US, "%.3f", seconds));
+		sb.append(",\"messages_per_second\":").append(Math.round(stats.messages / seconds));
+		sb.append(",\"megabytes_per_second\":");
+		sb.append(String.format(Locale.US, "%.2f", stats.bytes / seconds / 1e6));
+		sb.append(",\"parallelism\":").append(parallelism);
+		sb.append(",\"decoded\":{");
+		appendCounts(sb, stats.decoded);
+		sb.append("},\"failed\":{");
+		appendCounts(sb, stats.failed);
+		return sb.append("}}}").toString();
+	}
+
+	private static void appendCounts(StringBuilder sb, long[] counts) {
+		for (int i = 0; i < counts.length; i++) {
+			if (i > 0)
+				sb.append(',');
+			sb.append('"').append(TYPE_NAMES[i]).append("\":").append(counts[i]);
+		}
+	}
+
+	static void appendJson(StringBuilder out, String s) {
+		out.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					out.append("\\u00");
+					out.append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16));
+				} else
+					out.append(c);
+			}
+		}
+		out.append('"');
+	}
+}
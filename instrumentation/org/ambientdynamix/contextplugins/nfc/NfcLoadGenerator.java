@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.ambientdynamix.api.application.IContextInfo;
+
+import android.content.Intent;
+import android.nfc.NdefMessage;
+import android.nfc.NdefRecord;
+import android.nfc.NfcAdapter;
+import android.nfc.Tag;
+import android.os.Bundle;
+import android.os.Parcelable;
+
+/**
+ * Lab harness that drives {@link NfcPluginRuntime#onNfcEvent(Intent)} with synthetic tap intents at a fixed rate and
+ * mix, to reproduce gate-rush load without hardware or Dynamix. Events are captured by a recording
+ * {@link NfcPluginRuntime.ContextEventSink} standing in for the plug-in facade. Taps are scheduled open-loop, and
+ * latency is measured from each tap's scheduled time to the time its events were sent, so that a runtime falling
+ * behind shows up as latency rather than as a lower offered rate. Needs the Android runtime (for Intent, Tag and the
+ * NDEF classes, and the hidden Tag.createMockTag), so it lives in the instrumentation sources, which are compiled into
+ * an on-device test package alongside the plug-in sources and are not part of the plug-in.
+ */
+class NfcLoadGenerator {
+	public static final int TAP_TAG_ONLY = 0;
+	public static final int TAP_URI = 1;
+	public static final int TAP_TEXT = 2;
+	public static final int TAP_SMART_POSTER = 3;
+	public static final int TAP_MALFORMED = 4;
+	private static final String[] TAP_NAMES = new String[] { "tag_only", "uri", "text", "smart_poster", "malformed" };
+	// Tag technology constant from android.nfc.tech.TagTechnology
+	private static final int NFC_A = 1;
+	private static final int NDEF = 6;
+	private final NfcPluginRuntime runtime;
+	private final Random random = new Random(42);
+	private final Method createMockTag;
+
+	/**
+	 * Load settings for a run.
+	 */
+	public static class Config {
+		/** Offered taps per second */
+		public int tapsPerSecond = 50;
+		/** Length of the run */
+		public long durationMillis = 60000;
+		/** Relative weights of the tap kinds, indexed by the TAP_ constants */
+		public int[] mix = new int[] { 40, 30, 15, 10, 5 };
+		/** Number of distinct tag UIDs to cycle through */
+		public int distinctTags = 1000;
+		/** Number of taps between heap samples */
+		public int heapSampleInterval = 1000;
+		/** Deliver taps as Tag objects through a stand-in reader mode source instead of as intents */
+		public boolean readerMode;
+	}
+
+	/**
+	 * Results of a run.
+	 */
+	public static class Report {
+		public long taps;
+		public long events;
+		public long elapsedNanos;
+		public final long[] tapsByKind = new long[TAP_NAMES.length];
+		public final Map<String, Long> eventsByType = new HashMap<String, Long>();
+		public final LatencyHistogram firstEventLatency = new LatencyHistogram();
+		public final LatencyHistogram lastEventLatency = new LatencyHistogram();
+		public long heapStart;
+		public long heapEnd;
+		public long heapPeak;
+
+		public double sustainedTapsPerSecond() {
+			return elapsedNanos == 0 ? 0 : taps / (elapsedNanos / 1e9);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format(Locale.US, "taps=%d events=%d elapsed=%.1fs sustained=%.1f taps/s\n", taps,
+					events, elapsedNanos / 1e9, sustainedTapsPerSecond()));
+			for (int k = 0; k < tapsByKind.length; k++)
+				sb.append("  ").append(TAP_NAMES[k]).append('=').append(tapsByKind[k]);
+			sb.append("\n  events by type: ").append(eventsByType).append('\n');
+			sb.append("  first event latency (us): ").append(firstEventLatency).append('\n');
+			sb.append("  last event latency (us):  ").append(lastEventLatency).append('\n');
+			sb.append(String.format(Locale.US, "  heap start=%dKB end=%dKB peak=%dKB growth=%dKB", heapStart / 1024,
+					heapEnd / 1024, heapPeak / 1024, (heapEnd - heapStart) / 1024));
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Fixed-memory latency histogram in microseconds, with 16 linear sub-buckets per power of two (about 6% relative
+	 * error), so that long runs do not accumulate samples.
+	 */
+	public static class LatencyHistogram {
+		private static final int SUB_BUCKETS = 16;
+		private final long[] counts = new long[64 * SUB_BUCKETS];
+		private long total;
+		private long max;
+
+		void record(long micros) {
+			counts[index(Math.max(micros, 0))]++;
+			total++;
+			max = Math.max(max, micros);
+		}
+
+		private static int index(long v) {
+			if (v < SUB_BUCKETS)
+				return (int) v;
+			// Keep the top five bits of the value
+			int shift = 63 - Long.numberOfLeadingZeros(v) - 4;
+			return (shift + 1) * SUB_BUCKETS + (int) (v >>> shift) - SUB_BUCKETS;
+		}
+
+		private static long upperBound(int index) {
+			if (index < SUB_BUCKETS)
+				return index;
+			int shift = index / SUB_BUCKETS - 1;
+			long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+			return ((mantissa + 1) << shift) - 1;
+		}
+
+		public long percentile(double p) {
+			if (total == 0)
+				return 0;
+			long rank = (long) Math.ceil(p / 100.0 * total);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank)
+					return Math.min(upperBound(i), max);
+			}
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "p50=%d p90=%d p99=%d p99.9=%d max=%d", percentile(50), percentile(90),
+					percentile(99), percentile(99.9), max);
+		}
+	}
+
+	/**
+	 * Records the events of the tap in progress.
+	 */
+	private static class RecordingSink implements NfcPluginRuntime.ContextEventSink {
+		private final Report report;
+		private long tapScheduledNanos;
+		private long firstEventNanos;
+		private long lastEventNanos;
+
+		RecordingSink(Report report) {
+			this.report = report;
+		}
+
+		void beginTap(long scheduledNanos) {
+			tapScheduledNanos = scheduledNanos;
+			firstEventNanos = 0;
+			lastEventNanos = 0;
+		}
+
+		void endTap() {
+			if (firstEventNanos != 0) {
+				report.firstEventLatency.record((firstEventNanos - tapScheduledNanos) / 1000);
+				report.lastEventLatency.record((lastEventNanos - tapScheduledNanos) / 1000);
+			}
+		}
+
+		@Override
+		public void onContextEvent(IContextInfo event, int expireMills) {
+			long now = System.nanoTime();
+			if (firstEventNanos == 0)
+				firstEventNanos = now;
+			lastEventNanos = now;
+			report.events++;
+			Long count = report.eventsByType.get(event.getContextType());
+			report.eventsByType.put(event.getContextType(), count == null ? 1 : count + 1);
+		}
+	}
+
+	NfcLoadGenerator(NfcPluginRuntime runtime) {
+		this.runtime = runtime;
+		Method m = null;
+		try {
+			// Hidden API, but present since the Tag class was introduced
+			m = Tag.class.getMethod("createMockTag", byte[].class, int[].class, Bundle[].class);
+		} catch (Exception e) {
+			// Taps will be sent without EXTRA_TAG
+		}
+		this.createMockTag = m;
+	}
+
+	/**
+	 * Runs the given load against the runtime on the calling thread and returns the results. The runtime's event sink
+	 * is replaced for the duration of the run. Reader mode runs need a started runtime, as tag sources only deliver
+	 * tags while the runtime is started.
+	 */
+	public Report run(Config config) throws InterruptedException {
+		Report report = new Report();
+		RecordingSink sink = new RecordingSink(report);
+		Intent[][] intents = buildIntents(config);
+		Tag[][] tags = config.readerMode ? readerModeTags(intents) : null;
+		ManualTagSource source = new ManualTagSource();
+		int mixTotal = 0;
+		for (int weight : config.mix)
+			mixTotal += weight;
+		report.heapStart = usedHeap(true);
+		report.heapPeak = report.heapStart;
+		runtime.setEventSink(sink);
+		if (tags != null)
+			runtime.setTagSource(source);
+		try {
+			long period = 1000000000L / config.tapsPerSecond;
+			long start = System.nanoTime();
+			long end = start + config.durationMillis * 1000000L;
+			long scheduled = start;
+			while (scheduled < end) {
+				long now = System.nanoTime();
+				if (now < scheduled) {
+					long wait = scheduled - now;
+					Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+				}
+				int kind = pickKind(config.mix, mixTotal);
+				int n = (int) (report.taps % intents[kind].length);
+				sink.beginTap(scheduled);
+				if (tags != null)
+					source.discover(tags[kind][n]);
+				else
+					runtime.onNfcEvent(intents[kind][n]);
+				sink.endTap();
+				report.taps++;
+				report.tapsByKind[kind]++;
+				if (report.taps % config.heapSampleInterval == 0)
+					report.heapPeak = Math.max(report.heapPeak, usedHeap(false));
+				scheduled += period;
+			}
+			report.elapsedNanos = System.nanoTime() - start;
+		} finally {
+			if (tags != null)
+				runtime.setTagSource(null);
+			runtime.setEventSink(null);
+		}
+		report.heapEnd = usedHeap(true);
+		return report;
+	}
+
+	private int pickKind(int[] mix, int total) {
+		int r = random.nextInt(total);
+		for (int k = 0; k < mix.length; k++) {
+			r -= mix[k];
+			if (r < 0)
+				return k;
+		}
+		return TAP_TAG_ONLY;
+	}
+
+	/**
+	 * Prebuilds a pool of intents per tap kind, so that intent construction is not measured.
+	 */
+	private Intent[][] buildIntents(Config config) {
+		int poolSize = Math.max(1, Math.min(config.distinctTags, 256));
+		Intent[][] intents = new Intent[TAP_NAMES.length][poolSize];
+		for (int k = 0; k < TAP_NAMES.length; k++) {
+			for (int n = 0; n < poolSize; n++)
+				intents[k][n] = buildIntent(k, uid(random.nextInt(config.distinctTags)), n);
+		}
+		return intents;
+	}
+
+	private Intent buildIntent(int kind, byte[] uid, int n) {
+		Intent intent = new Intent(kind == TAP_TAG_ONLY ? NfcAdapter.ACTION_TAG_DISCOVERED
+				: NfcAdapter.ACTION_NDEF_DISCOVERED);
+		intent.putExtra(NfcAdapter.EXTRA_ID, uid);
+		Tag tag = mockTag(uid);
+		if (tag != null)
+			intent.putExtra(NfcAdapter.EXTRA_TAG, tag);
+		NdefRecord record;
+		switch (kind) {
+		case TAP_URI:
+			record = uriRecord("example.com/gate/" + n);
+			break;
+		case TAP_TEXT:
+			record = textRecord("en", "Badge " + n);
+			break;
+		case TAP_SMART_POSTER:
+			NdefMessage poster = new NdefMessage(new NdefRecord[] { uriRecord("example.com/poster/" + n),
+					textRecord("en", "Poster " + n) });
+			record = new NdefRecord(NdefRecord.TNF_WELL_KNOWN, NdefRecord.RTD_SMART_POSTER, new byte[0],
+					poster.toByteArray());
+			break;
+		case TAP_MALFORMED:
+			// Unknown URI identifier code and a language code longer than the payload
+			record = new NdefRecord(NdefRecord.TNF_WELL_KNOWN, NdefRecord.RTD_URI, new byte[0], new byte[] {
+					(byte) 0xF0, 'x' });
+			NdefRecord text = new NdefRecord(NdefRecord.TNF_WELL_KNOWN, NdefRecord.RTD_TEXT, new byte[0],
+					new byte[] { 0x3F, 'e' });
+			intent.putExtra(NfcAdapter.EXTRA_NDEF_MESSAGES, new NdefMessage[] { new NdefMessage(new NdefRecord[] {
+					record, text }) });
+			return intent;
+		default:
+			return intent;
+		}
+		intent.putExtra(NfcAdapter.EXTRA_NDEF_MESSAGES, new NdefMessage[] { new NdefMessage(
+				new NdefRecord[] { record }) });
+		return intent;
+	}
+
+	/**
+	 * Builds the tags reader mode would deliver for the given intents: the NDEF message, if any, is carried by the
+	 * tag's Ndef technology as after the platform's NDEF check.
+	 */
+	private Tag[][] readerModeTags(Intent[][] intents) {
+		if (createMockTag == null)
+			throw new IllegalStateException("Mock tags are not available");
+		Tag[][] tags = new Tag[intents.length][];
+		for (int k = 0; k < intents.length; k++) {
+			tags[k] = new Tag[intents[k].length];
+			for (int n = 0; n < intents[k].length; n++) {
+				Intent intent = intents[k][n];
+				Parcelable[] messages = intent.getParcelableArrayExtra(NfcAdapter.EXTRA_NDEF_MESSAGES);
+				byte[] uid = intent.getByteArrayExtra(NfcAdapter.EXTRA_ID);
+				try {
+					if (messages == null) {
+						tags[k][n] = mockTag(uid);
+					} else {
+						// Keys read by android.nfc.tech.Ndef
+						Bundle ndef = new Bundle();
+						ndef.putParcelable("ndefmsg", messages[0]);
+						ndef.putInt("ndefmaxlength", 888);
+						ndef.putInt("ndefcardstate", 1);
+						ndef.putInt("ndeftype", 2);
+						tags[k][n] = (Tag) createMockTag.invoke(null, uid, new int[] { NFC_A, NDEF }, new Bundle[] {
+								new Bundle(), ndef });
+					}
+				} catch (Exception e) {
+					throw new IllegalStateException("Could not create mock tag", e);
+				}
+			}
+		}
+		return tags;
+	}
+
+	private Tag mockTag(byte[] uid) {
+		if (createMockTag == null)
+			return null;
+		try {
+			return (Tag) createMockTag.invoke(null, uid, new int[] { NFC_A }, new Bundle[] { new Bundle() });
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static NdefRecord uriRecord(String uri) {
+		byte[] rest = uri.getBytes(Charset.forName("UTF-8"));
+		byte[] payload = new byte[rest.length + 1];
+		// "https://"
+		payload[0] = 0x04;
+		System.arraycopy(rest, 0, payload, 1, rest.length);
+		return new NdefRecord(NdefRecord.TNF_WELL_KNOWN, NdefRecord.RTD_URI, new byte[0], payload);
+	}
+
+	private static NdefRecord textRecord(String language, String text) {
+		byte[] lang = language.getBytes(Charset.forName("US-ASCII"));
+		byte[] body = text.getBytes(Charset.forName("UTF-8"));
+		byte[] payload = new byte[1 + lang.length + body.length];
+		payload[0] = (byte) lang.length;
+		System.arraycopy(lang, 0, payload, 1, lang.length);
+		System.arraycopy(body, 0, payload, 1 + lang.length, body.length);
+		return new NdefRecord(NdefRecord.TNF_WELL_KNOWN, NdefRecord.RTD_TEXT, new byte[0], payload);
+	}
+
+	private static byte[] uid(int n) {
+		// 7 byte UID with the NXP manufacturer code
+		return new byte[] { 0x04, (byte) (n >>> 24), (byte) (n >>> 16), (byte) (n >>> 8), (byte) n, 0x5A, (byte) 0x80 };
+	}
+
+	private static long usedHeap(boolean collect) {
+		Runtime rt = Runtime.getRuntime();
+		if (collect) {
+			System.gc();
+			System.runFinalization();
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+
+import android.util.Log;
+
+/**
+ * A named sequence of command APDUs to run against ISO-DEP cards, see {@link IsoDepReader}.
+ */
+final class ApduScript {
+	private static final String TAG = ApduScript.class.getSimpleName();
+	/**
+	 * Settings key holding the scripts, as "name=APDU;APDU;...|name=APDU;..." with each APDU in hex.
+	 */
+	public static final String SETTINGS_KEY = "isodep_scripts";
+	/**
+	 * Settings key holding the per-card deadline in milliseconds for running all scripts.
+	 */
+	public static final String DEADLINE_SETTINGS_KEY = "isodep_deadline_ms";
+	public static final int DEFAULT_DEADLINE_MILLIS = 500;
+	final String name;
+	final byte[][] commands;
+	/**
+	 * The commands, with short "Le = 00" (up to 256 bytes) expectations rewritten as extended "Le = 0000" (up to 65536
+	 * bytes), for cards that support extended length APDUs.
+	 */
+	final byte[][] extendedCommands;
+
+	ApduScript(String name, byte[][] commands) {
+		this.name = name;
+		this.commands = commands;
+		this.extendedCommands = new byte[commands.length][];
+		for (int i = 0; i < commands.length; i++)
+			extendedCommands[i] = toExtendedLe(commands[i]);
+	}
+
+	/**
+	 * Rewrites a case 2 short command (header and Le = 00 only) into its extended form, leaving other commands as is.
+	 */
+	static byte[] toExtendedLe(byte[] command) {
+		if (command.length != 5 || command[4] != 0)
+			return command;
+		return new byte[] { command[0], command[1], command[2], command[3], 0, 0, 0 };
+	}
+
+	/**
+	 * Returns the scripts of the {@link #SETTINGS_KEY} setting, or an empty list if there are none.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the setting is malformed.
+	 */
+	public static List<ApduScript> fromSettings(ContextPluginSettings settings) {
+		String value = settings != null ? settings.get(SETTINGS_KEY) : null;
+		if (value == null || value.trim().length() == 0)
+			return Collections.emptyList();
+		List<ApduScript> scripts = new ArrayList<ApduScript>();
+		for (String script : value.split("\\|")) {
+			int eq = script.indexOf('=');
+			if (eq <= 0)
+				throw new IllegalArgumentException("Malformed APDU script: " + script);
+			String[] apdus = script.substring(eq + 1).split(";");
+			byte[][] commands = new byte[apdus.length][];
+			for (int i = 0; i < apdus.length; i++) {
+				commands[i] = HexStrings.toBytes(apdus[i].trim(), 0);
+				if (commands[i].length < 4)
+					throw new IllegalArgumentException("APDU too short: " + apdus[i]);
+			}
+			scripts.add(new ApduScript(script.substring(0, eq).trim(), commands));
+		}
+		return scripts;
+	}
+
+	/**
+	 * Returns the {@link #DEADLINE_SETTINGS_KEY} setting, or {@link #DEFAULT_DEADLINE_MILLIS} if it is absent or not a
+	 * positive number.
+	 */
+	public static int deadlineFromSettings(ContextPluginSettings settings) {
+		String value = settings != null ? settings.get(DEADLINE_SETTINGS_KEY) : null;
+		if (value == null)
+			return DEFAULT_DEADLINE_MILLIS;
+		try {
+			int deadline = Integer.parseInt(value.trim());
+			if (deadline > 0)
+				return deadline;
+		} catch (NumberFormatException e) {
+		}
+		Log.w(TAG, "Ignoring ISO-DEP deadline: " + value);
+		return DEFAULT_DEADLINE_MILLIS;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.Collection;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+
+/**
+ * The context types of this plug-in that currently have subscribers, as a bit mask so that the tap path can check
+ * them with a single volatile read. Subscriptions are replaced as a whole, never modified in place.
+ */
+final class ContextSubscriptions {
+	/**
+	 * Settings key holding a comma separated list of subscribed context types. If absent, the {@link #DEFAULT} types
+	 * are produced.
+	 */
+	public static final String SETTINGS_KEY = "subscribed_context_types";
+	public static final int TAG = 1 << 0;
+	public static final int URI_RECORD = 1 << 1;
+	public static final int TEXT_RECORD = 1 << 2;
+	public static final int SMART_POSTER = 1 << 3;
+	/** Records decoded through the {@link ExternalTypeRegistry} */
+	public static final int EXTERNAL_RECORD = 1 << 4;
+	public static final int ISO_DEP_RESPONSE = 1 << 5;
+	public static final int RAW_MEMORY = 1 << 6;
+	public static final int TAP_STATISTICS = 1 << 7;
+	public static final int HANDOVER = 1 << 8;
+	public static final int SIGNATURE = 1 << 9;
+	public static final int TAG_DEPARTED = 1 << 10;
+	public static final int EMULATION_STATISTICS = 1 << 11;
+	public static final int NDEF_DELTA = 1 << 12;
+	/** Types decoded from NDEF messages */
+	public static final int NDEF_RECORDS = URI_RECORD | TEXT_RECORD | SMART_POSTER | EXTERNAL_RECORD | HANDOVER
+			| SIGNATURE | NDEF_DELTA;
+	/** Types decoded for the {@link TapTextIndex}, whether or not they are subscribed */
+	public static final int INDEXED_RECORDS = URI_RECORD | TEXT_RECORD | SMART_POSTER;
+	public static final int ALL = ~0;
+	/**
+	 * Types produced without a subscription setting: all but raw memory, whose dump is a synchronous read of the
+	 * whole tag and must be subscribed to explicitly.
+	 */
+	public static final int DEFAULT = ALL & ~RAW_MEMORY;
+	public static final int NONE = 0;
+	private static final String PREFIX = "org.ambientdynamix.contextplugins.nfc.";
+
+	private ContextSubscriptions() {
+	}
+
+	/**
+	 * Returns the mask for the {@link #SETTINGS_KEY} setting, or {@link #DEFAULT} if it is not present.
+	 */
+	public static int fromSettings(ContextPluginSettings settings) {
+		String value = settings != null ? settings.get(SETTINGS_KEY) : null;
+		if (value == null)
+			return DEFAULT;
+		int mask = NONE;
+		for (String type : value.split(","))
+			mask |= bitFor(type.trim());
+		return mask;
+	}
+
+	/**
+	 * Returns the mask for the given context types.
+	 */
+	public static int fromContextTypes(Collection<String> contextTypes) {
+		int mask = NONE;
+		for (String type : contextTypes)
+			mask |= bitFor(type);
+		return mask;
+	}
+
+	/**
+	 * Returns the bit for the given context type. Any other type is assumed to be produced by an external type decoder,
+	 * whose context type is only known once a record has been decoded.
+	 */
+	static int bitFor(String contextType) {
+		if (contextType.length() == 0)
+			return NONE;
+		String name = contextType.startsWith(PREFIX) ? contextType.substring(PREFIX.length()) : contextType;
+		if (name.equals("tag"))
+			return TAG;
+		if (name.equals("uri_record"))
+			return URI_RECORD;
+		if (name.equals("text_record"))
+			return TEXT_RECORD;
+		if (name.equals("smart_poster"))
+			return SMART_POSTER;
+		if (name.equals("isodep_response"))
+			return ISO_DEP_RESPONSE;
+		if (name.equals("raw_memory"))
+			return RAW_MEMORY;
+		if (name.equals("tap_statistics"))
+			return TAP_STATISTICS;
+		if (name.equals("handover"))
+			return HANDOVER;
+		if (name.equals("signature"))
+			return SIGNATURE;
+		if (name.equals("tag_departed"))
+			return TAG_DEPARTED;
+		if (name.equals("emulation_statistics"))
+			return EMULATION_STATISTICS;
+		if (name.equals("ndef_delta"))
+			return NDEF_DELTA;
+		// Answered on request only
+		if (name.equals("tap_query"))
+			return NONE;
+		return EXTERNAL_RECORD;
+	}
+}
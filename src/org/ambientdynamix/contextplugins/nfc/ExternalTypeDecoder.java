@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import android.nfc.NdefRecord;
+
+/**
+ * Decodes NFC Forum external type records (TNF_EXTERNAL_TYPE) such as "example.com:asset". Implementations are
+ * registered with the {@link ExternalTypeRegistry} by type name and must provide a public no-argument constructor, since
+ * they are only instantiated the first time a matching record is seen. The returned record should also implement
+ * {@link org.ambientdynamix.api.application.IContextInfo} so that it can be sent as a context event.
+ */
+public interface ExternalTypeDecoder {
+	/**
+	 * Decodes the given record, or returns null if the record should be ignored.
+	 * 
+	 * @throws Exception
+	 *             if the record is malformed.
+	 */
+	public ParsedNdefRecord decode(NdefRecord record) throws Exception;
+}
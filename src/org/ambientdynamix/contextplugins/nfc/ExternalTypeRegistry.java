@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+
+import android.nfc.NdefRecord;
+import android.util.Log;
+
+/**
+ * Maps NFC Forum external type names (e.g. "example.com:asset") to {@link ExternalTypeDecoder} implementations.
+ * Decoders are registered by class name, either through the plug-in settings or through resource files, and are only
+ * instantiated the first time a record of their type is seen. Lookups hash the raw type bytes of the record (ignoring
+ * ASCII case, since external type names are case-insensitive) and probe a table that is rebuilt and swapped on each
+ * (re)configuration, so the tap path never takes a lock once a decoder is loaded.
+ */
+class ExternalTypeRegistry {
+	/**
+	 * Settings key holding a comma separated list of "type=fully.qualified.DecoderClass" entries.
+	 */
+	public static final String SETTINGS_KEY = "external_type_decoders";
+	/**
+	 * Resource files holding one "type=fully.qualified.DecoderClass" entry per line ('#' starts a comment).
+	 */
+	public static final String SERVICES_RESOURCE = "META-INF/services/" + ExternalTypeDecoder.class.getName();
+	private static final ExternalTypeRegistry DEFAULT = new ExternalTypeRegistry();
+	private final String TAG = this.getClass().getSimpleName();
+	private final ClassLoader loader;
+	private volatile Entry[] table;
+
+	/**
+	 * A registered type name and its lazily created decoder.
+	 */
+	private static final class Entry {
+		private final byte[] type;
+		private final int hash;
+		private final String className;
+		private final Entry next;
+		private volatile ExternalTypeDecoder decoder;
+		private volatile boolean failed;
+
+		private Entry(byte[] type, int hash, String className, Entry next) {
+			this.type = type;
+			this.hash = hash;
+			this.className = className;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * Returns the registry used by {@link NfcPluginRuntime#getRecords(NdefRecord[])}.
+	 */
+	public static ExternalTypeRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	ExternalTypeRegistry() {
+		this(ExternalTypeRegistry.class.getClassLoader());
+	}
+
+	ExternalTypeRegistry(ClassLoader loader) {
+		this.loader = loader;
+		configure(null);
+	}
+
+	/**
+	 * Rebuilds the registry from the built-in decoders, any {@link #SERVICES_RESOURCE} files visible to the class
+	 * loader and the {@link #SETTINGS_KEY} entry of the given settings (which may be null). Later sources override
+	 * earlier ones for the same type. Decoders that were already instantiated are kept if their class is unchanged.
+	 */
+	public synchronized void configure(ContextPluginSettings settings) {
+		Map<String, String> decoders = new LinkedHashMap<String, String>();
+		decoders.put(NfcApplicationRecord.EXTERNAL_TYPE, NfcApplicationRecord.Decoder.class.getName());
+		loadResources(decoders);
+		if (settings != null)
+			parseEntries(settings.get(SETTINGS_KEY), ",", decoders);
+		Entry[] old = table;
+		Entry[] next = new Entry[tableSize(decoders.size())];
+		for (Map.Entry<String, String> e : decoders.entrySet()) {
+			byte[] type = e.getKey().getBytes(Charset.forName("US-ASCII"));
+			int hash = hash(type, 0, type.length);
+			int slot = hash & (next.length - 1);
+			Entry entry = new Entry(type, hash, e.getValue(), next[slot]);
+			Entry previous = old != null ? find(old, type, hash) : null;
+			if (previous != null && previous.className.equals(entry.className))
+				entry.decoder = previous.decoder;
+			next[slot] = entry;
+		}
+		table = next;
+		Log.i(TAG, "Registered external type decoders: " + decoders);
+	}
+
+	/**
+	 * Decodes the given TNF_EXTERNAL_TYPE record with its registered decoder. Returns null if no decoder is
+	 * registered for the record's type, or if the decoder could not be created.
+	 *
+	 * @throws Exception
+	 *             if the decoder rejects the record.
+	 */
+	public ParsedNdefRecord decode(NdefRecord record) throws Exception {
+		byte[] type = record.getType();
+		Entry entry = find(table, type, hash(type, 0, type.length));
+		if (entry == null)
+			return null;
+		ExternalTypeDecoder decoder = entry.decoder;
+		if (decoder == null) {
+			decoder = load(entry);
+			if (decoder == null)
+				return null;
+		}
+		return decoder.decode(record);
+	}
+
+	private ExternalTypeDecoder load(Entry entry) {
+		synchronized (entry) {
+			if (entry.decoder == null && !entry.failed) {
+				try {
+					Class<?> c = Class.forName(entry.className, true, loader);
+					entry.decoder = (ExternalTypeDecoder) c.getDeclaredConstructor().newInstance();
+					Log.i(TAG, "Loaded external type decoder: " + entry.className);
+				} catch (ReflectiveOperationException e) {
+					failed(entry, e);
+				} catch (RuntimeException e) {
+					// Not a decoder, or its constructor failed
+					failed(entry, e);
+				}
+			}
+			return entry.decoder;
+		}
+	}
+
+	private void failed(Entry entry, Exception e) {
+		// Don't retry on every tap
+		entry.failed = true;
+		Log.w(TAG, "Could not load external type decoder: " + entry.className, e);
+	}
+
+	private void loadResources(Map<String, String> decoders) {
+		if (loader == null)
+			return;
+		try {
+			Enumeration<URL> urls = loader.getResources(SERVICES_RESOURCE);
+			while (urls.hasMoreElements()) {
+				URL url = urls.nextElement();
+				BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), "UTF-8"));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						int comment = line.indexOf('#');
+						parseEntries(comment >= 0 ? line.substring(0, comment) : line, ",", decoders);
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "Could not read " + SERVICES_RESOURCE, e);
+		}
+	}
+
+	private void parseEntries(String value, String separator, Map<String, String> decoders) {
+		if (value == null)
+			return;
+		for (String item : value.split(separator)) {
+			int eq = item.indexOf('=');
+			if (eq <= 0) {
+				if (item.trim().length() > 0)
+					Log.w(TAG, "Ignoring malformed external type decoder entry: " + item);
+				continue;
+			}
+			String type = item.substring(0, eq).trim().toLowerCase(Locale.US);
+			String className = item.substring(eq + 1).trim();
+			if (type.length() > 0 && className.length() > 0)
+				decoders.put(type, className);
+		}
+	}
+
+	private static Entry find(Entry[] table, byte[] type, int hash) {
+		for (Entry e = table[hash & (table.length - 1)]; e != null; e = e.next) {
+			if (e.hash == hash && equalsIgnoreCase(e.type, type))
+				return e;
+		}
+		return null;
+	}
+
+	private static int tableSize(int entries) {
+		int size = 8;
+		while (size < entries * 2)
+			size <<= 1;
+		return size;
+	}
+
+	/**
+	 * Hashes the given bytes with ASCII upper case folded to lower case.
+	 */
+	static int hash(byte[] bytes, int offset, int length) {
+		int h = 0;
+		for (int i = offset; i < offset + length; i++)
+			h = 31 * h + toLower(bytes[i]);
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean equalsIgnoreCase(byte[] registered, byte[] type) {
+		if (registered.length != type.length)
+			return false;
+		for (int i = 0; i < type.length; i++) {
+			if (registered[i] != toLower(type[i]))
+				return false;
+		}
+		return true;
+	}
+
+	private static byte toLower(byte b) {
+		return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+	}
+}
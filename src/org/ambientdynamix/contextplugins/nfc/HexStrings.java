@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+/**
+ * Hex string decoding for settings and files that hold UIDs, keys, APDUs and NDEF messages.
+ */
+final class HexStrings {
+	private HexStrings() {
+	}
+
+	/**
+	 * Decodes the hex digits of s from offset to its end, ignoring trailing whitespace.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if there is an odd number of digits or a non-hex character.
+	 */
+	static byte[] toBytes(String s, int offset) {
+		int end = s.length();
+		while (end > offset && Character.isWhitespace(s.charAt(end - 1)))
+			end--;
+		if (((end - offset) & 1) != 0)
+			throw new IllegalArgumentException("Odd number of hex digits");
+		byte[] bytes = new byte[(end - offset) / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			int hi = Character.digit(s.charAt(offset + 2 * i), 16);
+			int lo = Character.digit(s.charAt(offset + 2 * i + 1), 16);
+			if (hi < 0 || lo < 0)
+				throw new IllegalArgumentException("Invalid hex digit");
+			bytes[i] = (byte) ((hi << 4) | lo);
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,22 @@
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.Set;
+
+import android.nfc.NdefRecord;
+
+public interface INfcApplicationRecord {
+	public NdefRecord getNdefRecord();
+
+	/**
+	 * Returns the Android package name carried by this Android Application Record.
+	 */
+	public String getPackageName();
+
+	public String getContextType();
+
+	public String getImplementingClassname();
+
+	public String getStringRepresentation(String format);
+
+	public Set<String> getStringRepresentationFormats();
+}
@@ -0,0 +1,37 @@
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.Set;
+
+public interface INfcEmulationStatistics {
+	/**
+	 * Returns the number of command APDUs answered in the session.
+	 */
+	public int getApduCount();
+
+	public int getReadCount();
+
+	/**
+	 * Returns the number of commands answered with an error status word.
+	 */
+	public int getErrorCount();
+
+	/**
+	 * Returns the number of NDEF and CC file bytes sent.
+	 */
+	public long getBytesServed();
+
+	/**
+	 * Returns the mean time taken to answer a command, in nanoseconds.
+	 */
+	public long getMeanResponseNanos();
+
+	public long getMaxResponseNanos();
+
+	public String getContextType();
+
+	public String getImplementingClassname();
+
+	public String getStringRepresentation(String format);
+
+	public Set<String> getStringRepresentationFormats();
+}
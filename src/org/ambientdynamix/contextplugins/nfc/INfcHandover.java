@@ -0,0 +1,70 @@
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.Set;
+
+public interface INfcHandover {
+	/**
+	 * Returns "bluetooth" or "wifi".
+	 */
+	public String getCarrierType();
+
+	/**
+	 * Returns the carrier power state announced by the handover select record ("inactive", "active", "activating"),
+	 * or "unknown" if the carrier record was not referenced by one.
+	 */
+	public String getCarrierPowerState();
+
+	/**
+	 * Returns the id of the carrier configuration record, by which handover records reference it, or null.
+	 */
+	public String getCarrierReference();
+
+	/**
+	 * Returns the Bluetooth device address or Wi-Fi MAC address as colon separated hex, or null.
+	 */
+	public String getAddress();
+
+	/**
+	 * Returns the Bluetooth local name or Wi-Fi SSID, or null.
+	 */
+	public String getName();
+
+	/**
+	 * Returns the Bluetooth class of device, or -1.
+	 */
+	public int getDeviceClass();
+
+	/**
+	 * Returns the Wi-Fi authentication type ("open", "wpa-psk", "shared", "wpa", "wpa2", "wpa2-psk" or the hex
+	 * value), or null.
+	 */
+	public String getAuthenticationType();
+
+	/**
+	 * Returns the Wi-Fi encryption type ("none", "wep", "tkip", "aes", "aes/tkip" or the hex value), or null.
+	 */
+	public String getEncryptionType();
+
+	/**
+	 * Returns the Wi-Fi network key, or null. Only included if the plug-in's handover_network_key setting is enabled.
+	 */
+	public String getNetworkKey();
+
+	/**
+	 * Returns "unsigned", "verified", "invalid", "pending" or "unverifiable", see the signature context type.
+	 */
+	public String getSignatureStatus();
+
+	/**
+	 * Returns the sequence number of the tap that produced this event, shared by all events of the tap, or -1.
+	 */
+	public long getTapSequence();
+
+	public String getContextType();
+
+	public String getImplementingClassname();
+
+	public String getStringRepresentation(String format);
+
+	public Set<String> getStringRepresentationFormats();
+}
@@ -0,0 +1,45 @@
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.Set;
+
+public interface INfcIsoDepResponse {
+	/**
+	 * Returns the name of the APDU script that produced this response.
+	 */
+	public String getScriptName();
+
+	/**
+	 * Returns the number of commands that were answered, including a final failed one.
+	 */
+	public int getResponseCount();
+
+	/**
+	 * Returns the response data (without status word) of the given command, with chained responses joined.
+	 */
+	public byte[] getResponse(int index);
+
+	/**
+	 * Returns the final status word of the given command, or -1 if the card deadline passed.
+	 */
+	public int getStatusWord(int index);
+
+	/**
+	 * Returns true if every command of the script completed successfully.
+	 */
+	public boolean isComplete();
+
+	public long getElapsedMillis();
+
+	/**
+	 * Returns the sequence number of the tap that produced this event, shared by all events of the tap, or -1.
+	 */
+	public long getTapSequence();
+
+	public String getContextType();
+
+	public String getImplementingClassname();
+
+	public String getStringRepresentation(String format);
+
+	public Set<String> getStringRepresentationFormats();
+}
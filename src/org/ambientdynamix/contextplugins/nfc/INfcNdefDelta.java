@@ -0,0 +1,61 @@
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.Set;
+
+import android.nfc.NdefRecord;
+
+public interface INfcNdefDelta {
+	public String getTagIdAsString();
+
+	/**
+	 * Returns the sequence number of the tap that produced this event, shared by all events of the tap, or -1.
+	 */
+	public long getTapSequence();
+
+	/**
+	 * Returns true if the tag was not remembered, in which case all records are reported as added.
+	 */
+	public boolean isFirstSeen();
+
+	/**
+	 * Returns the fingerprint of the tag's NDEF content, as 16 hex digits.
+	 */
+	public String getFingerprint();
+
+	/**
+	 * Returns the fingerprint of the content previously seen, or null if the tag was not remembered.
+	 */
+	public String getPreviousFingerprint();
+
+	/**
+	 * Returns the number of records now on the tag.
+	 */
+	public int getRecordCount();
+
+	/**
+	 * Returns the indices of the records added at the end of the message.
+	 */
+	public int[] getAddedIndices();
+
+	public NdefRecord[] getAddedRecords();
+
+	/**
+	 * Returns the indices of the records whose content differs from the record previously at the same index.
+	 */
+	public int[] getChangedIndices();
+
+	public NdefRecord[] getChangedRecords();
+
+	/**
+	 * Returns the indices, in the previous message, of the records no longer on the tag.
+	 */
+	public int[] getRemovedIndices();
+
+	public String getContextType();
+
+	public String getImplementingClassname();
+
+	public String getStringRepresentation(String format);
+
+	public Set<String> getStringRepresentationFormats();
+}
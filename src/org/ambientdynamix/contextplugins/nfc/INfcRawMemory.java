@@ -0,0 +1,35 @@
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+public interface INfcRawMemory {
+	/**
+	 * Returns a read-only view of the tag memory, starting at page 0.
+	 */
+	public ByteBuffer getMemory();
+
+	public int getPageSize();
+
+	public int getPageCount();
+
+	/**
+	 * Returns the number of commands sent to the tag to read its memory.
+	 */
+	public int getTransceiveCount();
+
+	public long getElapsedMillis();
+
+	/**
+	 * Returns the sequence number of the tap that produced this event, shared by all events of the tap, or -1.
+	 */
+	public long getTapSequence();
+
+	public String getContextType();
+
+	public String getImplementingClassname();
+
+	public String getStringRepresentation(String format);
+
+	public Set<String> getStringRepresentationFormats();
+}
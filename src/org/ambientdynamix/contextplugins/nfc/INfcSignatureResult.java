@@ -0,0 +1,46 @@
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.Set;
+
+public interface INfcSignatureResult {
+	/**
+	 * Returns "verified", "invalid" or "unverifiable".
+	 */
+	public String getStatus();
+
+	/**
+	 * Returns the Signature RTD signature type, or -1 if the signature record could not be parsed.
+	 */
+	public int getSignatureType();
+
+	/**
+	 * Returns the index in its message of the first record covered by the signature.
+	 */
+	public int getFirstRecord();
+
+	public int getRecordCount();
+
+	/**
+	 * Returns the hex fingerprint of the signer's certificate chain, or null if the signature was checked against the
+	 * trusted keys directly.
+	 */
+	public String getKeyId();
+
+	/**
+	 * Returns the hex SHA-256 of the covered records and the signature, or null.
+	 */
+	public String getContentHash();
+
+	/**
+	 * Returns the sequence number of the tap that produced this event, shared by all events of the tap, or -1.
+	 */
+	public long getTapSequence();
+
+	public String getContextType();
+
+	public String getImplementingClassname();
+
+	public String getStringRepresentation(String format);
+
+	public Set<String> getStringRepresentationFormats();
+}
@@ -10,6 +10,16 @@ public interface INfcSmartPoster {
 	 */
 	public INfcTextRecord getTitle();
 
+	/**
+	 * Returns "unsigned", "verified", "invalid", "pending" or "unverifiable", see the signature context type.
+	 */
+	public String getSignatureStatus();
+
+	/**
+	 * Returns the sequence number of the tap that produced this event, shared by all events of the tap, or -1.
+	 */
+	public long getTapSequence();
+
 	public String getContextType();
 
 	public String getImplementingClassname();
@@ -9,6 +9,26 @@ public interface INfcTag {
 
 	public String getTagIdAsString();
 
+	/**
+	 * Returns the sequence number of the tap that produced this event, shared by all events of the tap, or -1.
+	 */
+	public long getTapSequence();
+
+	/**
+	 * Returns the owner of the tagged asset from the plug-in's UID metadata store, or null.
+	 */
+	public String getOwner();
+
+	/**
+	 * Returns the location of the tagged asset from the plug-in's UID metadata store, or null.
+	 */
+	public String getLocation();
+
+	/**
+	 * Returns the class of the tagged asset from the plug-in's UID metadata store, or null.
+	 */
+	public String getAssetClass();
+
 	public String getContextType();
 
 	public String getStringRepresentation(String format);
@@ -0,0 +1,25 @@
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.Set;
+
+public interface INfcTagDeparted {
+	public String getTagIdAsString();
+
+	/**
+	 * Returns the sequence number of the tap whose tag departed.
+	 */
+	public long getTapSequence();
+
+	/**
+	 * Returns how long the tag stayed in the field, measured at the resolution of the presence check interval.
+	 */
+	public long getDwellMillis();
+
+	public String getContextType();
+
+	public String getImplementingClassname();
+
+	public String getStringRepresentation(String format);
+
+	public Set<String> getStringRepresentationFormats();
+}
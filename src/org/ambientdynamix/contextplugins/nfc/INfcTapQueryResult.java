@@ -0,0 +1,43 @@
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.Set;
+
+public interface INfcTapQueryResult {
+	/**
+	 * Returns the phrase asked for, or null.
+	 */
+	public String getText();
+
+	/**
+	 * Returns the URI host asked for, or null.
+	 */
+	public String getHost();
+
+	/**
+	 * Returns the URI path asked for, or null.
+	 */
+	public String getPath();
+
+	/**
+	 * Returns the sequence numbers of the matching taps (see {@link INfcTag#getTapSequence()}), oldest first.
+	 */
+	public long[] getTapSequences();
+
+	/**
+	 * Returns the tag ids of the matching taps, as hex strings, indexed like {@link #getTapSequences()}.
+	 */
+	public String[] getTagIds();
+
+	/**
+	 * Returns the wall clock times of the matching taps, indexed like {@link #getTapSequences()}.
+	 */
+	public long[] getTapTimes();
+
+	public String getContextType();
+
+	public String getImplementingClassname();
+
+	public String getStringRepresentation(String format);
+
+	public Set<String> getStringRepresentationFormats();
+}
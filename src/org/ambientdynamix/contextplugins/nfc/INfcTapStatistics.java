@@ -0,0 +1,54 @@
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.Set;
+
+public interface INfcTapStatistics {
+	/**
+	 * Returns the time the statistics were taken, in milliseconds since the epoch.
+	 */
+	public long getTimestamp();
+
+	/**
+	 * Returns the number of taps since the plug-in started.
+	 */
+	public long getTotalTaps();
+
+	/**
+	 * Returns the number of taps in the minute before {@link #getTimestamp()}.
+	 */
+	public long getTapsPerMinute();
+
+	/**
+	 * Returns the UIDs of the most tapped tags as hex strings (like INfcTag.getTagIdAsString), most tapped first.
+	 */
+	public String[] getTopTagIds();
+
+	/**
+	 * Returns the estimated tap counts of the tags of {@link #getTopTagIds()}, in the same order. Estimates may be
+	 * high, never low.
+	 */
+	public long[] getTopCounts();
+
+	/**
+	 * Returns the number of taps the UID gate let through since the plug-in started, 0 while the gate is off.
+	 */
+	public long getGatePassedTaps();
+
+	/**
+	 * Returns the number of taps the UID gate dropped since the plug-in started.
+	 */
+	public long getGateDroppedTaps();
+
+	/**
+	 * Returns the number of UID gate Bloom filter hits that its exact list rejected since the plug-in started.
+	 */
+	public long getGateFalsePositives();
+
+	public String getContextType();
+
+	public String getImplementingClassname();
+
+	public String getStringRepresentation(String format);
+
+	public Set<String> getStringRepresentationFormats();
+}
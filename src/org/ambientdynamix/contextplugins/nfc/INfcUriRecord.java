@@ -10,6 +10,16 @@ public interface INfcUriRecord {
 
 	public abstract Uri getUri();
 
+	/**
+	 * Returns "unsigned", "verified", "invalid", "pending" or "unverifiable", see the signature context type.
+	 */
+	public abstract String getSignatureStatus();
+
+	/**
+	 * Returns the sequence number of the tap that produced this event, shared by all events of the tap, or -1.
+	 */
+	public abstract long getTapSequence();
+
 	public abstract String getContextType();
 
 	public abstract String getStringRepresentation(String format);
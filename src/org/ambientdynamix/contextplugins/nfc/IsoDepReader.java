@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs {@link ApduScript}s against an ISO 14443-4 (ISO-DEP) card, e.g. DESFire badges whose data sits behind SELECT
+ * and READ commands. The radio is half-duplex, so round-trips are cut rather than overlapped: expectations are sent as
+ * extended length APDUs where the card supports them, and chained responses (ISO 7816 "61xx" GET RESPONSE and DESFire
+ * "91AF" additional frames) are collected into one reusable buffer. All scripts for a card share one deadline; a script
+ * that runs out of time, or receives an error status, is reported as incomplete. Instances are not thread-safe.
+ */
+class IsoDepReader {
+	private static final int SW_OK = 0x9000;
+	private static final int SW_DESFIRE_OK = 0x9100;
+	private static final int SW_DESFIRE_ADDITIONAL_FRAME = 0x91AF;
+	private final byte[] getResponse = new byte[] { 0x00, (byte) 0xC0, 0x00, 0x00, 0x00 };
+	private final byte[] additionalFrame = new byte[] { (byte) 0x90, (byte) 0xAF, 0x00, 0x00, 0x00 };
+	// Response data of the script in progress, reused across scripts and cards
+	private byte[] buffer = new byte[1024];
+	private int length;
+
+	/**
+	 * Runs the scripts in order against the given, not yet connected, transceiver and returns one response per script
+	 * that was started. The transceiver is closed on return.
+	 */
+	public List<NfcIsoDepResponse> run(NfcTransceiver transceiver, boolean extendedLength, List<ApduScript> scripts,
+			int deadlineMillis) throws IOException {
+		List<NfcIsoDepResponse> responses = new ArrayList<NfcIsoDepResponse>(scripts.size());
+		long start = System.nanoTime();
+		long deadline = start + deadlineMillis * 1000000L;
+		transceiver.connect();
+		try {
+			for (ApduScript script : scripts) {
+				if (System.nanoTime() >= deadline)
+					break;
+				responses.add(run(transceiver, extendedLength, script, start, deadline));
+			}
+		} finally {
+			transceiver.close();
+		}
+		return responses;
+	}
+
+	private NfcIsoDepResponse run(NfcTransceiver transceiver, boolean extendedLength, ApduScript script, long start,
+			long deadline) throws IOException {
+		byte[][] commands = extendedLength ? script.extendedCommands : script.commands;
+		int[] offsets = new int[commands.length + 1];
+		int[] statusWords = new int[commands.length];
+		int completed = 0;
+		length = 0;
+		for (int i = 0; i < commands.length; i++) {
+			int sw = exchange(transceiver, commands[i], deadline);
+			statusWords[i] = sw;
+			offsets[i + 1] = length;
+			if (sw != SW_OK && sw != SW_DESFIRE_OK)
+				break;
+			completed++;
+		}
+		return new NfcIsoDepResponse(script.name, Arrays.copyOf(buffer, length), Arrays.copyOf(offsets,
+				Math.min(completed + 1, commands.length) + 1), Arrays.copyOf(statusWords, Math.min(completed + 1,
+				commands.length)), completed == commands.length, (System.nanoTime() - start) / 1000000L);
+	}
+
+	/**
+	 * Sends one command and follows its response chain, appending all response data to the buffer. Returns the final
+	 * status word, or -1 if the deadline passed first.
+	 */
+	private int exchange(NfcTransceiver transceiver, byte[] command, long deadline) throws IOException {
+		byte[] next = command;
+		while (true) {
+			long remaining = (deadline - System.nanoTime()) / 1000000L;
+			if (remaining <= 0)
+				return -1;
+			transceiver.setTimeout((int) Math.min(remaining, Integer.MAX_VALUE));
+			byte[] response = transceiver.transceive(next);
+			if (response == null || response.length < 2)
+				throw new IOException("Response without status word");
+			int data = response.length - 2;
+			int sw = ((response[data] & 0xff) << 8) | (response[data + 1] & 0xff);
+			append(response, data);
+			if ((sw & 0xff00) == 0x6100) {
+				// More data available, fetch it with GET RESPONSE
+				getResponse[4] = (byte) sw;
+				next = getResponse;
+			} else if (sw == SW_DESFIRE_ADDITIONAL_FRAME) {
+				next = additionalFrame;
+			} else if ((sw & 0xff00) == 0x6C00 && next == command && command.length == 5) {
+				// Wrong Le, repeat with the exact length
+				next = Arrays.copyOf(command, 5);
+				next[4] = (byte) sw;
+			} else {
+				return sw;
+			}
+		}
+	}
+
+	private void append(byte[] response, int count) {
+		if (length + count > buffer.length)
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+		System.arraycopy(response, 0, buffer, length, count);
+		length += count;
+	}
+}
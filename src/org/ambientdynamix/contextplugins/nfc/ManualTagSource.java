@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import android.nfc.Tag;
+
+/**
+ * Tag source that delivers the tags it is given on the calling thread, standing in for reader mode where there is no
+ * NFC hardware, e.g. in the NfcLoadGenerator of the instrumentation sources.
+ */
+class ManualTagSource implements TagSource {
+	private volatile Listener listener;
+
+	@Override
+	public void start(Listener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public void stop() {
+		this.listener = null;
+	}
+
+	/**
+	 * Delivers the tag, as reader mode would on discovery. Ignored while stopped.
+	 */
+	public void discover(Tag tag) {
+		Listener l = listener;
+		if (l != null)
+			l.onTagDiscovered(tag);
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+
+import android.nfc.NdefRecord;
+import android.util.Log;
+
+/**
+ * Remembers the NDEF content last read from each tag, as a message fingerprint and one 64 bit hash per record, in a
+ * bounded LRU store keyed by UID, so that repeat taps of rewritable tags can be reduced to what changed. Records are
+ * compared by position: a record is changed if its hash differs from the one previously seen at its index, added if
+ * the previous message had fewer records and removed if it had more.
+ */
+class NdefDeltaTracker {
+	/**
+	 * Settings key holding the delta mode: "off" (default), "alongside" sends an {@link NfcNdefDelta} in addition to
+	 * the record events, "instead" sends it in place of the events of unchanged records.
+	 */
+	public static final String MODE_SETTINGS_KEY = "delta_mode";
+	/** Settings key holding the number of tags remembered */
+	public static final String CAPACITY_SETTINGS_KEY = "delta_max_tags";
+	public static final int MODE_OFF = 0;
+	public static final int MODE_ALONGSIDE = 1;
+	public static final int MODE_INSTEAD = 2;
+	public static final int DEFAULT_CAPACITY = 256;
+	private static final long[] NO_HASHES = new long[0];
+	private final String TAG = this.getClass().getSimpleName();
+	private volatile int mode = MODE_OFF;
+	private Map<Long, Snapshot> snapshots = newLruMap(DEFAULT_CAPACITY);
+	private int capacity = DEFAULT_CAPACITY;
+
+	/**
+	 * The content last seen on a tag. Immutable.
+	 */
+	private static final class Snapshot {
+		final long fingerprint;
+		final long[] recordHashes;
+
+		Snapshot(long fingerprint, long[] recordHashes) {
+			this.fingerprint = fingerprint;
+			this.recordHashes = recordHashes;
+		}
+	}
+
+	public int getMode() {
+		return mode;
+	}
+
+	/**
+	 * Applies the {@link #MODE_SETTINGS_KEY} and {@link #CAPACITY_SETTINGS_KEY} settings. The store is kept unless its
+	 * capacity changes.
+	 */
+	public void configure(ContextPluginSettings settings) {
+		String value = settings != null ? settings.get(MODE_SETTINGS_KEY) : null;
+		int newMode = MODE_OFF;
+		if (value != null) {
+			value = value.trim();
+			if (value.equalsIgnoreCase("alongside"))
+				newMode = MODE_ALONGSIDE;
+			else if (value.equalsIgnoreCase("instead"))
+				newMode = MODE_INSTEAD;
+			else if (!value.equalsIgnoreCase("off"))
+				Log.w(TAG, "Unknown delta mode: " + value);
+		}
+		int newCapacity = capacity;
+		String size = settings != null ? settings.get(CAPACITY_SETTINGS_KEY) : null;
+		if (size != null) {
+			try {
+				newCapacity = Math.max(1, Integer.parseInt(size.trim()));
+			} catch (NumberFormatException e) {
+				Log.w(TAG, "Ignoring delta capacity: " + size);
+			}
+		}
+		synchronized (this) {
+			if (newMode == MODE_OFF || newCapacity != capacity)
+				snapshots = newLruMap(newCapacity);
+			capacity = newCapacity;
+		}
+		mode = newMode;
+	}
+
+	/**
+	 * Records the given content of the tag and returns how it differs from the content previously seen, or null if it
+	 * is unchanged.
+	 */
+	public NfcNdefDelta update(byte[] uid, NdefRecord[] records) {
+		long[] hashes = records.length == 0 ? NO_HASHES : new long[records.length];
+		for (int r = 0; r < records.length; r++)
+			hashes[r] = hash(records[r]);
+		long fingerprint = fingerprint(hashes);
+		Long key = Long.valueOf(NfcTag.packUid(uid));
+		Snapshot previous;
+		synchronized (this) {
+			previous = snapshots.get(key);
+			if (previous != null && previous.fingerprint == fingerprint)
+				return null;
+			snapshots.put(key, new Snapshot(fingerprint, hashes));
+		}
+		long[] previousHashes = previous != null ? previous.recordHashes : NO_HASHES;
+		int common = Math.min(hashes.length, previousHashes.length);
+		int changed = 0;
+		for (int r = 0; r < common; r++) {
+			if (hashes[r] != previousHashes[r])
+				changed++;
+		}
+		int[] changedIndices = new int[changed];
+		for (int r = 0, c = 0; r < common; r++) {
+			if (hashes[r] != previousHashes[r])
+				changedIndices[c++] = r;
+		}
+		return new NfcNdefDelta(uid, previous != null ? previous.fingerprint : 0, fingerprint, previous == null,
+				previousHashes.length, records, changedIndices);
+	}
+
+	/**
+	 * Hashes the TNF, type, id and payload of the record with 64 bit FNV-1a, the lengths included so that fields
+	 * cannot run into each other.
+	 */
+	static long hash(NdefRecord record) {
+		long h = 0xcbf29ce484222325L;
+		h = mix(h, record.getTnf());
+		h = mix(h, record.getType());
+		h = mix(h, record.getId());
+		return mix(h, record.getPayload());
+	}
+
+	private static long fingerprint(long[] hashes) {
+		long h = 0xcbf29ce484222325L ^ hashes.length;
+		for (long hash : hashes) {
+			h ^= hash;
+			h *= 0x100000001b3L;
+			h ^= h >>> 29;
+		}
+		return h;
+	}
+
+	private static long mix(long h, byte[] bytes) {
+		h = mix(h, bytes.length);
+		for (byte b : bytes) {
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	private static long mix(long h, int value) {
+		for (int shift = 0; shift < 32; shift += 8) {
+			h ^= (value >>> shift) & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	private static <K, V> Map<K, V> newLruMap(final int capacity) {
+		return new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import android.nfc.cardemulation.HostApduService;
+import android.os.Bundle;
+
+/**
+ * Host card emulation service that presents this device as a read-only Type 4 tag, answering from
+ * {@link NdefTagEmulator#getDefault()}. Requires API level 19. The service cannot be declared by the plug-in itself;
+ * the hosting app has to declare it with the android.permission.BIND_NFC_SERVICE permission and an apdu-service
+ * meta-data resource registering the NDEF application id D2760000850101. The emulator answers "not found" until the
+ * plug-in is given a message (see {@link NdefTagEmulator#SETTINGS_KEY}), and also when the service class is not loaded
+ * by the plug-in's class loader, see {@link NdefTagEmulator#getDefault()}.
+ */
+public class NdefEmulationService extends HostApduService {
+	@Override
+	public byte[] processCommandApdu(byte[] apdu, Bundle extras) {
+		return NdefTagEmulator.getDefault().process(apdu);
+	}
+
+	@Override
+	public void onDeactivated(int reason) {
+		NdefTagEmulator.getDefault().endSession();
+	}
+}
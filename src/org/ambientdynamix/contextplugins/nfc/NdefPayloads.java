@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.nio.charset.Charset;
+
+/**
+ * Payload decoding shared by the record classes and the NdefCorpusDecoder tool. Works on raw byte ranges and has no
+ * Android dependencies.
+ */
+final class NdefPayloads {
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+	static final Charset US_ASCII = Charset.forName("US-ASCII");
+	static final byte[] TYPE_TEXT = new byte[] { 'T' };
+	static final byte[] TYPE_URI = new byte[] { 'U' };
+	static final byte[] TYPE_SMART_POSTER = new byte[] { 'S', 'p' };
+	static final int TNF_WELL_KNOWN = 0x01;
+	static final int TNF_MIME_MEDIA = 0x02;
+	static final int TNF_ABSOLUTE_URI = 0x03;
+	static final int TNF_EXTERNAL_TYPE = 0x04;
+	/**
+	 * NFC Forum "URI Record Type Definition" This is a mapping of "URI Identifier Codes" to URI string prefixes, per
+	 * section 3.2.2 of the NFC Forum URI Record Type Definition document.
+	 */
+	private static final String[] URI_PREFIXES = new String[] { "", "http://www.", "https://www.", "http://",
+			"https://", "tel:", "mailto:", "ftp://anonymous:anonymous@", "ftp://ftp.", "ftps://", "sftp://", "smb://",
+			"nfs://", "ftp://", "dav://", "news:", "telnet://", "imap:", "rtsp://", "urn:", "pop:", "sip:", "sips:",
+			"tftp:", "btspp://", "btl2cap://", "btgoep://", "tcpobex://", "irdaobex://", "file://", "urn:epc:id:",
+			"urn:epc:tag:", "urn:epc:pat:", "urn:epc:raw:", "urn:epc:", "urn:nfc:" };
+
+	private NdefPayloads() {
+	}
+
+	/**
+	 * Decodes a TNF_WELL_KNOWN / RTD_URI payload. payload[0] contains the URI Identifier Code, per the NFC Forum
+	 * "URI Record Type Definition" section 3.2.2. payload[1]...payload[payload.length - 1] contains the rest of the
+	 * URI.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the payload is empty or uses an unknown identifier code.
+	 */
+	static String decodeWellKnownUri(byte[] payload, int offset, int length) {
+		if (length < 1)
+			throw new IllegalArgumentException("Empty URI payload");
+		int code = payload[offset] & 0xff;
+		if (code >= URI_PREFIXES.length)
+			throw new IllegalArgumentException("Unknown URI identifier code " + code);
+		return URI_PREFIXES[code].concat(new String(payload, offset + 1, length - 1, UTF_8));
+	}
+
+	/**
+	 * Decodes UTF-8 bytes, e.g. the URI in the TYPE field of a TNF_ABSOLUTE_URI record.
+	 */
+	static String decodeUtf8(byte[] payload, int offset, int length) {
+		return new String(payload, offset, length, UTF_8);
+	}
+
+	/**
+	 * Returns the length of the IANA language code of a RTD_TEXT payload. payload[0] contains the "Status Byte
+	 * Encodings" field, per the NFC Forum "Text Record Type Definition" section 3.2.1. bit7 is the Text Encoding Field.
+	 * if (Bit_7 == 0): The text is encoded in UTF-8 if (Bit_7 == 1): The text is encoded in UTF16 Bit_6 is reserved for
+	 * future use and must be set to zero. Bits 5 to 0 are the length of the IANA language code.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the payload is too short for its language code.
+	 */
+	static int textLanguageLength(byte[] payload, int offset, int length) {
+		if (length < 1)
+			throw new IllegalArgumentException("Empty text payload");
+		int languageCodeLength = payload[offset] & 0077;
+		if (languageCodeLength + 1 > length)
+			throw new IllegalArgumentException("Truncated language code");
+		return languageCodeLength;
+	}
+
+	/**
+	 * Decodes the language code of a RTD_TEXT payload.
+	 */
+	static String decodeTextLanguage(byte[] payload, int offset, int length) {
+		return NdefTextDecoder.get().decodeLanguage(payload, offset, length);
+	}
+
+	/**
+	 * Decodes the text of a RTD_TEXT payload, see {@link NdefTextDecoder}.
+	 */
+	static String decodeText(byte[] payload, int offset, int length) {
+		return NdefTextDecoder.get().decodeText(payload, offset, length);
+	}
+}
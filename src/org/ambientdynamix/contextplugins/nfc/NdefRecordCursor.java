@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+/**
+ * Walks the records of a raw NDEF message (NFC Forum NDEF Technical Specification section 3.2) in place, exposing the
+ * type, id and payload of the current record as offsets into the message bytes. Nothing is copied, and the class has
+ * no Android dependencies so that it can also be used off-device (see NdefCorpusDecoder in the instrumentation
+ * sources). Instances are not thread-safe but can be reused through {@link #reset(byte[], int, int)}.
+ */
+final class NdefRecordCursor {
+	private static final int FLAG_MB = 0x80;
+	private static final int FLAG_ME = 0x40;
+	private static final int FLAG_CF = 0x20;
+	private static final int FLAG_SR = 0x10;
+	private static final int FLAG_IL = 0x08;
+	private byte[] data;
+	private int position;
+	private int end;
+	private boolean done;
+	// Fields of the current record
+	int tnf;
+	boolean first;
+	boolean chunked;
+	int typeOffset;
+	int typeLength;
+	int idOffset;
+	int idLength;
+	int payloadOffset;
+	int payloadLength;
+
+	NdefRecordCursor() {
+	}
+
+	NdefRecordCursor(byte[] data) {
+		reset(data, 0, data.length);
+	}
+
+	/**
+	 * Points this cursor at the message in data[offset, offset + length).
+	 */
+	NdefRecordCursor reset(byte[] data, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > data.length)
+			throw new IllegalArgumentException("Bad message bounds");
+		this.data = data;
+		this.position = offset;
+		this.end = offset + length;
+		this.done = length == 0;
+		return this;
+	}
+
+	/**
+	 * Returns the message bytes the offsets of this cursor refer to.
+	 */
+	byte[] data() {
+		return data;
+	}
+
+	/**
+	 * Advances to the next record, returning false once the record flagged as message end has been consumed.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the message is truncated or malformed.
+	 */
+	boolean next() {
+		if (done)
+			return false;
+		if (position >= end)
+			throw new IllegalArgumentException("Missing message end record");
+		int header = data[position++] & 0xff;
+		first = (header & FLAG_MB) != 0;
+		done = (header & FLAG_ME) != 0;
+		chunked = (header & FLAG_CF) != 0;
+		tnf = header & 0x07;
+		typeLength = readUnsigned(1);
+		if ((header & FLAG_SR) != 0) {
+			payloadLength = readUnsigned(1);
+		} else {
+			payloadLength = readUnsigned(4);
+			if (payloadLength < 0)
+				throw new IllegalArgumentException("Payload too large");
+		}
+		idLength = (header & FLAG_IL) != 0 ? readUnsigned(1) : 0;
+		typeOffset = position;
+		idOffset = typeOffset + typeLength;
+		payloadOffset = idOffset + idLength;
+		position = payloadOffset + payloadLength;
+		if (position > end || position < payloadOffset)
+			throw new IllegalArgumentException("Truncated record");
+		return true;
+	}
+
+	/**
+	 * Returns true if the type of the current record equals the given bytes.
+	 */
+	boolean typeEquals(byte[] type) {
+		return regionEquals(type, typeOffset, typeLength);
+	}
+
+	/**
+	 * Returns true if the id of the current record equals the given bytes.
+	 */
+	boolean idEquals(byte[] id) {
+		return regionEquals(id, idOffset, idLength);
+	}
+
+	private boolean regionEquals(byte[] bytes, int offset, int length) {
+		if (bytes.length != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (data[offset + i] != bytes[i])
+				return false;
+		}
+		return true;
+	}
+
+	private int readUnsigned(int bytes) {
+		if (position + bytes > end)
+			throw new IllegalArgumentException("Truncated record header");
+		int value = 0;
+		for (int i = 0; i < bytes; i++)
+			value = (value << 8) | (data[position++] & 0xff);
+		return value;
+	}
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.Arrays;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+
+import android.util.Log;
+
+/**
+ * Emulates a read-only NFC Forum Type 4 tag holding one NDEF message, for host card emulation (see
+ * {@link NdefEmulationService}). The capability container and NDEF file are encoded once when the message is set, and
+ * the responses to the READ BINARY commands readers usually send (the whole CC file, the NLEN field, and the NDEF file
+ * from offset 2 in chunks of the announced maximum read size) are precomputed, so that answering a command only
+ * compares a few bytes and returns a prepared array. Other reads are answered from a small cache of responses that is
+ * filled on first use. Status word responses are shared constants.
+ * <p>
+ * Commands are handled on the thread the Android HCE service calls back on; the session state is confined to it.
+ * Per-session statistics are handed to the {@link Listener} when the reader deselects or leaves.
+ */
+final class NdefTagEmulator {
+	/** Settings key holding the emulated NDEF message as hex */
+	public static final String SETTINGS_KEY = "hce_ndef_message";
+	/** NFC Forum Type 4 Tag application, version 2 */
+	static final byte[] NDEF_AID = new byte[] { (byte) 0xD2, 0x76, 0x00, 0x00, (byte) 0x85, 0x01, 0x01 };
+	private static final int CC_FILE_ID = 0xE103;
+	private static final int NDEF_FILE_ID = 0xE104;
+	/** Maximum READ BINARY response data size announced in the CC file (MLe) */
+	private static final int MAX_READ = 0xFF;
+	private static final byte[] SW_OK = new byte[] { (byte) 0x90, 0x00 };
+	private static final byte[] SW_WRONG_LENGTH = new byte[] { 0x67, 0x00 };
+	private static final byte[] SW_SECURITY_NOT_SATISFIED = new byte[] { 0x69, (byte) 0x82 };
+	private static final byte[] SW_NO_CURRENT_FILE = new byte[] { 0x69, (byte) 0x86 };
+	private static final byte[] SW_NOT_FOUND = new byte[] { 0x6A, (byte) 0x82 };
+	private static final byte[] SW_WRONG_OFFSET = new byte[] { 0x6B, 0x00 };
+	private static final byte[] SW_INS_NOT_SUPPORTED = new byte[] { 0x6D, 0x00 };
+	private static final int FILE_NONE = 0;
+	private static final int FILE_CC = 1;
+	private static final int FILE_NDEF = 2;
+	private static final int CACHE_SIZE = 16;
+	private static final NdefTagEmulator DEFAULT = new NdefTagEmulator();
+	private final String TAG = this.getClass().getSimpleName();
+	private volatile Image image;
+	private volatile Listener listener;
+	// Session state
+	private boolean applicationSelected;
+	private int selectedFile;
+	private int apduCount;
+	private int readCount;
+	private int errorCount;
+	private long bytesServed;
+	private long totalNanos;
+	private long maxNanos;
+
+	/**
+	 * Receives the statistics of each emulation session.
+	 */
+	interface Listener {
+		public void onSessionEnded(NfcEmulationStatistics statistics);
+	}
+
+	/**
+	 * Returns the emulator used by {@link NdefEmulationService}. This static instance is the only link between the
+	 * service and the plug-in runtime that configures it, so both must see the same NdefTagEmulator class: the service
+	 * has to be loaded by the class loader that loaded the plug-in. If Dynamix loads the plug-in in a class loader of
+	 * its own while the hosting app's manifest names its own copy of the service, each side gets its own emulator and
+	 * the service answers "not found".
+	 */
+	static NdefTagEmulator getDefault() {
+		return DEFAULT;
+	}
+
+	void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Applies the {@link #SETTINGS_KEY} setting. Without it, emulation is off and the application is reported as not
+	 * found.
+	 */
+	public void configure(ContextPluginSettings settings) {
+		String value = settings != null ? settings.get(SETTINGS_KEY) : null;
+		try {
+			setMessage(value != null ? HexStrings.toBytes(value.trim(), 0) : null);
+		} catch (IllegalArgumentException e) {
+			Log.w(TAG, "Ignoring emulated NDEF message: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Sets the raw NDEF message to serve, or null to stop serving.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the message does not fit a Type 4 NDEF file.
+	 */
+	public void setMessage(byte[] message) {
+		image = message != null ? new Image(message) : null;
+	}
+
+	public boolean isActive() {
+		return image != null;
+	}
+
+	/**
+	 * Answers a command APDU.
+	 */
+	byte[] process(byte[] apdu) {
+		long start = System.nanoTime();
+		byte[] response = respond(apdu);
+		long nanos = System.nanoTime() - start;
+		apduCount++;
+		totalNanos += nanos;
+		if (nanos > maxNanos)
+			maxNanos = nanos;
+		// Only the status word tells errors apart, a read at the end of a file is an empty body with 9000
+		int n = response.length;
+		if (response[n - 2] != (byte) 0x90 || response[n - 1] != 0x00)
+			errorCount++;
+		return response;
+	}
+
+	/**
+	 * Ends the current session, reporting its statistics if any command was received.
+	 */
+	void endSession() {
+		Listener l = listener;
+		if (apduCount > 0 && l != null)
+			l.onSessionEnded(new NfcEmulationStatistics(apduCount, readCount, errorCount, bytesServed, totalNanos
+					/ apduCount, maxNanos));
+		applicationSelected = false;
+		selectedFile = FILE_NONE;
+		apduCount = 0;
+		readCount = 0;
+		errorCount = 0;
+		bytesServed = 0;
+		totalNanos = 0;
+		maxNanos = 0;
+	}
+
+	private byte[] respond(byte[] apdu) {
+		Image img = image;
+		if (img == null)
+			return SW_NOT_FOUND;
+		if (apdu == null || apdu.length < 4)
+			return SW_WRONG_LENGTH;
+		int ins = apdu[1] & 0xff;
+		int p1 = apdu[2] & 0xff;
+		int p2 = apdu[3] & 0xff;
+		switch (ins) {
+		case 0xA4:
+			return select(apdu, p1);
+		case 0xB0:
+			if (!applicationSelected || selectedFile == FILE_NONE)
+				return SW_NO_CURRENT_FILE;
+			int offset = ((p1 & 0x7f) << 8) | p2;
+			int le = apdu.length > 4 ? apdu[4] & 0xff : 0;
+			if (le == 0)
+				le = 256;
+			byte[] response = img.read(selectedFile, offset, le);
+			if (response == null)
+				return SW_WRONG_OFFSET;
+			readCount++;
+			bytesServed += response.length - 2;
+			return response;
+		case 0xD6:
+			// Read-only, see the write access condition in the CC file
+			return SW_SECURITY_NOT_SATISFIED;
+		default:
+			return SW_INS_NOT_SUPPORTED;
+		}
+	}
+
+	private byte[] select(byte[] apdu, int p1) {
+		int lc = apdu.length > 4 ? apdu[4] & 0xff : 0;
+		if (apdu.length < 5 + lc)
+			return SW_WRONG_LENGTH;
+		if (p1 == 0x04) {
+			// By application name
+			applicationSelected = lc == NDEF_AID.length && regionMatches(apdu, 5, NDEF_AID);
+			selectedFile = FILE_NONE;
+			return applicationSelected ? SW_OK : SW_NOT_FOUND;
+		}
+		if (p1 == 0x00 && applicationSelected && lc == 2) {
+			// By file identifier
+			int fileId = ((apdu[5] & 0xff) << 8) | (apdu[6] & 0xff);
+			if (fileId == CC_FILE_ID)
+				selectedFile = FILE_CC;
+			else if (fileId == NDEF_FILE_ID)
+				selectedFile = FILE_NDEF;
+			else
+				return SW_NOT_FOUND;
+			return SW_OK;
+		}
+		return SW_NOT_FOUND;
+	}
+
+	private static boolean regionMatches(byte[] data, int offset, byte[] expected) {
+		for (int i = 0; i < expected.length; i++) {
+			if (data[offset + i] != expected[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The encoded files of a message and their precomputed READ BINARY responses.
+	 */
+	private static final class Image {
+		final byte[] cc;
+		final byte[] ndef;
+		final byte[] ccResponse;
+		final byte[] nlenResponse;
+		// Responses for reads of ndef[2 + k * MAX_READ, ...)
+		final byte[][] chunkResponses;
+		// Other responses, keyed by file, offset and length
+		final long[] cacheKeys = new long[CACHE_SIZE];
+		final byte[][] cacheResponses = new byte[CACHE_SIZE][];
+
+		Image(byte[] message) {
+			if (message.length > 0xFFFE - 2)
+				throw new IllegalArgumentException("NDEF message too large: " + message.length);
+			ndef = new byte[2 + message.length];
+			ndef[0] = (byte) (message.length >>> 8);
+			ndef[1] = (byte) message.length;
+			System.arraycopy(message, 0, ndef, 2, message.length);
+			int maxNdefSize = Math.max(ndef.length, 5);
+			cc = new byte[] { 0x00, 0x0F, // CCLEN
+					0x20, // Mapping version 2.0
+					0x00, (byte) MAX_READ, // MLe
+					0x00, (byte) 0xFF, // MLc
+					0x04, 0x06, // NDEF File Control TLV
+					(byte) (NDEF_FILE_ID >>> 8), (byte) NDEF_FILE_ID, (byte) (maxNdefSize >>> 8), (byte) maxNdefSize,
+					0x00, // Read access granted
+					(byte) 0xFF // No write access
+			};
+			ccResponse = response(cc, 0, cc.length);
+			nlenResponse = response(ndef, 0, 2);
+			chunkResponses = new byte[(message.length + MAX_READ - 1) / MAX_READ][];
+			for (int k = 0; k < chunkResponses.length; k++) {
+				int offset = 2 + k * MAX_READ;
+				chunkResponses[k] = response(ndef, offset, Math.min(MAX_READ, ndef.length - offset));
+			}
+			Arrays.fill(cacheKeys, -1);
+		}
+
+		/**
+		 * Returns the response to reading up to le bytes at offset, or null if offset is beyond the file.
+		 */
+		byte[] read(int file, int offset, int le) {
+			byte[] data = file == FILE_CC ? cc : ndef;
+			if (offset > data.length)
+				return null;
+			int length = Math.min(le, data.length - offset);
+			if (file == FILE_CC) {
+				if (offset == 0 && length == cc.length)
+					return ccResponse;
+			} else if (offset == 0 && length == 2) {
+				return nlenResponse;
+			} else if (offset >= 2 && (offset - 2) % MAX_READ == 0 && (offset - 2) / MAX_READ < chunkResponses.length) {
+				byte[] chunk = chunkResponses[(offset - 2) / MAX_READ];
+				if (chunk.length - 2 == length)
+					return chunk;
+			}
+			long key = ((long) file << 40) | ((long) offset << 16) | length;
+			int slot = (int) ((key ^ (key >>> 17)) & (CACHE_SIZE - 1));
+			if (cacheKeys[slot] != key) {
+				cacheResponses[slot] = response(data, offset, length);
+				cacheKeys[slot] = key;
+			}
+			return cacheResponses[slot];
+		}
+
+		private static byte[] response(byte[] data, int offset, int length) {
+			byte[] response = new byte[length + 2];
+			System.arraycopy(data, offset, response, 0, length);
+			response[length] = (byte) 0x90;
+			response[length + 1] = 0x00;
+			return response;
+		}
+	}
+}
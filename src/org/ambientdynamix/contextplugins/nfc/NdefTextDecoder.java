@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Per-thread decoder for NFC Forum text record payloads. Keeps one {@link CharsetDecoder} per text encoding and a
+ * reusable output buffer, returns shared instances for common language codes, and remembers recently decoded texts in
+ * a small direct-mapped cache keyed by their encoded bytes, so that re-reading the same tags does not allocate. UTF-16
+ * text honours a leading byte order mark and defaults to big-endian, per the Text Record Type Definition section
+ * 3.4. Has no Android dependencies.
+ */
+final class NdefTextDecoder {
+	/**
+	 * Language codes returned without allocating. Others are decoded into new strings.
+	 */
+	private static final String[] LANGUAGES = new String[] { "en", "en-US", "en-GB", "de", "de-DE", "fr", "fr-FR",
+			"es", "it", "nl", "pt", "pt-BR", "sv", "da", "no", "fi", "pl", "cs", "ru", "tr", "el", "ja", "ko", "zh",
+			"zh-CN", "zh-TW", "ar", "he", "hi" };
+	private static final byte[][] LANGUAGE_BYTES = new byte[LANGUAGES.length][];
+	static {
+		for (int i = 0; i < LANGUAGES.length; i++)
+			LANGUAGE_BYTES[i] = LANGUAGES[i].getBytes(NdefPayloads.US_ASCII);
+	}
+	/** Number of cached texts per thread, must be a power of two */
+	private static final int CACHE_SIZE = 64;
+	/** Longest encoded text that is cached */
+	private static final int MAX_CACHED_BYTES = 256;
+	private static final ThreadLocal<NdefTextDecoder> DECODERS = new ThreadLocal<NdefTextDecoder>() {
+		@Override
+		protected NdefTextDecoder initialValue() {
+			return new NdefTextDecoder();
+		}
+	};
+	private final CharsetDecoder utf8 = newDecoder("UTF-8");
+	private final CharsetDecoder utf16be = newDecoder("UTF-16BE");
+	private final CharsetDecoder utf16le = newDecoder("UTF-16LE");
+	private CharBuffer chars = CharBuffer.allocate(128);
+	// Cache entries: encoded bytes (including the encoding flag) and the decoded text
+	private final byte[][] cachedBytes = new byte[CACHE_SIZE][];
+	private final String[] cachedTexts = new String[CACHE_SIZE];
+
+	private NdefTextDecoder() {
+	}
+
+	/**
+	 * Returns the decoder of the calling thread.
+	 */
+	static NdefTextDecoder get() {
+		return DECODERS.get();
+	}
+
+	/**
+	 * Decodes the language code of the RTD_TEXT payload in payload[offset, offset + length).
+	 */
+	String decodeLanguage(byte[] payload, int offset, int length) {
+		int languageLength = NdefPayloads.textLanguageLength(payload, offset, length);
+		for (int i = 0; i < LANGUAGE_BYTES.length; i++) {
+			if (regionMatches(LANGUAGE_BYTES[i], payload, offset + 1, languageLength))
+				return LANGUAGES[i];
+		}
+		return new String(payload, offset + 1, languageLength, NdefPayloads.US_ASCII);
+	}
+
+	/**
+	 * Decodes the text of the RTD_TEXT payload in payload[offset, offset + length).
+	 */
+	String decodeText(byte[] payload, int offset, int length) {
+		int languageLength = NdefPayloads.textLanguageLength(payload, offset, length);
+		boolean utf16 = (payload[offset] & 0200) != 0;
+		int textOffset = offset + 1 + languageLength;
+		int textLength = length - 1 - languageLength;
+		if (textLength == 0)
+			return "";
+		if (textLength > MAX_CACHED_BYTES)
+			return decode(payload, textOffset, textLength, utf16);
+		int hash = utf16 ? 1 : 0;
+		for (int i = textOffset; i < textOffset + textLength; i++)
+			hash = 31 * hash + payload[i];
+		int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+		byte[] key = cachedBytes[slot];
+		if (key != null && key[0] == (utf16 ? 1 : 0) && regionMatches(key, 1, payload, textOffset, textLength))
+			return cachedTexts[slot];
+		String text = decode(payload, textOffset, textLength, utf16);
+		key = new byte[textLength + 1];
+		key[0] = (byte) (utf16 ? 1 : 0);
+		System.arraycopy(payload, textOffset, key, 1, textLength);
+		cachedBytes[slot] = key;
+		cachedTexts[slot] = text;
+		return text;
+	}
+
+	private String decode(byte[] payload, int offset, int length, boolean utf16) {
+		CharsetDecoder decoder = utf8;
+		if (utf16) {
+			decoder = utf16be;
+			if (length >= 2) {
+				int bom = ((payload[offset] & 0xff) << 8) | (payload[offset + 1] & 0xff);
+				if (bom == 0xFEFF || bom == 0xFFFE) {
+					decoder = bom == 0xFEFF ? utf16be : utf16le;
+					offset += 2;
+					length -= 2;
+				}
+			}
+		}
+		int maxChars = (int) Math.ceil(length * (double) decoder.maxCharsPerByte());
+		if (chars.capacity() < maxChars)
+			chars = CharBuffer.allocate(Math.max(maxChars, chars.capacity() * 2));
+		chars.clear();
+		decoder.reset();
+		ByteBuffer in = ByteBuffer.wrap(payload, offset, length);
+		CoderResult result = decoder.decode(in, chars, true);
+		if (!result.isUnderflow() || !decoder.flush(chars).isUnderflow())
+			throw new IllegalArgumentException("Could not decode text: " + result);
+		return new String(chars.array(), 0, chars.position());
+	}
+
+	private static boolean regionMatches(byte[] expected, byte[] data, int offset, int length) {
+		return expected.length == length && regionMatches(expected, 0, data, offset, length);
+	}
+
+	private static boolean regionMatches(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+		if (a.length - aOffset != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (a[aOffset + i] != b[bOffset + i])
+				return false;
+		}
+		return true;
+	}
+
+	private static CharsetDecoder newDecoder(String charset) {
+		return Charset.forName(charset).newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+}
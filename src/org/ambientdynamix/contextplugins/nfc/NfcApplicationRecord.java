@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ambientdynamix.api.application.IContextInfo;
+
+import android.nfc.NdefRecord;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/*
+ * Android Application Record (AAR), an external type record of type "android.com:pkg" whose payload is the package
+ * name of the application that should handle the tag.
+ */
+class NfcApplicationRecord implements IContextInfo, ParsedNdefRecord, INfcApplicationRecord {
+	public static final String EXTERNAL_TYPE = "android.com:pkg";
+	public static Parcelable.Creator<NfcApplicationRecord> CREATOR = new Parcelable.Creator<NfcApplicationRecord>() {
+		public NfcApplicationRecord createFromParcel(Parcel in) {
+			return new NfcApplicationRecord(in);
+		}
+
+		public NfcApplicationRecord[] newArray(int size) {
+			return new NfcApplicationRecord[size];
+		}
+	};
+	private final String mPackageName;
+	private NdefRecord record;
+
+	/**
+	 * Decoder registered with the {@link ExternalTypeRegistry} for {@link #EXTERNAL_TYPE}.
+	 */
+	static class Decoder implements ExternalTypeDecoder {
+		@Override
+		public ParsedNdefRecord decode(NdefRecord record) throws Exception {
+			return parse(record);
+		}
+	}
+
+	public static NfcApplicationRecord parse(NdefRecord record) {
+		if (record.getTnf() != NdefRecord.TNF_EXTERNAL_TYPE)
+			throw new IllegalArgumentException("Not an external type record");
+		byte[] payload = record.getPayload();
+		if (payload.length == 0)
+			throw new IllegalArgumentException("Empty package name");
+		return new NfcApplicationRecord(record, new String(payload, Charset.forName("US-ASCII")));
+	}
+
+	private NfcApplicationRecord(NdefRecord record, String packageName) {
+		this.record = record;
+		this.mPackageName = packageName;
+	}
+
+	private NfcApplicationRecord(final Parcel in) {
+		this.record = in.readParcelable(null);
+		this.mPackageName = in.readString();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcApplicationRecord#getNdefRecord()
+	 */
+	public NdefRecord getNdefRecord() {
+		return this.record;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcApplicationRecord#getPackageName()
+	 */
+	public String getPackageName() {
+		return mPackageName;
+	}
+
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	@Override
+	public void writeToParcel(Parcel dest, int flags) {
+		dest.writeParcelable(this.record, flags);
+		dest.writeString(this.mPackageName);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcApplicationRecord#getContextType()
+	 */
+	@Override
+	public String getContextType() {
+		return "org.ambientdynamix.contextplugins.nfc.application_record";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcApplicationRecord#getImplementingClassname()
+	 */
+	@Override
+	public String getImplementingClassname() {
+		return this.getClass().getName();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcApplicationRecord#getStringRepresentation(java.lang.String)
+	 */
+	@Override
+	public String getStringRepresentation(String format) {
+		if (format.equalsIgnoreCase("text/plain"))
+			return mPackageName;
+		return "";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcApplicationRecord#getStringRepresentationFormats()
+	 */
+	@Override
+	public Set<String> getStringRepresentationFormats() {
+		Set<String> formats = new HashSet<String>();
+		formats.add("text/plain");
+		return formats;
+	}
+}
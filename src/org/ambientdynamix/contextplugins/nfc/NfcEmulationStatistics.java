@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ambientdynamix.api.application.IContextInfo;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/*
+ * Statistics of a host card emulation session, see NdefTagEmulator.
+ */
+class NfcEmulationStatistics implements IContextInfo, INfcEmulationStatistics {
+	public static Parcelable.Creator<NfcEmulationStatistics> CREATOR = new Parcelable.Creator<NfcEmulationStatistics>() {
+		public NfcEmulationStatistics createFromParcel(Parcel in) {
+			return new NfcEmulationStatistics(in);
+		}
+
+		public NfcEmulationStatistics[] newArray(int size) {
+			return new NfcEmulationStatistics[size];
+		}
+	};
+	private final int apduCount;
+	private final int readCount;
+	private final int errorCount;
+	private final long bytesServed;
+	private final long meanResponseNanos;
+	private final long maxResponseNanos;
+
+	NfcEmulationStatistics(int apduCount, int readCount, int errorCount, long bytesServed, long meanResponseNanos,
+			long maxResponseNanos) {
+		this.apduCount = apduCount;
+		this.readCount = readCount;
+		this.errorCount = errorCount;
+		this.bytesServed = bytesServed;
+		this.meanResponseNanos = meanResponseNanos;
+		this.maxResponseNanos = maxResponseNanos;
+	}
+
+	private NfcEmulationStatistics(final Parcel in) {
+		this.apduCount = in.readInt();
+		this.readCount = in.readInt();
+		this.errorCount = in.readInt();
+		this.bytesServed = in.readLong();
+		this.meanResponseNanos = in.readLong();
+		this.maxResponseNanos = in.readLong();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcEmulationStatistics#getApduCount()
+	 */
+	public int getApduCount() {
+		return apduCount;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcEmulationStatistics#getReadCount()
+	 */
+	public int getReadCount() {
+		return readCount;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcEmulationStatistics#getErrorCount()
+	 */
+	public int getErrorCount() {
+		return errorCount;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcEmulationStatistics#getBytesServed()
+	 */
+	public long getBytesServed() {
+		return bytesServed;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcEmulationStatistics#getMeanResponseNanos()
+	 */
+	public long getMeanResponseNanos() {
+		return meanResponseNanos;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcEmulationStatistics#getMaxResponseNanos()
+	 */
+	public long getMaxResponseNanos() {
+		return maxResponseNanos;
+	}
+
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	@Override
+	public void writeToParcel(Parcel dest, int flags) {
+		dest.writeInt(apduCount);
+		dest.writeInt(readCount);
+		dest.writeInt(errorCount);
+		dest.writeLong(bytesServed);
+		dest.writeLong(meanResponseNanos);
+		dest.writeLong(maxResponseNanos);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcEmulationStatistics#getContextType()
+	 */
+	@Override
+	public String getContextType() {
+		return "org.ambientdynamix.contextplugins.nfc.emulation_statistics";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcEmulationStatistics#getImplementingClassname()
+	 */
+	@Override
+	public String getImplementingClassname() {
+		return this.getClass().getName();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcEmulationStatistics#getStringRepresentation(java.lang.String)
+	 */
+	@Override
+	public String getStringRepresentation(String format) {
+		if (format.equalsIgnoreCase("text/plain"))
+			return apduCount + " apdus, " + readCount + " reads, " + errorCount + " errors, " + bytesServed
+					+ " bytes, mean " + meanResponseNanos + " ns, max " + maxResponseNanos + " ns";
+		return "";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcEmulationStatistics#getStringRepresentationFormats()
+	 */
+	@Override
+	public Set<String> getStringRepresentationFormats() {
+		Set<String> formats = new HashSet<String>();
+		formats.add("text/plain");
+		return formats;
+	}
+}
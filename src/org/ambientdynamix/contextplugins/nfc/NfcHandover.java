@@ -0,0 +1,498 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ambientdynamix.api.application.IContextInfo;
+
+import android.nfc.NdefRecord;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/*
+ * Connection handover carrier, decoded from a Bluetooth OOB (application/vnd.bluetooth.ep.oob) or Wi-Fi Simple Config
+ * (application/vnd.wfa.wsc) record, with the power state from the preceding handover select record, if any. See the
+ * NFC Forum Connection Handover specification, the Bluetooth Secure Simple Pairing OOB format and the Wi-Fi Simple
+ * Configuration specification. Payloads are parsed in place, in a single pass.
+ */
+class NfcHandover implements IContextInfo, ParsedNdefRecord, INfcHandover, SignedRecord, TapEvent {
+	public static Parcelable.Creator<NfcHandover> CREATOR = new Parcelable.Creator<NfcHandover>() {
+		public NfcHandover createFromParcel(Parcel in) {
+			return new NfcHandover(in);
+		}
+
+		public NfcHandover[] newArray(int size) {
+			return new NfcHandover[size];
+		}
+	};
+	private long tapSequence = -1;
+	private int signatureStatus = SignatureVerifier.UNSIGNED;
+	static final byte[] TYPE_HANDOVER_SELECT = new byte[] { 'H', 's' };
+	static final byte[] TYPE_ALTERNATIVE_CARRIER = new byte[] { 'a', 'c' };
+	static final byte[] TYPE_BLUETOOTH_OOB = "application/vnd.bluetooth.ep.oob".getBytes(NdefPayloads.US_ASCII);
+	static final byte[] TYPE_WIFI_WSC = "application/vnd.wfa.wsc".getBytes(NdefPayloads.US_ASCII);
+	public static final String CARRIER_BLUETOOTH = "bluetooth";
+	public static final String CARRIER_WIFI = "wifi";
+	private static final String[] POWER_STATES = new String[] { "inactive", "active", "activating", "unknown" };
+	private static final int POWER_STATE_UNKNOWN = 3;
+	// Bluetooth EIR data types
+	private static final int EIR_SHORT_NAME = 0x08;
+	private static final int EIR_COMPLETE_NAME = 0x09;
+	private static final int EIR_DEVICE_CLASS = 0x0D;
+	// Wi-Fi Simple Config attributes
+	private static final int WSC_AUTH_TYPE = 0x1003;
+	private static final int WSC_CREDENTIAL = 0x100E;
+	private static final int WSC_ENCRYPTION_TYPE = 0x100F;
+	private static final int WSC_MAC_ADDRESS = 0x1020;
+	private static final int WSC_NETWORK_KEY = 0x1027;
+	private static final int WSC_SSID = 0x1045;
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	private final String carrierType;
+	private final int powerState;
+	private final String carrierReference;
+	private String address;
+	private String name;
+	private int deviceClass = -1;
+	private String authenticationType;
+	private String encryptionType;
+	private String networkKey;
+
+	private NfcHandover(String carrierType, int powerState, String carrierReference) {
+		this.carrierType = carrierType;
+		this.powerState = powerState;
+		this.carrierReference = carrierReference;
+	}
+
+	private NfcHandover(final Parcel in) {
+		this.carrierType = in.readString();
+		this.powerState = in.readInt();
+		this.carrierReference = in.readString();
+		this.address = in.readString();
+		this.name = in.readString();
+		this.deviceClass = in.readInt();
+		this.authenticationType = in.readString();
+		this.encryptionType = in.readString();
+		this.networkKey = in.readString();
+		this.signatureStatus = in.readInt();
+		this.tapSequence = in.readLong();
+	}
+
+	/**
+	 * Returns true for handover select records, which only carry the power states of the carrier records that follow
+	 * them and produce no event of their own.
+	 */
+	public static boolean isHandoverSelect(NdefRecord record) {
+		return record.getTnf() == NdefRecord.TNF_WELL_KNOWN && Arrays.equals(record.getType(), TYPE_HANDOVER_SELECT);
+	}
+
+	/**
+	 * Returns true for Bluetooth OOB and Wi-Fi Simple Config carrier configuration records.
+	 */
+	public static boolean isCarrier(NdefRecord record) {
+		if (record.getTnf() != NdefRecord.TNF_MIME_MEDIA)
+			return false;
+		byte[] type = record.getType();
+		return equalsIgnoreCase(type, TYPE_BLUETOOTH_OOB) || equalsIgnoreCase(type, TYPE_WIFI_WSC);
+	}
+
+	/**
+	 * Decodes a carrier configuration record, taking its power state from select (which may be null).
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the record is not a supported carrier record or is malformed.
+	 */
+	public static NfcHandover parse(NdefRecord record, Select select) {
+		byte[] id = record.getId();
+		int powerState = select != null && id.length > 0 ? select.powerStateFor(id) : POWER_STATE_UNKNOWN;
+		String reference = id.length > 0 ? NdefPayloads.decodeUtf8(id, 0, id.length) : null;
+		byte[] type = record.getType();
+		byte[] payload = record.getPayload();
+		NfcHandover handover;
+		if (equalsIgnoreCase(type, TYPE_BLUETOOTH_OOB)) {
+			handover = new NfcHandover(CARRIER_BLUETOOTH, powerState, reference);
+			handover.parseBluetooth(payload, 0, payload.length);
+		} else if (equalsIgnoreCase(type, TYPE_WIFI_WSC)) {
+			handover = new NfcHandover(CARRIER_WIFI, powerState, reference);
+			handover.parseWifi(payload, 0, payload.length, false);
+		} else
+			throw new IllegalArgumentException("Not a handover carrier record");
+		return handover;
+	}
+
+	/**
+	 * Bluetooth OOB data: a little-endian total length, the device address in little-endian byte order, then EIR data
+	 * structures of [length, type, data].
+	 */
+	private void parseBluetooth(byte[] p, int offset, int length) {
+		if (length < 8)
+			throw new IllegalArgumentException("Truncated Bluetooth OOB data");
+		int oobLength = (p[offset] & 0xff) | ((p[offset + 1] & 0xff) << 8);
+		int end = offset + Math.min(length, Math.max(oobLength, 8));
+		address = formatAddress(p, offset + 2, 6, true);
+		int pos = offset + 8;
+		while (pos < end) {
+			int fieldLength = p[pos] & 0xff;
+			if (fieldLength == 0)
+				break;
+			if (pos + 1 + fieldLength > end)
+				throw new IllegalArgumentException("Truncated EIR data");
+			int fieldType = p[pos + 1] & 0xff;
+			int data = pos + 2;
+			int dataLength = fieldLength - 1;
+			if (fieldType == EIR_COMPLETE_NAME || (fieldType == EIR_SHORT_NAME && name == null))
+				name = NdefPayloads.decodeUtf8(p, data, dataLength);
+			else if (fieldType == EIR_DEVICE_CLASS && dataLength == 3)
+				deviceClass = (p[data] & 0xff) | ((p[data + 1] & 0xff) << 8) | ((p[data + 2] & 0xff) << 16);
+			pos += 1 + fieldLength;
+		}
+	}
+
+	/**
+	 * Wi-Fi Simple Config data: big-endian [type, length, value] attributes. Only the first credential is decoded.
+	 */
+	private void parseWifi(byte[] p, int offset, int length, boolean inCredential) {
+		int end = offset + length;
+		int pos = offset;
+		while (pos + 4 <= end) {
+			int attribute = ((p[pos] & 0xff) << 8) | (p[pos + 1] & 0xff);
+			int valueLength = ((p[pos + 2] & 0xff) << 8) | (p[pos + 3] & 0xff);
+			int value = pos + 4;
+			if (value + valueLength > end)
+				throw new IllegalArgumentException("Truncated WSC attribute");
+			switch (attribute) {
+			case WSC_CREDENTIAL:
+				if (!inCredential && name == null)
+					parseWifi(p, value, valueLength, true);
+				break;
+			case WSC_SSID:
+				name = NdefPayloads.decodeUtf8(p, value, valueLength);
+				break;
+			case WSC_NETWORK_KEY:
+				networkKey = NdefPayloads.decodeUtf8(p, value, valueLength);
+				break;
+			case WSC_MAC_ADDRESS:
+				if (valueLength == 6)
+					address = formatAddress(p, value, 6, false);
+				break;
+			case WSC_AUTH_TYPE:
+				if (valueLength == 2)
+					authenticationType = authenticationName(readShort(p, value));
+				break;
+			case WSC_ENCRYPTION_TYPE:
+				if (valueLength == 2)
+					encryptionType = encryptionName(readShort(p, value));
+				break;
+			}
+			pos = value + valueLength;
+		}
+	}
+
+	/**
+	 * Power states of the alternative carriers of a handover select record, keyed by carrier data reference. The
+	 * references are kept as offsets into the record payload.
+	 */
+	static final class Select {
+		private final byte[] payload;
+		private final int[] referenceOffsets;
+		private final int[] referenceLengths;
+		private final int[] powerStates;
+		private final int count;
+
+		private Select(byte[] payload, int[] referenceOffsets, int[] referenceLengths, int[] powerStates, int count) {
+			this.payload = payload;
+			this.referenceOffsets = referenceOffsets;
+			this.referenceLengths = referenceLengths;
+			this.powerStates = powerStates;
+			this.count = count;
+		}
+
+		/**
+		 * Parses a handover select record: a version byte followed by an NDEF message of alternative carrier records.
+		 *
+		 * @throws IllegalArgumentException
+		 *             if the record is malformed.
+		 */
+		static Select parse(NdefRecord record) {
+			byte[] payload = record.getPayload();
+			int[] offsets = new int[4];
+			int[] lengths = new int[4];
+			int[] states = new int[4];
+			int count = 0;
+			if (payload.length > 1) {
+				NdefRecordCursor cursor = new NdefRecordCursor().reset(payload, 1, payload.length - 1);
+				while (cursor.next()) {
+					if (cursor.tnf != NdefPayloads.TNF_WELL_KNOWN || !cursor.typeEquals(TYPE_ALTERNATIVE_CARRIER))
+						continue;
+					int p = cursor.payloadOffset;
+					if (cursor.payloadLength < 2 || 2 + (payload[p + 1] & 0xff) > cursor.payloadLength)
+						throw new IllegalArgumentException("Truncated alternative carrier record");
+					if (count == offsets.length) {
+						offsets = Arrays.copyOf(offsets, count * 2);
+						lengths = Arrays.copyOf(lengths, count * 2);
+						states = Arrays.copyOf(states, count * 2);
+					}
+					states[count] = payload[p] & 0x03;
+					lengths[count] = payload[p + 1] & 0xff;
+					offsets[count] = p + 2;
+					count++;
+				}
+			}
+			return new Select(payload, offsets, lengths, states, count);
+		}
+
+		int powerStateFor(byte[] id) {
+			for (int i = 0; i < count; i++) {
+				if (referenceLengths[i] != id.length)
+					continue;
+				int j = 0;
+				while (j < id.length && payload[referenceOffsets[i] + j] == id[j])
+					j++;
+				if (j == id.length)
+					return powerStates[i];
+			}
+			return POWER_STATE_UNKNOWN;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcHandover#getCarrierType()
+	 */
+	public String getCarrierType() {
+		return carrierType;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcHandover#getCarrierPowerState()
+	 */
+	public String getCarrierPowerState() {
+		return POWER_STATES[powerState];
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcHandover#getCarrierReference()
+	 */
+	public String getCarrierReference() {
+		return carrierReference;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcHandover#getAddress()
+	 */
+	public String getAddress() {
+		return address;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcHandover#getName()
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcHandover#getDeviceClass()
+	 */
+	public int getDeviceClass() {
+		return deviceClass;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcHandover#getAuthenticationType()
+	 */
+	public String getAuthenticationType() {
+		return authenticationType;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcHandover#getEncryptionType()
+	 */
+	public String getEncryptionType() {
+		return encryptionType;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcHandover#getNetworkKey()
+	 */
+	public String getNetworkKey() {
+		return networkKey;
+	}
+
+	/**
+	 * Removes the network key, for events sent without the handover_network_key opt-in.
+	 */
+	void dropNetworkKey() {
+		networkKey = null;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcHandover#getTapSequence()
+	 */
+	public long getTapSequence() {
+		return tapSequence;
+	}
+
+	public void setTapSequence(long sequence) {
+		this.tapSequence = sequence;
+	}
+
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcHandover#getSignatureStatus()
+	 */
+	public String getSignatureStatus() {
+		return SignatureVerifier.statusName(signatureStatus);
+	}
+
+	public void setSignatureStatus(int status) {
+		this.signatureStatus = status;
+	}
+
+	@Override
+	public void writeToParcel(Parcel dest, int flags) {
+		dest.writeString(carrierType);
+		dest.writeInt(powerState);
+		dest.writeString(carrierReference);
+		dest.writeString(address);
+		dest.writeString(name);
+		dest.writeInt(deviceClass);
+		dest.writeString(authenticationType);
+		dest.writeString(encryptionType);
+		dest.writeString(networkKey);
+		dest.writeInt(signatureStatus);
+		dest.writeLong(tapSequence);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcHandover#getContextType()
+	 */
+	@Override
+	public String getContextType() {
+		return "org.ambientdynamix.contextplugins.nfc.handover";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcHandover#getImplementingClassname()
+	 */
+	@Override
+	public String getImplementingClassname() {
+		return this.getClass().getName();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcHandover#getStringRepresentation(java.lang.String)
+	 */
+	@Override
+	public String getStringRepresentation(String format) {
+		if (format.equalsIgnoreCase("text/plain")) {
+			// The network key is left out on purpose
+			StringBuilder sb = new StringBuilder(carrierType);
+			sb.append(" power=").append(getCarrierPowerState());
+			if (address != null)
+				sb.append(" address=").append(address);
+			if (name != null)
+				sb.append(" name=").append(name);
+			if (authenticationType != null)
+				sb.append(" auth=").append(authenticationType);
+			return sb.toString();
+		}
+		return "";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcHandover#getStringRepresentationFormats()
+	 */
+	@Override
+	public Set<String> getStringRepresentationFormats() {
+		Set<String> formats = new HashSet<String>();
+		formats.add("text/plain");
+		return formats;
+	}
+
+	private static String formatAddress(byte[] p, int offset, int length, boolean littleEndian) {
+		char[] out = new char[length * 3 - 1];
+		for (int i = 0; i < length; i++) {
+			int v = p[littleEndian ? offset + length - 1 - i : offset + i] & 0xff;
+			if (i > 0)
+				out[i * 3 - 1] = ':';
+			out[i * 3] = HEX[v >>> 4];
+			out[i * 3 + 1] = HEX[v & 0x0f];
+		}
+		return new String(out);
+	}
+
+	private static int readShort(byte[] p, int offset) {
+		return ((p[offset] & 0xff) << 8) | (p[offset + 1] & 0xff);
+	}
+
+	private static String authenticationName(int type) {
+		switch (type) {
+		case 0x0001:
+			return "open";
+		case 0x0002:
+			return "wpa-psk";
+		case 0x0004:
+			return "shared";
+		case 0x0008:
+			return "wpa";
+		case 0x0010:
+			return "wpa2";
+		case 0x0020:
+			return "wpa2-psk";
+		case 0x0022:
+			return "wpa/wpa2-psk";
+		default:
+			return Integer.toHexString(type);
+		}
+	}
+
+	private static String encryptionName(int type) {
+		switch (type) {
+		case 0x0001:
+			return "none";
+		case 0x0002:
+			return "wep";
+		case 0x0004:
+			return "tkip";
+		case 0x0008:
+			return "aes";
+		case 0x000C:
+			return "aes/tkip";
+		default:
+			return Integer.toHexString(type);
+		}
+	}
+
+	/**
+	 * Compares MIME types, which are case-insensitive.
+	 */
+	private static boolean equalsIgnoreCase(byte[] a, byte[] b) {
+		if (a.length != b.length)
+			return false;
+		for (int i = 0; i < a.length; i++) {
+			int x = a[i], y = b[i];
+			if (x != y && Character.toLowerCase((char) x) != Character.toLowerCase((char) y))
+				return false;
+		}
+		return true;
+	}
+}
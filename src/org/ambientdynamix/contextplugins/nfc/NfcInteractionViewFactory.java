@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginRuntime;
+import org.ambientdynamix.api.contextplugin.IContextPluginInteractionViewFactory;
+
+import android.app.Activity;
+import android.content.Context;
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * Interaction view of the plug-in, asking the user to hold a tag to the device. Dynamix shows it in its own activity,
+ * which is in the foreground for as long as the view is shown, so this is where reader mode is enabled and disabled
+ * when the {@link NfcPluginRuntime#TAG_SOURCE_SETTINGS_KEY} setting selects it.
+ */
+public class NfcInteractionViewFactory implements IContextPluginInteractionViewFactory {
+	private NfcPluginRuntime runtime;
+	private Activity activity;
+
+	@Override
+	public View initializeView(Context context, ContextPluginRuntime runtime, int titleBarHeight) throws Exception {
+		this.runtime = (NfcPluginRuntime) runtime;
+		if (context instanceof Activity) {
+			activity = (Activity) context;
+			this.runtime.attachActivity(activity);
+		}
+		TextView view = new TextView(context);
+		view.setPadding(16, titleBarHeight + 16, 16, 16);
+		view.setText("Hold a tag to the back of the device");
+		return view;
+	}
+
+	@Override
+	public void destroyView() throws Exception {
+		if (runtime != null && activity != null)
+			runtime.detachActivity(activity);
+		runtime = null;
+		activity = null;
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ambientdynamix.api.application.IContextInfo;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/*
+ * Responses of an ISO-DEP APDU script, see IsoDepReader.
+ */
+class NfcIsoDepResponse implements IContextInfo, INfcIsoDepResponse, TapEvent {
+	public static Parcelable.Creator<NfcIsoDepResponse> CREATOR = new Parcelable.Creator<NfcIsoDepResponse>() {
+		public NfcIsoDepResponse createFromParcel(Parcel in) {
+			return new NfcIsoDepResponse(in);
+		}
+
+		public NfcIsoDepResponse[] newArray(int size) {
+			return new NfcIsoDepResponse[size];
+		}
+	};
+	private long tapSequence = -1;
+	private final String scriptName;
+	// Response data of all commands, command i at data[offsets[i], offsets[i + 1])
+	private final byte[] data;
+	private final int[] offsets;
+	private final int[] statusWords;
+	private final boolean complete;
+	private final long elapsedMillis;
+
+	NfcIsoDepResponse(String scriptName, byte[] data, int[] offsets, int[] statusWords, boolean complete,
+			long elapsedMillis) {
+		this.scriptName = scriptName;
+		this.data = data;
+		this.offsets = offsets;
+		this.statusWords = statusWords;
+		this.complete = complete;
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	private NfcIsoDepResponse(final Parcel in) {
+		this.scriptName = in.readString();
+		this.data = in.createByteArray();
+		this.offsets = in.createIntArray();
+		this.statusWords = in.createIntArray();
+		this.complete = in.readByte() != 0;
+		this.elapsedMillis = in.readLong();
+		this.tapSequence = in.readLong();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcIsoDepResponse#getScriptName()
+	 */
+	public String getScriptName() {
+		return scriptName;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcIsoDepResponse#getResponseCount()
+	 */
+	public int getResponseCount() {
+		return statusWords.length;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcIsoDepResponse#getResponse(int)
+	 */
+	public byte[] getResponse(int index) {
+		return Arrays.copyOfRange(data, offsets[index], offsets[index + 1]);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcIsoDepResponse#getStatusWord(int)
+	 */
+	public int getStatusWord(int index) {
+		return statusWords[index];
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcIsoDepResponse#isComplete()
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcIsoDepResponse#getElapsedMillis()
+	 */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcIsoDepResponse#getTapSequence()
+	 */
+	public long getTapSequence() {
+		return tapSequence;
+	}
+
+	public void setTapSequence(long sequence) {
+		this.tapSequence = sequence;
+	}
+
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	@Override
+	public void writeToParcel(Parcel dest, int flags) {
+		dest.writeString(scriptName);
+		dest.writeByteArray(data);
+		dest.writeIntArray(offsets);
+		dest.writeIntArray(statusWords);
+		dest.writeByte((byte) (complete ? 1 : 0));
+		dest.writeLong(elapsedMillis);
+		dest.writeLong(tapSequence);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcIsoDepResponse#getContextType()
+	 */
+	@Override
+	public String getContextType() {
+		return "org.ambientdynamix.contextplugins.nfc.isodep_response";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcIsoDepResponse#getImplementingClassname()
+	 */
+	@Override
+	public String getImplementingClassname() {
+		return this.getClass().getName();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcIsoDepResponse#getStringRepresentation(java.lang.String)
+	 */
+	@Override
+	public String getStringRepresentation(String format) {
+		if (format.equalsIgnoreCase("text/plain")) {
+			StringBuilder sb = new StringBuilder(scriptName);
+			for (int i = 0; i < statusWords.length; i++) {
+				sb.append(' ').append(Integer.toHexString(statusWords[i] & 0xffff).toUpperCase()).append(':');
+				sb.append(NfcTag.byteArrayToHexString(getResponse(i)));
+			}
+			return sb.toString();
+		}
+		return "";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcIsoDepResponse#getStringRepresentationFormats()
+	 */
+	@Override
+	public Set<String> getStringRepresentationFormats() {
+		Set<String> formats = new HashSet<String>();
+		formats.add("text/plain");
+		return formats;
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ambientdynamix.api.application.IContextInfo;
+
+import android.nfc.NdefRecord;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/*
+ * The records of a tag's NDEF message that were added, changed or removed since the tag was last read, see
+ * NdefDeltaTracker.
+ */
+class NfcNdefDelta implements IContextInfo, INfcNdefDelta, TapEvent {
+	public static Parcelable.Creator<NfcNdefDelta> CREATOR = new Parcelable.Creator<NfcNdefDelta>() {
+		public NfcNdefDelta createFromParcel(Parcel in) {
+			return new NfcNdefDelta(in);
+		}
+
+		public NfcNdefDelta[] newArray(int size) {
+			return new NfcNdefDelta[size];
+		}
+	};
+	private final byte[] uid;
+	private final long previousFingerprint;
+	private final long fingerprint;
+	private final boolean firstSeen;
+	private final int previousCount;
+	private final int recordCount;
+	private final int[] changedIndices;
+	private final NdefRecord[] changedRecords;
+	private final NdefRecord[] addedRecords;
+	private long tapSequence = -1;
+
+	/**
+	 * Creates the delta between a message of previousCount records and records, of which those at changedIndices (in
+	 * ascending order) differ from their previous content.
+	 */
+	NfcNdefDelta(byte[] uid, long previousFingerprint, long fingerprint, boolean firstSeen, int previousCount,
+			NdefRecord[] records, int[] changedIndices) {
+		this.uid = uid != null ? uid : new byte[0];
+		this.previousFingerprint = previousFingerprint;
+		this.fingerprint = fingerprint;
+		this.firstSeen = firstSeen;
+		this.previousCount = previousCount;
+		this.recordCount = records.length;
+		this.changedIndices = changedIndices;
+		this.changedRecords = new NdefRecord[changedIndices.length];
+		for (int c = 0; c < changedIndices.length; c++)
+			changedRecords[c] = records[changedIndices[c]];
+		this.addedRecords = new NdefRecord[Math.max(0, recordCount - previousCount)];
+		System.arraycopy(records, recordCount - addedRecords.length, addedRecords, 0, addedRecords.length);
+	}
+
+	private NfcNdefDelta(final Parcel in) {
+		this.uid = in.createByteArray();
+		this.previousFingerprint = in.readLong();
+		this.fingerprint = in.readLong();
+		this.firstSeen = in.readByte() != 0;
+		this.previousCount = in.readInt();
+		this.recordCount = in.readInt();
+		this.changedIndices = in.createIntArray();
+		this.changedRecords = readRecords(in);
+		this.addedRecords = readRecords(in);
+		this.tapSequence = in.readLong();
+	}
+
+	/**
+	 * Returns whether record index of the current message was added or changed.
+	 */
+	boolean isChanged(int index) {
+		return index >= previousCount || Arrays.binarySearch(changedIndices, index) >= 0;
+	}
+
+	@Override
+	public void setTapSequence(long tapSequence) {
+		this.tapSequence = tapSequence;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcNdefDelta#getTagIdAsString()
+	 */
+	public String getTagIdAsString() {
+		return NfcTag.byteArrayToHexString(uid);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcNdefDelta#getTapSequence()
+	 */
+	public long getTapSequence() {
+		return tapSequence;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcNdefDelta#isFirstSeen()
+	 */
+	public boolean isFirstSeen() {
+		return firstSeen;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcNdefDelta#getFingerprint()
+	 */
+	public String getFingerprint() {
+		return toHex(fingerprint);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcNdefDelta#getPreviousFingerprint()
+	 */
+	public String getPreviousFingerprint() {
+		return firstSeen ? null : toHex(previousFingerprint);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcNdefDelta#getRecordCount()
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcNdefDelta#getAddedIndices()
+	 */
+	public int[] getAddedIndices() {
+		int[] indices = new int[addedRecords.length];
+		for (int a = 0; a < indices.length; a++)
+			indices[a] = recordCount - indices.length + a;
+		return indices;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcNdefDelta#getAddedRecords()
+	 */
+	public NdefRecord[] getAddedRecords() {
+		return addedRecords.clone();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcNdefDelta#getChangedIndices()
+	 */
+	public int[] getChangedIndices() {
+		return changedIndices.clone();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcNdefDelta#getChangedRecords()
+	 */
+	public NdefRecord[] getChangedRecords() {
+		return changedRecords.clone();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcNdefDelta#getRemovedIndices()
+	 */
+	public int[] getRemovedIndices() {
+		int[] indices = new int[Math.max(0, previousCount - recordCount)];
+		for (int r = 0; r < indices.length; r++)
+			indices[r] = recordCount + r;
+		return indices;
+	}
+
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	@Override
+	public void writeToParcel(Parcel dest, int flags) {
+		dest.writeByteArray(uid);
+		dest.writeLong(previousFingerprint);
+		dest.writeLong(fingerprint);
+		dest.writeByte((byte) (firstSeen ? 1 : 0));
+		dest.writeInt(previousCount);
+		dest.writeInt(recordCount);
+		dest.writeIntArray(changedIndices);
+		writeRecords(dest, changedRecords, flags);
+		writeRecords(dest, addedRecords, flags);
+		dest.writeLong(tapSequence);
+	}
+
+	private static void writeRecords(Parcel dest, NdefRecord[] records, int flags) {
+		dest.writeInt(records.length);
+		for (NdefRecord record : records)
+			dest.writeParcelable(record, flags);
+	}
+
+	private static NdefRecord[] readRecords(Parcel in) {
+		NdefRecord[] records = new NdefRecord[in.readInt()];
+		for (int r = 0; r < records.length; r++)
+			records[r] = in.readParcelable(NdefRecord.class.getClassLoader());
+		return records;
+	}
+
+	private static String toHex(long value) {
+		String hex = Long.toHexString(value);
+		return "0000000000000000".substring(hex.length()) + hex;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcNdefDelta#getContextType()
+	 */
+	@Override
+	public String getContextType() {
+		return "org.ambientdynamix.contextplugins.nfc.ndef_delta";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcNdefDelta#getImplementingClassname()
+	 */
+	@Override
+	public String getImplementingClassname() {
+		return this.getClass().getName();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcNdefDelta#getStringRepresentation(java.lang.String)
+	 */
+	@Override
+	public String getStringRepresentation(String format) {
+		if (format.equalsIgnoreCase("text/plain"))
+			return getTagIdAsString() + " " + getFingerprint() + ": " + addedRecords.length + " added, "
+					+ changedRecords.length + " changed, " + Math.max(0, previousCount - recordCount) + " removed";
+		return "";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcNdefDelta#getStringRepresentationFormats()
+	 */
+	@Override
+	public Set<String> getStringRepresentationFormats() {
+		Set<String> formats = new HashSet<String>();
+		formats.add("text/plain");
+		return formats;
+	}
+}
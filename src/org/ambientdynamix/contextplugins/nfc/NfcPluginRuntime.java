@@ -15,17 +15,29 @@
  */
 package org.ambientdynamix.contextplugins.nfc;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.ambientdynamix.api.application.IContextInfo;
-import org.ambientdynamix.api.contextplugin.AutoContextPluginRuntime;
+import org.ambientdynamix.api.contextplugin.AutoReactiveContextPluginRuntime;
 import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
 import org.ambientdynamix.api.contextplugin.NfcListener;
 import org.ambientdynamix.api.contextplugin.PowerScheme;
 import org.ambientdynamix.api.contextplugin.security.PrivacyRiskLevel;
 import org.ambientdynamix.api.contextplugin.security.SecuredContextInfo;
 
+import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.nfc.NdefMessage;
@@ -33,6 +45,11 @@ import android.nfc.NdefRecord;
 import android.nfc.NfcAdapter;
 import android.nfc.NfcManager;
 import android.nfc.Tag;
+import android.nfc.tech.IsoDep;
+import android.nfc.tech.MifareUltralight;
+import android.nfc.tech.Ndef;
+import android.nfc.tech.NfcA;
+import android.os.Bundle;
 import android.os.Parcelable;
 import android.util.Log;
 
@@ -42,7 +59,7 @@ import android.util.Log;
  * @author Darren Carlson
  * 
  */
-public class NfcPluginRuntime extends AutoContextPluginRuntime implements NfcListener {
+public class NfcPluginRuntime extends AutoReactiveContextPluginRuntime implements NfcListener {
 	/*
 	 * Links:
 	 * http://www.androidadb.com/source/zxing-read-only/core/src/com/google/zxing/client/result/optional/NDEFRecord
@@ -55,7 +72,156 @@ public class NfcPluginRuntime extends AutoContextPluginRuntime implements NfcLis
 	 * http://stackoverflow.com/questions/7655863/android-read-actual-data-from-rfid-tag
 	 * http://code.google.com/p/android/issues/detail?id=15639
 	 */
+	/**
+	 * Settings key holding the interval in milliseconds between tap statistics events, 0 to disable them.
+	 */
+	public static final String STATISTICS_INTERVAL_SETTINGS_KEY = "tap_statistics_interval_ms";
+	/**
+	 * Settings key holding the emission mode: "batch" (default) decodes each NDEF message before sending its records,
+	 * "progressive" sends the tag event before any other work and then each record as soon as it is decoded.
+	 */
+	public static final String EMISSION_MODE_SETTINGS_KEY = "emission_mode";
+	/**
+	 * Settings key to include the Wi-Fi network key of handover records in their events ("true" or "false", the
+	 * default). Events carrying a network key are sent at {@link PrivacyRiskLevel#HIGH}.
+	 */
+	public static final String HANDOVER_NETWORK_KEY_SETTINGS_KEY = "handover_network_key";
+	/**
+	 * Settings key selecting where tags come from: "intents" (default) takes the NFC intents relayed by Dynamix only,
+	 * "reader_mode" also takes tags from reader mode while the plug-in's interaction view is shown (see
+	 * {@link NfcInteractionViewFactory} and {@link ReaderModeTagSource}). Requires API level 19.
+	 */
+	public static final String TAG_SOURCE_SETTINGS_KEY = "tag_source";
+	/**
+	 * Context type of queries over the recent taps, answered with a {@link NfcTapQueryResult}, see
+	 * {@link #handleConfiguredContextRequest(UUID, String, Bundle)}.
+	 */
+	public static final String TAP_QUERY_CONTEXT_TYPE = "org.ambientdynamix.contextplugins.nfc.tap_query";
+	/** Tap query key holding a phrase that a text record must contain */
+	public static final String QUERY_TEXT_KEY = "text";
+	/** Tap query key holding a host that a URI must be on, or under */
+	public static final String QUERY_HOST_KEY = "host";
+	/** Tap query key holding a path that a URI must be under */
+	public static final String QUERY_PATH_KEY = "path";
 	private final String TAG = this.getClass().getSimpleName();
+	private final NfcTrace trace = new NfcTrace(TAG, 1024);
+	private volatile ContextEventSink eventSink;
+	private volatile int subscriptions = ContextSubscriptions.DEFAULT;
+	private volatile boolean handoverNetworkKey;
+	private volatile List<ApduScript> apduScripts = Collections.emptyList();
+	private volatile int isoDepDeadlineMillis = ApduScript.DEFAULT_DEADLINE_MILLIS;
+	private final IsoDepReader isoDepReader = new IsoDepReader();
+	private final UltralightMemoryReader memoryReader = new UltralightMemoryReader();
+	private final TapAnalytics analytics = new TapAnalytics(16);
+	private final UidGate uidGate = new UidGate();
+	private final SignatureVerifier signatureVerifier = new SignatureVerifier();
+	private final PresenceTracker presenceTracker = new PresenceTracker();
+	private final NdefDeltaTracker deltaTracker = new NdefDeltaTracker();
+	private final TapTextIndex textIndex = new TapTextIndex();
+	private final UidMetadataStore uidMetadata = new UidMetadataStore();
+	private final NdefTagEmulator.Listener emulationListener = new NdefTagEmulator.Listener() {
+		@Override
+		public void onSessionEnded(NfcEmulationStatistics statistics) {
+			if ((subscriptions & ContextSubscriptions.EMULATION_STATISTICS) != 0)
+				sendEvent(statistics, 60000);
+		}
+	};
+	private final PresenceTracker.Listener presenceListener = new PresenceTracker.Listener() {
+		@Override
+		public void onTagDeparted(NfcTagDeparted event, int expireMills) {
+			if ((subscriptions & ContextSubscriptions.TAG_DEPARTED) != 0)
+				sendEvent(event, expireMills);
+		}
+	};
+	private volatile int statisticsIntervalMillis = 60000;
+	private volatile boolean progressiveEmission;
+	private volatile int readerModeFlags;
+	private volatile int readerModePresenceDelayMillis;
+	private volatile boolean readerModeSelected;
+	// Alternative to Dynamix NFC intents, see setTagSource; it only delivers tags while the runtime is started
+	private TagSource tagSource;
+	// Foreground activity showing the interaction view, which reader mode is enabled for, or null
+	private Activity activity;
+	private boolean started;
+	// Serializes taps from the NFC intents and the tag source, which arrive on different threads and share the readers
+	private final Object tapLock = new Object();
+	private final TagSource.Listener tagListener = new TagSource.Listener() {
+		@Override
+		public void onTagDiscovered(Tag tag) {
+			handleTag(tag);
+		}
+	};
+	private final AtomicLong tapSequence = new AtomicLong();
+	// Shared by the periodic tasks of this runtime, exists while started
+	private volatile ScheduledExecutorService scheduler;
+	// Runs signature checks off the tap thread, kept apart from the scheduler so they cannot delay its tasks
+	private volatile ExecutorService signatureExecutor;
+	private ScheduledFuture<?> statisticsTask;
+
+	/**
+	 * Receives the context events produced by this runtime in place of the Dynamix plug-in facade. Used to drive the
+	 * runtime outside of Dynamix, e.g. by NfcLoadGenerator.
+	 */
+	interface ContextEventSink {
+		public void onContextEvent(IContextInfo event, int expireMills);
+	}
+
+	/**
+	 * Receives records as they are decoded, see {@link NfcPluginRuntime#decodeRecords}.
+	 */
+	interface RecordConsumer {
+		public void onRecord(ParsedNdefRecord record);
+	}
+
+	/**
+	 * State of the tap being handled: the sequence number and expiry shared by its events, and its start time for
+	 * measuring the latency of its first event.
+	 */
+	private final class Tap implements RecordConsumer, SignatureVerifier.Listener {
+		final long sequence;
+		final byte[] uid;
+		final long startNanos;
+		final int expireMillis;
+		// Subscribed types, records of other types are only decoded for the text index
+		final int subscribed;
+		boolean eventSent;
+		int recordIndex;
+
+		Tap(long sequence, byte[] uid, long startNanos, int expireMillis, int subscribed) {
+			this.sequence = sequence;
+			this.uid = uid;
+			this.startNanos = startNanos;
+			this.expireMillis = expireMillis;
+			this.subscribed = subscribed;
+		}
+
+		void send(IContextInfo event, int kind, int index) {
+			if (event instanceof TapEvent)
+				((TapEvent) event).setTapSequence(sequence);
+			sendEvent(event, expireMillis);
+			if (!eventSent) {
+				eventSent = true;
+				if (trace.isEnabled(Log.INFO))
+					trace.record(Log.INFO, NfcTrace.FIRST_EVENT, (System.nanoTime() - startNanos) / 1000, sequence);
+			}
+			if (trace.isEnabled(Log.DEBUG))
+				trace.record(Log.DEBUG, NfcTrace.EVENT_SENT, kind, index);
+		}
+
+		@Override
+		public void onRecord(ParsedNdefRecord record) {
+			emitRecord(this, record, recordIndex++);
+		}
+
+		@Override
+		public void onSignatureVerified(NfcSignatureResult result) {
+			// Called from the signature executor for checks that ran off the tap thread
+			if ((subscriptions & ContextSubscriptions.SIGNATURE) != 0) {
+				result.setTapSequence(sequence);
+				sendEvent(result, 60000);
+			}
+		}
+	}
 
 	/** Parse an NdefMessage */
 	public static List<ParsedNdefRecord> parse(NdefMessage message) {
@@ -63,22 +229,65 @@ public class NfcPluginRuntime extends AutoContextPluginRuntime implements NfcLis
 	}
 
 	public static List<ParsedNdefRecord> getRecords(NdefRecord[] records) {
-		List<ParsedNdefRecord> elements = new ArrayList<ParsedNdefRecord>();
-		for (NdefRecord record : records) {
+		return getRecords(records, ContextSubscriptions.ALL);
+	}
+
+	/**
+	 * Parses the given records, skipping record types whose {@link ContextSubscriptions} bit is not set in types.
+	 */
+	public static List<ParsedNdefRecord> getRecords(NdefRecord[] records, int types) {
+		return getRecords(records, types, null);
+	}
+
+	/**
+	 * Parses the given records like {@link #getRecords(NdefRecord[], int)}, marking each {@link SignedRecord} with the
+	 * status of the record it was decoded from, if statuses (indexed like records) is not null.
+	 */
+	static List<ParsedNdefRecord> getRecords(NdefRecord[] records, int types, int[] statuses) {
+		final List<ParsedNdefRecord> elements = new ArrayList<ParsedNdefRecord>();
+		decodeRecords(records, types, statuses, new RecordConsumer() {
+			@Override
+			public void onRecord(ParsedNdefRecord record) {
+				elements.add(record);
+			}
+		});
+		return elements;
+	}
+
+	/**
+	 * Decodes the given records one at a time, handing each to consumer as soon as it is decoded. Records that are not
+	 * understood or whose type has no subscribers are skipped.
+	 */
+	static void decodeRecords(NdefRecord[] records, int types, int[] statuses, RecordConsumer consumer) {
+		// Power states of the carrier records that follow a handover select record
+		NfcHandover.Select handoverSelect = null;
+		for (int r = 0; r < records.length; r++) {
+			NdefRecord record = records[r];
+			ParsedNdefRecord parsed = null;
 			try {
-				if (NfcUriRecord.isUri(record)) {
-					elements.add(NfcUriRecord.parse(record));
-				}
-				if (NfcTextRecord.isText(record)) {
-					elements.add(NfcTextRecord.parse(record));
-				}
-				if (NfcSmartPoster.isPoster(record)) {
-					elements.add(NfcSmartPoster.parse(record));
+				if ((types & ContextSubscriptions.URI_RECORD) != 0 && NfcUriRecord.isUri(record)) {
+					parsed = NfcUriRecord.parse(record);
+				} else if ((types & ContextSubscriptions.TEXT_RECORD) != 0 && NfcTextRecord.isText(record)) {
+					parsed = NfcTextRecord.parse(record);
+				} else if ((types & ContextSubscriptions.SMART_POSTER) != 0 && NfcSmartPoster.isPoster(record)) {
+					parsed = NfcSmartPoster.parse(record);
+				} else if ((types & ContextSubscriptions.EXTERNAL_RECORD) != 0
+						&& record.getTnf() == NdefRecord.TNF_EXTERNAL_TYPE) {
+					parsed = ExternalTypeRegistry.getDefault().decode(record);
+				} else if ((types & ContextSubscriptions.HANDOVER) != 0) {
+					if (NfcHandover.isHandoverSelect(record))
+						handoverSelect = NfcHandover.Select.parse(record);
+					else if (NfcHandover.isCarrier(record))
+						parsed = NfcHandover.parse(record, handoverSelect);
 				}
 			} catch (Exception e) {
 			}
+			if (parsed == null)
+				continue;
+			if (statuses != null && parsed instanceof SignedRecord)
+				((SignedRecord) parsed).setSignatureStatus(statuses[r]);
+			consumer.onRecord(parsed);
 		}
-		return elements;
 	}
 
 	public void setPowerScheme(PowerScheme scheme) {
@@ -86,23 +295,48 @@ public class NfcPluginRuntime extends AutoContextPluginRuntime implements NfcLis
 	}
 
 	@Override
-	public void start() {
+	public synchronized void start() {
 		/*
-		 * The Dynamix ContextManager will dispatch NfcEvents when it's enabled, so there's nothing to do.
+		 * The Dynamix ContextManager will dispatch NfcEvents when it's enabled, so we only start our periodic tasks.
 		 */
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		signatureExecutor = Executors.newSingleThreadExecutor();
+		scheduleStatistics();
+		started = true;
+		if (tagSource != null)
+			tagSource.start(tagListener);
 		Log.i(TAG, this + " is Started!");
 	}
 
-	public void stop() {
+	public synchronized void stop() {
 		/*
-		 * The Dynamix ContextManager will not dispatch NfcEvents when it's disabled, so there's nothing to do.
+		 * The Dynamix ContextManager will not dispatch NfcEvents when it's disabled, so we only stop our periodic tasks
+		 * and suspend the tag source, which is resumed on start.
 		 */
+		started = false;
+		if (tagSource != null)
+			tagSource.stop();
+		presenceTracker.stop();
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+			statisticsTask = null;
+		}
+		if (signatureExecutor != null) {
+			signatureExecutor.shutdownNow();
+			signatureExecutor = null;
+		}
+		trace.dumpToLog();
 		Log.i(TAG, this + " is Stopped!");
 	}
 
 	public void destroy() {
 		// Remove our Nfc listener
 		getPluginFacade().removeNfcListener(this.getSessionId(), this);
+		setTagSource(null);
+		// Stop card emulation
+		NdefTagEmulator.getDefault().setListener(null);
+		NdefTagEmulator.getDefault().setMessage(null);
 		Log.i(TAG, this + " is Destroyed!");
 	}
 
@@ -115,6 +349,8 @@ public class NfcPluginRuntime extends AutoContextPluginRuntime implements NfcLis
 		NfcManager mgr = (NfcManager) c.getSystemService(Context.NFC_SERVICE);
 		if (mgr == null)
 			throw new RuntimeException("No NFC Hardware Detected!");
+		applySettings(settings);
+		NdefTagEmulator.getDefault().setListener(emulationListener);
 		// Register for Nfc Events using Dynamix
 		getPluginFacade().addNfcListener(this.getSessionId(), this);
 		Log.i(TAG, "Initialized for: " + this);
@@ -122,63 +358,490 @@ public class NfcPluginRuntime extends AutoContextPluginRuntime implements NfcLis
 
 	@Override
 	public void updateSettings(ContextPluginSettings settings) {
-		// Not supported
+		applySettings(settings);
+	}
+
+	private void applySettings(ContextPluginSettings settings) {
+		trace.configure(settings);
+		subscriptions = ContextSubscriptions.fromSettings(settings);
+		// Load decoders for external type records
+		ExternalTypeRegistry.getDefault().configure(settings);
+		uidGate.configure(settings);
+		signatureVerifier.configure(settings);
+		presenceTracker.configure(settings);
+		deltaTracker.configure(settings);
+		textIndex.configure(settings);
+		// Maps the store on init, and a newly installed file on settings updates
+		uidMetadata.configure(settings);
+		readerModeFlags = ReaderModeTagSource.flagsFromSettings(settings);
+		readerModePresenceDelayMillis = ReaderModeTagSource.presenceDelayFromSettings(settings);
+		String source = settings != null ? settings.get(TAG_SOURCE_SETTINGS_KEY) : null;
+		readerModeSelected = source != null && source.trim().equalsIgnoreCase("reader_mode");
+		selectTagSource();
+		// Message served by NdefEmulationService, if the hosting app declares it
+		NdefTagEmulator.getDefault().configure(settings);
+		isoDepDeadlineMillis = ApduScript.deadlineFromSettings(settings);
+		try {
+			apduScripts = ApduScript.fromSettings(settings);
+		} catch (IllegalArgumentException e) {
+			Log.w(TAG, "Ignoring ISO-DEP scripts: " + e.getMessage());
+			apduScripts = Collections.emptyList();
+		}
+		String networkKey = settings != null ? settings.get(HANDOVER_NETWORK_KEY_SETTINGS_KEY) : null;
+		handoverNetworkKey = networkKey != null && Boolean.parseBoolean(networkKey.trim());
+		String mode = settings != null ? settings.get(EMISSION_MODE_SETTINGS_KEY) : null;
+		if (mode != null)
+			progressiveEmission = mode.trim().equalsIgnoreCase("progressive");
+		String interval = settings != null ? settings.get(STATISTICS_INTERVAL_SETTINGS_KEY) : null;
+		if (interval != null) {
+			try {
+				statisticsIntervalMillis = Integer.parseInt(interval.trim());
+			} catch (NumberFormatException e) {
+				Log.w(TAG, "Ignoring tap statistics interval: " + interval);
+			}
+			synchronized (this) {
+				scheduleStatistics();
+			}
+		}
+	}
+
+	/**
+	 * (Re)schedules the tap statistics events, if started.
+	 */
+	private void scheduleStatistics() {
+		if (statisticsTask != null)
+			statisticsTask.cancel(false);
+		statisticsTask = null;
+		int interval = statisticsIntervalMillis;
+		if (scheduler == null || interval <= 0)
+			return;
+		statisticsTask = scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				if ((subscriptions & ContextSubscriptions.TAP_STATISTICS) != 0) {
+					NfcTapStatistics statistics = analytics.summarize(System.currentTimeMillis());
+					statistics.setGateCounts(uidGate.getPassedCount(), uidGate.getDroppedCount(),
+							uidGate.getFalsePositiveCount());
+					sendEvent(statistics, statisticsIntervalMillis);
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
 	}
 
 	@Override
-	public void doManualContextScan() {
-		// Not supported
+	public void handleContextRequest(UUID requestId, String contextType) {
+		// Events are only sent on taps, and a tap query needs its terms
+		Log.w(TAG, "Ignoring context request without configuration for " + contextType);
+	}
+
+	/**
+	 * Answers queries over the recent taps, of the {@link #TAP_QUERY_CONTEXT_TYPE}, with their terms under
+	 * {@link #QUERY_TEXT_KEY}, {@link #QUERY_HOST_KEY} and {@link #QUERY_PATH_KEY}. The result lists the taps that
+	 * match all given terms, and is empty unless the text index is enabled, see {@link TapTextIndex}.
+	 */
+	@Override
+	public void handleConfiguredContextRequest(UUID requestId, String contextType, Bundle config) {
+		if (!TAP_QUERY_CONTEXT_TYPE.equals(contextType)) {
+			Log.w(TAG, "Ignoring context request for " + contextType);
+			return;
+		}
+		String text = config != null ? config.getString(QUERY_TEXT_KEY) : null;
+		String host = config != null ? config.getString(QUERY_HOST_KEY) : null;
+		String path = config != null ? config.getString(QUERY_PATH_KEY) : null;
+		sendResponse(requestId, textIndex.query(text, host, path, System.currentTimeMillis()), 60000);
+	}
+
+	/**
+	 * Returns the trace of recent taps, e.g. for incident analysis.
+	 */
+	NfcTrace getTrace() {
+		return trace;
+	}
+
+	/**
+	 * Takes tags from the given source, in addition to the NFC intents relayed by Dynamix, replacing and stopping the
+	 * previous source. null stops the current source. The source is started now if the runtime is started, or else on
+	 * {@link #start()}, and is suspended while the runtime is stopped.
+	 */
+	synchronized void setTagSource(TagSource source) {
+		if (tagSource != null && started)
+			tagSource.stop();
+		tagSource = source;
+		if (source != null && started)
+			source.start(tagListener);
+	}
+
+	/**
+	 * Notes that the given activity is in the foreground showing the interaction view, enabling reader mode for it if
+	 * selected, see {@link #TAG_SOURCE_SETTINGS_KEY}.
+	 */
+	synchronized void attachActivity(Activity activity) {
+		this.activity = activity;
+		selectTagSource();
+	}
+
+	/**
+	 * Notes that the given activity no longer shows the interaction view, disabling reader mode for it.
+	 */
+	synchronized void detachActivity(Activity activity) {
+		if (this.activity != activity)
+			return;
+		this.activity = null;
+		selectTagSource();
+	}
+
+	/**
+	 * Uses reader mode as tag source if it is selected and an activity is attached, with the current reader mode
+	 * settings, or else stops reader mode. Other sources, e.g. of NfcLoadGenerator, are left alone.
+	 */
+	private synchronized void selectTagSource() {
+		if (readerModeSelected && activity != null) {
+			try {
+				setTagSource(new ReaderModeTagSource(activity, readerModeFlags, readerModePresenceDelayMillis));
+			} catch (IllegalStateException e) {
+				Log.w(TAG, "Reader mode unavailable: " + e.getMessage());
+			}
+		} else if (tagSource instanceof ReaderModeTagSource) {
+			setTagSource(null);
+		}
+	}
+
+	/**
+	 * Returns the recent tap index behind the {@link #TAP_QUERY_CONTEXT_TYPE} requests.
+	 */
+	TapTextIndex getTextIndex() {
+		return textIndex;
+	}
+
+	/**
+	 * Returns the UID allow/deny gate, whose list may also be replaced directly, e.g. by a provisioning job.
+	 */
+	UidGate getUidGate() {
+		return uidGate;
+	}
+
+	/**
+	 * Replaces the set of subscribed context types. Record types without subscribers are neither decoded nor sent.
+	 */
+	public void setSubscribedContextTypes(Collection<String> contextTypes) {
+		subscriptions = ContextSubscriptions.fromContextTypes(contextTypes);
+	}
+
+	/**
+	 * Redirects this runtime's context events to the given sink, or back to Dynamix if sink is null.
+	 */
+	void setEventSink(ContextEventSink sink) {
+		this.eventSink = sink;
+	}
+
+	private void sendEvent(IContextInfo event, int expireMills) {
+		ContextEventSink sink = eventSink;
+		if (sink != null)
+			sink.onContextEvent(event, expireMills);
+		else
+			sendContextEvent(new SecuredContextInfo(event, privacyRiskLevel(event)), expireMills);
+	}
+
+	/**
+	 * Sends the answer to a context request, to the event sink if there is one.
+	 */
+	private void sendResponse(UUID requestId, IContextInfo event, int expireMills) {
+		ContextEventSink sink = eventSink;
+		if (sink != null)
+			sink.onContextEvent(event, expireMills);
+		else
+			sendContextEvent(requestId, new SecuredContextInfo(event, privacyRiskLevel(event)), expireMills);
+	}
+
+	/**
+	 * Returns the privacy risk level of an event: high for handover events carrying a network key, medium otherwise.
+	 */
+	static PrivacyRiskLevel privacyRiskLevel(IContextInfo event) {
+		if (event instanceof NfcHandover && ((NfcHandover) event).getNetworkKey() != null)
+			return PrivacyRiskLevel.HIGH;
+		return PrivacyRiskLevel.MEDIUM;
 	}
 
 	@Override
 	public void onNfcEvent(Intent i) {
+		long startNanos = System.nanoTime();
+		// Read once, so that a tap is handled against a single subscription set
+		int subscribed = subscriptions;
+		int types = tapTypes(subscribed);
+		if (types == ContextSubscriptions.NONE)
+			return;
 		Tag tag = i.getParcelableExtra(NfcAdapter.EXTRA_TAG);
-		if (tag != null) {
-			byte[] uidBytes = i.getByteArrayExtra(NfcAdapter.EXTRA_ID);
-			Log.d(TAG, "Received NFC Tag with UID: " + NfcTag.byteArrayToHexString(uidBytes));
-			sendContextEvent(new SecuredContextInfo(new NfcTag(tag), PrivacyRiskLevel.MEDIUM), 60000);
-		}
-		Log.d(TAG, "Checking for NDEF messages... ");
-		Parcelable[] rawMsgs = i.getParcelableArrayExtra(NfcAdapter.EXTRA_NDEF_MESSAGES);
-		NdefMessage[] msgs;
-		if (rawMsgs != null) {
-			// Known tag type
-			msgs = new NdefMessage[rawMsgs.length];
-			for (int r = 0; r < rawMsgs.length; r++) {
-				msgs[r] = (NdefMessage) rawMsgs[r];
+		// Unpacking the NDEF extras is skipped when nothing subscribed uses them, e.g. for tag only subscriptions
+		Parcelable[] messages = null;
+		if ((types & ContextSubscriptions.NDEF_RECORDS) != 0)
+			messages = i.getParcelableArrayExtra(NfcAdapter.EXTRA_NDEF_MESSAGES);
+		handleTap(types, subscribed, tag, i.getByteArrayExtra(NfcAdapter.EXTRA_ID), messages, startNanos);
+	}
+
+	/**
+	 * Returns the types a tap works on: the subscribed ones, and the records the text index takes whether or not they
+	 * are subscribed.
+	 */
+	private int tapTypes(int subscribed) {
+		return textIndex.isEnabled() ? subscribed | ContextSubscriptions.INDEXED_RECORDS : subscribed;
+	}
+
+	/**
+	 * Handles a tag delivered by a {@link TagSource}. The NDEF message is the one the platform read during discovery,
+	 * if any, so no tag I/O is added.
+	 */
+	private void handleTag(Tag tag) {
+		long startNanos = System.nanoTime();
+		int subscribed = subscriptions;
+		int types = tapTypes(subscribed);
+		if (types == ContextSubscriptions.NONE)
+			return;
+		Parcelable[] messages = null;
+		Ndef ndef = (types & ContextSubscriptions.NDEF_RECORDS) != 0 ? Ndef.get(tag) : null;
+		if (ndef != null) {
+			NdefMessage message = ndef.getCachedNdefMessage();
+			if (message != null)
+				messages = new NdefMessage[] { message };
+		}
+		handleTap(types, subscribed, tag, tag.getId(), messages, startNanos);
+	}
+
+	/**
+	 * Runs the tap pipeline for the given types (see {@link #tapTypes(int)}), one tap at a time, sending events of the
+	 * subscribed ones. tag and uid may be null for intents without them, messages is null if the tag has no NDEF data
+	 * or no type uses it.
+	 */
+	private void handleTap(int types, int subscribed, Tag tag, byte[] uid, Parcelable[] messages, long startNanos) {
+		synchronized (tapLock) {
+			processTap(types, subscribed, tag, uid, messages, startNanos);
+		}
+	}
+
+	private void processTap(int types, int subscribed, Tag tag, byte[] uid, Parcelable[] messages,
+			long startNanos) {
+		// Gate before any parsing, so that taps of unwanted tags cost next to nothing
+		if (!uidGate.admit(uid)) {
+			if (trace.isEnabled(Log.DEBUG))
+				trace.record(Log.DEBUG, NfcTrace.GATE_DROPPED, uid != null ? NfcTag.packUid(uid) : 0,
+						uid != null ? uid.length : 0);
+			return;
+		}
+		boolean tracking = tag != null && presenceTracker.isEnabled();
+		int expireMillis = tracking ? presenceTracker.expiryMillis() : 60000;
+		Tap tap = new Tap(tapSequence.incrementAndGet(), uid, startNanos, expireMillis, subscribed);
+		boolean progressive = progressiveEmission;
+		boolean sendTag = tag != null && (types & ContextSubscriptions.TAG) != 0;
+		if (sendTag && progressive)
+			tap.send(tagEvent(tag, uid), NfcTrace.KIND_TAG, 0);
+		if (trace.isEnabled(Log.INFO))
+			trace.recordTap(Log.INFO, uid);
+		if (uid != null && (types & ContextSubscriptions.TAP_STATISTICS) != 0)
+			analytics.recordTap(uid, System.currentTimeMillis());
+		if (sendTag && !progressive)
+			tap.send(tagEvent(tag, uid), NfcTrace.KIND_TAG, 0);
+		if ((types & ContextSubscriptions.NDEF_RECORDS) != 0)
+			processNdefMessages(messages, uid, types, tap, progressive);
+		if (tag != null && (types & ContextSubscriptions.ISO_DEP_RESPONSE) != 0)
+			readIsoDep(tag, tap);
+		if (tag != null && (types & ContextSubscriptions.RAW_MEMORY) != 0)
+			readRawMemory(tag, tap);
+		// Last, as the tracker keeps the tag connected
+		ScheduledExecutorService presenceScheduler = scheduler;
+		if (tracking && presenceScheduler != null)
+			presenceTracker.track(presenceScheduler, tag, uid, tap.sequence, startNanos, presenceListener);
+	}
+
+	/**
+	 * Creates the tag event, with the tag's metadata from the UID metadata store if it has any.
+	 */
+	private NfcTag tagEvent(Tag tag, byte[] uid) {
+		NfcTag event = new NfcTag(tag);
+		UidMetadataStore.Entry metadata = uidMetadata.lookup(uid);
+		if (metadata != null)
+			event.setMetadata(metadata);
+		return event;
+	}
+
+	/**
+	 * Returns the UID metadata store, e.g. to install a newly built store file.
+	 */
+	UidMetadataStore getUidMetadata() {
+		return uidMetadata;
+	}
+
+	/**
+	 * Dumps the memory of Type 2 tags that are not NDEF formatted. The tag's technologies are checked rather than the
+	 * NDEF messages, which are missing in reader mode when the platform's NDEF check is skipped.
+	 */
+	private void readRawMemory(Tag tag, Tap tap) {
+		if (Ndef.get(tag) != null)
+			return;
+		NfcA nfcA = NfcA.get(tag);
+		MifareUltralight ultralight = MifareUltralight.get(tag);
+		// MIFARE Ultralight family tags answer with SAK 0
+		if (nfcA == null || (ultralight == null && nfcA.getSak() != 0))
+			return;
+		int fallbackPages = UltralightMemoryReader.DEFAULT_PAGES;
+		if (ultralight != null && ultralight.getType() == MifareUltralight.TYPE_ULTRALIGHT_C)
+			fallbackPages = UltralightMemoryReader.ULTRALIGHT_C_PAGES;
+		try {
+			tap.send(memoryReader.read(new NfcTransceiver.NfcATransceiver(nfcA), fallbackPages),
+					NfcTrace.KIND_RAW_MEMORY, 0);
+		} catch (IOException e) {
+			Log.w(TAG, "Raw memory read failed: " + e);
+		}
+	}
+
+	/**
+	 * Runs the configured APDU scripts if the tag is an ISO-DEP card.
+	 */
+	private void readIsoDep(Tag tag, Tap tap) {
+		List<ApduScript> scripts = apduScripts;
+		if (scripts.isEmpty())
+			return;
+		IsoDep isoDep = IsoDep.get(tag);
+		if (isoDep == null)
+			return;
+		NfcTransceiver.IsoDepTransceiver transceiver = new NfcTransceiver.IsoDepTransceiver(isoDep);
+		try {
+			List<NfcIsoDepResponse> responses = isoDepReader.run(transceiver,
+					transceiver.isExtendedLengthApduSupported(), scripts, isoDepDeadlineMillis);
+			for (int r = 0; r < responses.size(); r++)
+				tap.send(responses.get(r), NfcTrace.KIND_ISO_DEP, r);
+		} catch (IOException e) {
+			Log.w(TAG, "ISO-DEP read failed: " + e);
+		}
+	}
+
+	private void processNdefMessages(Parcelable[] rawMsgs, byte[] uid, int types, Tap tap, boolean progressive) {
+		if (rawMsgs == null) {
+			// Unknown tag type, see readRawMemory
+			if (trace.isEnabled(Log.INFO))
+				trace.record(Log.INFO, NfcTrace.NDEF_MESSAGES, 0, 0);
+			return;
+		}
+		if (trace.isEnabled(Log.INFO))
+			trace.record(Log.INFO, NfcTrace.NDEF_MESSAGES, rawMsgs.length, 0);
+		int deltaMode = uid != null ? deltaTracker.getMode() : NdefDeltaTracker.MODE_OFF;
+		NfcNdefDelta delta = null;
+		if (deltaMode != NdefDeltaTracker.MODE_OFF) {
+			delta = deltaTracker.update(uid, allRecords(rawMsgs));
+			if (delta != null && (types & ContextSubscriptions.NDEF_DELTA) != 0)
+				tap.send(delta, NfcTrace.KIND_DELTA, 0);
+			// Nothing to send for a tag that has not been rewritten
+			if (delta == null && deltaMode == NdefDeltaTracker.MODE_INSTEAD)
+				return;
+		}
+		int offset = 0;
+		for (Parcelable rawMsg : rawMsgs) {
+			NdefRecord[] ndefRecords = ((NdefMessage) rawMsg).getRecords();
+			int[] statuses = null;
+			if (signatureVerifier.isEnabled()) {
+				ExecutorService executor = signatureVerifier.isAsync() ? signatureExecutor : null;
+				statuses = signatureVerifier.verify(ndefRecords, executor, tap);
 			}
-		} else {
-			// Unknown tag type
-			byte[] empty = new byte[] {};
-			NdefRecord record = new NdefRecord(NdefRecord.TNF_UNKNOWN, empty, empty, empty);
-			NdefMessage msg = new NdefMessage(new NdefRecord[] { record });
-			msgs = new NdefMessage[] { msg };
-		}
-		Log.i(TAG, "Extracted NdefMessage count: " + msgs.length);
-		for (NdefMessage msg : msgs) {
-			Iterable<ParsedNdefRecord> records = getRecords(msg.getRecords());
-			for (ParsedNdefRecord record : records) {
-				IContextInfo event = null;
-				if (record.getClass().equals(NfcUriRecord.class)) {
-					NfcUriRecord r = (NfcUriRecord) record;
-					Log.i(TAG, "Detected NfcUriRecord: " + r.getUri());
-					event = r;
+			if (deltaMode == NdefDeltaTracker.MODE_INSTEAD) {
+				// Only added and changed records, after verification, which needs the whole message
+				int length = ndefRecords.length;
+				NdefRecord[] changed = new NdefRecord[length];
+				int[] changedStatuses = statuses != null ? new int[length] : null;
+				int kept = 0;
+				for (int r = 0; r < length; r++) {
+					// Handover carriers refer to the select record before them
+					if (!delta.isChanged(offset + r) && !NfcHandover.isHandoverSelect(ndefRecords[r]))
+						continue;
+					if (statuses != null)
+						changedStatuses[kept] = statuses[r];
+					changed[kept++] = ndefRecords[r];
 				}
-				if (record.getClass().equals(NfcTextRecord.class)) {
-					NfcTextRecord r = (NfcTextRecord) record;
-					Log.i(TAG, "Detected NfcTextRecord: " + r.getText());
-					event = r;
-				}
-				if (record.getClass().equals(NfcSmartPoster.class)) {
-					NfcSmartPoster r = (NfcSmartPoster) record;
-					Log.i(TAG, "Detected NfcSmartPoster: " + r.getTitle());
-					event = r;
-				}
-				if (event != null) {
-					sendContextEvent(new SecuredContextInfo(event, PrivacyRiskLevel.MEDIUM), 60000);
-				} else
-					Log.d(TAG, "No NDEF messages found!");
+				offset += length;
+				ndefRecords = Arrays.copyOf(changed, kept);
+				statuses = changedStatuses;
+			}
+			if (progressive) {
+				decodeRecords(ndefRecords, types, statuses, tap);
+			} else {
+				for (ParsedNdefRecord record : getRecords(ndefRecords, types, statuses))
+					tap.onRecord(record);
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Adds the text and URIs of a decoded record to the text index.
+	 */
+	private void indexRecord(Tap tap, ParsedNdefRecord record) {
+		long now = System.currentTimeMillis();
+		INfcTextRecord text = null;
+		INfcUriRecord uri = null;
+		if (record instanceof NfcTextRecord) {
+			text = (NfcTextRecord) record;
+		} else if (record instanceof NfcUriRecord) {
+			uri = (NfcUriRecord) record;
+		} else if (record instanceof NfcSmartPoster) {
+			text = ((NfcSmartPoster) record).getTitle();
+			uri = ((NfcSmartPoster) record).getNfcUriRecord();
+		}
+		if (text != null && text.getText() != null)
+			textIndex.addText(tap.sequence, tap.uid, now, text.getText());
+		if (uri != null && uri.getUri() != null)
+			textIndex.addUri(tap.sequence, tap.uid, now, uri.getUri().getHost(), uri.getUri().getPathSegments());
+	}
+
+	/**
+	 * Returns the records of all messages, in order.
+	 */
+	private static NdefRecord[] allRecords(Parcelable[] rawMsgs) {
+		if (rawMsgs.length == 1)
+			return ((NdefMessage) rawMsgs[0]).getRecords();
+		List<NdefRecord> records = new ArrayList<NdefRecord>();
+		for (Parcelable rawMsg : rawMsgs)
+			records.addAll(Arrays.asList(((NdefMessage) rawMsg).getRecords()));
+		return records.toArray(new NdefRecord[records.size()]);
+	}
+
+	/**
+	 * Indexes a decoded record and sends its event, if it is one and its type is subscribed.
+	 */
+	private void emitRecord(Tap tap, ParsedNdefRecord record, int index) {
+		IContextInfo event = null;
+		int kind = NfcTrace.KIND_OTHER;
+		// Other records are only decoded if subscribed
+		int type = ContextSubscriptions.ALL;
+		if (record.getClass().equals(NfcUriRecord.class)) {
+			kind = NfcTrace.KIND_URI;
+			type = ContextSubscriptions.URI_RECORD;
+			event = (NfcUriRecord) record;
+		}
+		if (record.getClass().equals(NfcTextRecord.class)) {
+			kind = NfcTrace.KIND_TEXT;
+			type = ContextSubscriptions.TEXT_RECORD;
+			event = (NfcTextRecord) record;
+		}
+		if (record.getClass().equals(NfcSmartPoster.class)) {
+			kind = NfcTrace.KIND_SMART_POSTER;
+			type = ContextSubscriptions.SMART_POSTER;
+			event = (NfcSmartPoster) record;
+		}
+		if (record.getClass().equals(NfcHandover.class)) {
+			kind = NfcTrace.KIND_HANDOVER;
+			NfcHandover handover = (NfcHandover) record;
+			if (!handoverNetworkKey)
+				handover.dropNetworkKey();
+			event = handover;
+		}
+		if (event == null && record instanceof IContextInfo) {
+			event = (IContextInfo) record;
+		}
+		if (trace.isEnabled(Log.INFO))
+			trace.record(Log.INFO, NfcTrace.RECORD, kind, index);
+		if (textIndex.isEnabled())
+			indexRecord(tap, record);
+		if ((tap.subscribed & type) == 0)
+			return;
+		if (event != null)
+			tap.send(event, kind, index);
+		else if (trace.isEnabled(Log.DEBUG))
+			trace.record(Log.DEBUG, NfcTrace.NO_EVENT, kind, index);
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ambientdynamix.api.application.IContextInfo;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/*
+ * Raw memory dump of a tag without NDEF data, see UltralightMemoryReader.
+ */
+class NfcRawMemory implements IContextInfo, INfcRawMemory, TapEvent {
+	public static Parcelable.Creator<NfcRawMemory> CREATOR = new Parcelable.Creator<NfcRawMemory>() {
+		public NfcRawMemory createFromParcel(Parcel in) {
+			return new NfcRawMemory(in);
+		}
+
+		public NfcRawMemory[] newArray(int size) {
+			return new NfcRawMemory[size];
+		}
+	};
+	private long tapSequence = -1;
+	private final byte[] memory;
+	private final int pageSize;
+	private final int transceiveCount;
+	private final long elapsedMillis;
+
+	NfcRawMemory(byte[] memory, int pageSize, int transceiveCount, long elapsedMillis) {
+		this.memory = memory;
+		this.pageSize = pageSize;
+		this.transceiveCount = transceiveCount;
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	private NfcRawMemory(final Parcel in) {
+		this.memory = in.createByteArray();
+		this.pageSize = in.readInt();
+		this.transceiveCount = in.readInt();
+		this.elapsedMillis = in.readLong();
+		this.tapSequence = in.readLong();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcRawMemory#getMemory()
+	 */
+	public ByteBuffer getMemory() {
+		return ByteBuffer.wrap(memory).asReadOnlyBuffer();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcRawMemory#getPageSize()
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcRawMemory#getPageCount()
+	 */
+	public int getPageCount() {
+		return memory.length / pageSize;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcRawMemory#getTransceiveCount()
+	 */
+	public int getTransceiveCount() {
+		return transceiveCount;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcRawMemory#getElapsedMillis()
+	 */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcRawMemory#getTapSequence()
+	 */
+	public long getTapSequence() {
+		return tapSequence;
+	}
+
+	public void setTapSequence(long sequence) {
+		this.tapSequence = sequence;
+	}
+
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	@Override
+	public void writeToParcel(Parcel dest, int flags) {
+		dest.writeByteArray(memory);
+		dest.writeInt(pageSize);
+		dest.writeInt(transceiveCount);
+		dest.writeLong(elapsedMillis);
+		dest.writeLong(tapSequence);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcRawMemory#getContextType()
+	 */
+	@Override
+	public String getContextType() {
+		return "org.ambientdynamix.contextplugins.nfc.raw_memory";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcRawMemory#getImplementingClassname()
+	 */
+	@Override
+	public String getImplementingClassname() {
+		return this.getClass().getName();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcRawMemory#getStringRepresentation(java.lang.String)
+	 */
+	@Override
+	public String getStringRepresentation(String format) {
+		if (format.equalsIgnoreCase("text/plain"))
+			return NfcTag.byteArrayToHexString(memory);
+		return "";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcRawMemory#getStringRepresentationFormats()
+	 */
+	@Override
+	public Set<String> getStringRepresentationFormats() {
+		Set<String> formats = new HashSet<String>();
+		formats.add("text/plain");
+		return formats;
+	}
+}
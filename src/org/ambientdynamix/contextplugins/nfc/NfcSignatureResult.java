@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ambientdynamix.api.application.IContextInfo;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/*
+ * Outcome of checking a signature record, see SignatureVerifier. Sent for every signature record, so that the outcome
+ * of a verification that ran off the tap thread reaches the app as well.
+ */
+class NfcSignatureResult implements IContextInfo, INfcSignatureResult, TapEvent {
+	public static Parcelable.Creator<NfcSignatureResult> CREATOR = new Parcelable.Creator<NfcSignatureResult>() {
+		public NfcSignatureResult createFromParcel(Parcel in) {
+			return new NfcSignatureResult(in);
+		}
+
+		public NfcSignatureResult[] newArray(int size) {
+			return new NfcSignatureResult[size];
+		}
+	};
+	private long tapSequence = -1;
+	private final int status;
+	private final int signatureType;
+	private final int firstRecord;
+	private final int recordCount;
+	private final String keyId;
+	private final String contentHash;
+
+	NfcSignatureResult(int status, int signatureType, int firstRecord, int recordCount, String keyId,
+			String contentHash) {
+		this.status = status;
+		this.signatureType = signatureType;
+		this.firstRecord = firstRecord;
+		this.recordCount = recordCount;
+		this.keyId = keyId;
+		this.contentHash = contentHash;
+	}
+
+	private NfcSignatureResult(final Parcel in) {
+		this.status = in.readInt();
+		this.signatureType = in.readInt();
+		this.firstRecord = in.readInt();
+		this.recordCount = in.readInt();
+		this.keyId = in.readString();
+		this.contentHash = in.readString();
+		this.tapSequence = in.readLong();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcSignatureResult#getStatus()
+	 */
+	public String getStatus() {
+		return SignatureVerifier.statusName(status);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcSignatureResult#getSignatureType()
+	 */
+	public int getSignatureType() {
+		return signatureType;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcSignatureResult#getFirstRecord()
+	 */
+	public int getFirstRecord() {
+		return firstRecord;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcSignatureResult#getRecordCount()
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcSignatureResult#getKeyId()
+	 */
+	public String getKeyId() {
+		return keyId;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcSignatureResult#getContentHash()
+	 */
+	public String getContentHash() {
+		return contentHash;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcSignatureResult#getTapSequence()
+	 */
+	public long getTapSequence() {
+		return tapSequence;
+	}
+
+	public void setTapSequence(long sequence) {
+		this.tapSequence = sequence;
+	}
+
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	@Override
+	public void writeToParcel(Parcel dest, int flags) {
+		dest.writeInt(status);
+		dest.writeInt(signatureType);
+		dest.writeInt(firstRecord);
+		dest.writeInt(recordCount);
+		dest.writeString(keyId);
+		dest.writeString(contentHash);
+		dest.writeLong(tapSequence);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcSignatureResult#getContextType()
+	 */
+	@Override
+	public String getContextType() {
+		return "org.ambientdynamix.contextplugins.nfc.signature";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcSignatureResult#getImplementingClassname()
+	 */
+	@Override
+	public String getImplementingClassname() {
+		return this.getClass().getName();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcSignatureResult#getStringRepresentation(java.lang.String)
+	 */
+	@Override
+	public String getStringRepresentation(String format) {
+		if (format.equalsIgnoreCase("text/plain"))
+			return getStatus() + " records=" + firstRecord + ".." + (firstRecord + recordCount - 1)
+					+ (keyId != null ? " key=" + keyId : "");
+		return "";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcSignatureResult#getStringRepresentationFormats()
+	 */
+	@Override
+	public Set<String> getStringRepresentationFormats() {
+		Set<String> formats = new HashSet<String>();
+		formats.add("text/plain");
+		return formats;
+	}
+}
@@ -35,7 +35,7 @@ import android.os.Parcelable;
 /*
  * Adapted from http://developer.android.com/resources/samples/NFCDemo/src/com/example/android/nfc/record/SmartPoster.html
  */
-class NfcSmartPoster implements IContextInfo, ParsedNdefRecord, INfcSmartPoster {
+class NfcSmartPoster implements IContextInfo, ParsedNdefRecord, INfcSmartPoster, SignedRecord, TapEvent {
 	private static final byte[] ACTION_RECORD_TYPE = new byte[] { 'a', 'c', 't' };
 	private static final byte[] TYPE_TYPE = new byte[] { 't' };
 	public static Parcelable.Creator<NfcSmartPoster> CREATOR = new Parcelable.Creator<NfcSmartPoster>() {
@@ -47,6 +47,8 @@ class NfcSmartPoster implements IContextInfo, ParsedNdefRecord, INfcSmartPoster
 			return new NfcSmartPoster[size];
 		}
 	};
+	private long tapSequence = -1;
+	private int signatureStatus = SignatureVerifier.UNSIGNED;
 
 	private enum RecommendedAction {
 		UNKNOWN((byte) -1), DO_ACTION((byte) 0), SAVE_FOR_LATER((byte) 1), OPEN_FOR_EDITING((byte) 2);
@@ -75,7 +77,7 @@ class NfcSmartPoster implements IContextInfo, ParsedNdefRecord, INfcSmartPoster
 	private static <T> T getFirstIfExists(Iterable<?> elements, Class<T> type) {
 		for (Iterator<?> it = elements.iterator(); it.hasNext();) {
 			Object tmp = it.next();
-			if (tmp.getClass().equals(type.getClass()))
+			if (tmp.getClass().equals(type))
 				return (T) tmp;
 		}
 		return null;
@@ -155,7 +157,7 @@ class NfcSmartPoster implements IContextInfo, ParsedNdefRecord, INfcSmartPoster
 	public static NfcSmartPoster parse(NdefRecord record) throws Exception {
 		if (record.getTnf() != NdefRecord.TNF_WELL_KNOWN)
 			throw new Exception();
-		if (record.getType() != NdefRecord.RTD_SMART_POSTER)
+		if (!Arrays.equals(record.getType(), NdefRecord.RTD_SMART_POSTER))
 			throw new Exception();
 		try {
 			NdefMessage subRecords = new NdefMessage(record.getPayload());
@@ -182,13 +184,13 @@ class NfcSmartPoster implements IContextInfo, ParsedNdefRecord, INfcSmartPoster
 		}
 	}
 
+	/**
+	 * Returns true for smart poster records, by their type only: a malformed poster is rejected by
+	 * {@link #parse(NdefRecord)}, rather than being parsed twice.
+	 */
 	public static boolean isPoster(NdefRecord record) {
-		try {
-			parse(record);
-			return true;
-		} catch (Exception e) {
-			return false;
-		}
+		return record.getTnf() == NdefRecord.TNF_WELL_KNOWN
+				&& Arrays.equals(record.getType(), NdefRecord.RTD_SMART_POSTER);
 	}
 
 	private NfcSmartPoster(final Parcel in) {
@@ -197,6 +199,8 @@ class NfcSmartPoster implements IContextInfo, ParsedNdefRecord, INfcSmartPoster
 		this.mType = in.readString();
 		this.recommendedActionByte = in.readByte();
 		this.mAction = RecommendedAction.LOOKUP.get(recommendedActionByte);
+		this.signatureStatus = in.readInt();
+		this.tapSequence = in.readLong();
 	}
 
 	private NfcSmartPoster(NfcUriRecord uri, NfcTextRecord title, RecommendedAction action, String type) {
@@ -207,17 +211,41 @@ class NfcSmartPoster implements IContextInfo, ParsedNdefRecord, INfcSmartPoster
 		mType = type;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcSmartPoster#getTapSequence()
+	 */
+	public long getTapSequence() {
+		return tapSequence;
+	}
+
+	public void setTapSequence(long sequence) {
+		this.tapSequence = sequence;
+	}
+
 	@Override
 	public int describeContents() {
 		return 0;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcSmartPoster#getSignatureStatus()
+	 */
+	public String getSignatureStatus() {
+		return SignatureVerifier.statusName(signatureStatus);
+	}
+
+	public void setSignatureStatus(int status) {
+		this.signatureStatus = status;
+	}
+
 	@Override
 	public void writeToParcel(Parcel dest, int flags) {
 		dest.writeParcelable(this.mTitleRecord, flags);
 		dest.writeParcelable(this.mUriRecord, flags);
 		dest.writeString(this.mType);
 		dest.writeByte(recommendedActionByte);
+		dest.writeInt(signatureStatus);
+		dest.writeLong(tapSequence);
 	}
 
 	/* (non-Javadoc)
@@ -241,6 +269,28 @@ class NfcSmartPoster implements IContextInfo, ParsedNdefRecord, INfcSmartPoster
 	 */
 	@Override
 	public String getStringRepresentation(String format) {
+		String uri = mUriRecord != null ? mUriRecord.getUri().toString() : "";
+		if (format.equalsIgnoreCase("text/plain"))
+			return mTitleRecord != null ? mTitleRecord.getText() + " " + uri : uri;
+		else if (format.equalsIgnoreCase("RDF/XML")) {
+			int length = NfcTag.RDF_HEADER.length() + 400 + 2 * uri.length();
+			if (mTitleRecord != null)
+				length += mTitleRecord.getText().length() + 60;
+			StringBuilder result = new StringBuilder(length);
+			result.append(NfcTag.RDF_HEADER);
+			result.append(" <rdf:Description rdf:about=\"http://dynamix.org/semmodel/org.ambientdynamix.contextplugins.nfc/0.1/").append(uri).append("\">\n");
+			result.append(" <rdf:type>http://dynamix.org/semmodel/0.1/org.ambientdynamix.contextplugins.nfc.smart_poster</rdf:type>\n");
+			result.append("<z.0:hasTagURI>").append(uri).append("</z.0:hasTagURI>\n");
+			if (mTitleRecord != null) {
+				result.append("<z.0:hasText>").append(mTitleRecord.getText()).append("</z.0:hasText>\n");
+				result.append(" <z.0:hasLanguage>").append(mTitleRecord.getLanguageCode())
+						.append("</z.0:hasLanguage>\n");
+			}
+			if (mType != null)
+				result.append("<z.0:hasMimeType>").append(mType).append("</z.0:hasMimeType>\n");
+			result.append("  </rdf:Description>\n </rdf:RDF>");
+			return result.toString();
+		}
 		return "";
 	}
 
@@ -249,6 +299,9 @@ class NfcSmartPoster implements IContextInfo, ParsedNdefRecord, INfcSmartPoster
 	 */
 	@Override
 	public Set<String> getStringRepresentationFormats() {
-		return new HashSet<String>();
+		Set<String> formats = new HashSet<String>();
+		formats.add("text/plain");
+		formats.add("RDF/XML");
+		return formats;
 	}
 }
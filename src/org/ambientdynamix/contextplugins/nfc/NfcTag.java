@@ -37,7 +37,7 @@ import android.os.Parcelable;
  * http://developer.android.com/resources/samples/NFCDemo/src/com/example/android/nfc/NdefMessageParser.html
  * http://developer.android.com/resources/samples/NFCDemo/src/com/example/android/nfc/index.html
  */
-class NfcTag implements IContextInfo, INfcTag {
+class NfcTag implements IContextInfo, INfcTag, TapEvent {
 	public static Parcelable.Creator<NfcTag> CREATOR = new Parcelable.Creator<NfcTag>() {
 		public NfcTag createFromParcel(Parcel in) {
 			return new NfcTag(in);
@@ -47,8 +47,19 @@ class NfcTag implements IContextInfo, INfcTag {
 			return new NfcTag[size];
 		}
 	};
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+	/** Start of the RDF/XML representations of all context types */
+	static final String RDF_HEADER = "<rdf:RDF\n" +
+			"xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"\n" +
+			"xmlns:z.0=\"http://dynamix.org/semmodel/org.ambientdynamix.contextplugins.nfc/0.1/\"\n" +
+			"xmlns:z.1=\"http://dynamix.org/semmodel/0.1/\" > \n";
+	private long tapSequence = -1;
 	// Sample context data
 	private Tag nfcTag;
+	// From the UidMetadataStore, if any
+	private String owner;
+	private String location;
+	private String assetClass;
 
 	/* (non-Javadoc)
 	 * @see org.ambientdynamix.contextplugins.nfc.INfcTag#getNfcTag()
@@ -70,18 +81,24 @@ class NfcTag implements IContextInfo, INfcTag {
 		return this.getClass().getSimpleName();
 	};
 
+	/**
+	 * Packs a tag UID into a long for compact storage and comparison. UIDs of up to 7 bytes (the 4 and 7 byte UIDs of
+	 * ISO 14443-A tags) are packed exactly with their length in the top byte; longer UIDs are folded with a 64-bit
+	 * FNV-1a hash and packed with the sign bit set. See {@link TagUids}.
+	 */
+	public static long packUid(byte[] uid) {
+		return TagUids.pack(uid);
+	}
+
 	public static String byteArrayToHexString(byte[] inarray) {
-		int i, j, in;
-		String[] hex = { "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "A", "B", "C", "D", "E", "F" };
-		String out = "";
-		for (j = 0; j < inarray.length; ++j) {
-			in = (int) inarray[j] & 0xff;
-			i = (in >> 4) & 0x0f;
-			out += hex[i];
-			i = in & 0x0f;
-			out += hex[i];
+		// One char array and the string, rather than a string per digit
+		char[] out = new char[inarray.length * 2];
+		for (int j = 0; j < inarray.length; ++j) {
+			int in = inarray[j] & 0xff;
+			out[2 * j] = HEX_DIGITS[in >>> 4];
+			out[2 * j + 1] = HEX_DIGITS[in & 0x0f];
 		}
-		return out;
+		return new String(out);
 	}
 
 	/* (non-Javadoc)
@@ -103,15 +120,14 @@ class NfcTag implements IContextInfo, INfcTag {
 		}
 		else if(format.equalsIgnoreCase("RDF/XML"))
 		{
-			String result="<rdf:RDF\n" +
-					"xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"\n" +
-					"xmlns:z.0=\"http://dynamix.org/semmodel/org.ambientdynamix.contextplugins.nfc/0.1/\"\n" +
-					"xmlns:z.1=\"http://dynamix.org/semmodel/0.1/\" > \n";
-			result=result+" <rdf:Description rdf:about=\"http://dynamix.org/semmodel/org.ambientdynamix.contextplugins.nfc/0.1/"+getTagIdAsString()+"\">\n";
-			result=result+" <rdf:type>http://dynamix.org/semmodel/0.1/org.ambientdynamix.contextplugins.nfc.tag</rdf:type>\n";
-			result=result+"<z.0:hasTagID>"+getTagIdAsString()+"</z.0:hasTagID>\n";
-			result=result+"  </rdf:Description>\n </rdf:RDF>";
-			return result;
+			String id = getTagIdAsString();
+			StringBuilder result = new StringBuilder(RDF_HEADER.length() + 300 + 2 * id.length());
+			result.append(RDF_HEADER);
+			result.append(" <rdf:Description rdf:about=\"http://dynamix.org/semmodel/org.ambientdynamix.contextplugins.nfc/0.1/").append(id).append("\">\n");
+			result.append(" <rdf:type>http://dynamix.org/semmodel/0.1/org.ambientdynamix.contextplugins.nfc.tag</rdf:type>\n");
+			result.append("<z.0:hasTagID>").append(id).append("</z.0:hasTagID>\n");
+			result.append("  </rdf:Description>\n </rdf:RDF>");
+			return result.toString();
 		}
 		else
 		{
@@ -144,17 +160,63 @@ class NfcTag implements IContextInfo, INfcTag {
 
 	private NfcTag(final Parcel in) {
 		this.nfcTag = in.readParcelable(null);
+		this.tapSequence = in.readLong();
+		this.owner = in.readString();
+		this.location = in.readString();
+		this.assetClass = in.readString();
 	}
 
 	public IBinder asBinder() {
 		return null;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTag#getTapSequence()
+	 */
+	public long getTapSequence() {
+		return tapSequence;
+	}
+
+	public void setTapSequence(long sequence) {
+		this.tapSequence = sequence;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTag#getOwner()
+	 */
+	public String getOwner() {
+		return owner;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTag#getLocation()
+	 */
+	public String getLocation() {
+		return location;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTag#getAssetClass()
+	 */
+	public String getAssetClass() {
+		return assetClass;
+	}
+
+	void setMetadata(UidMetadataStore.Entry entry) {
+		this.owner = entry.owner;
+		this.location = entry.location;
+		this.assetClass = entry.assetClass;
+	}
+
 	public int describeContents() {
 		return 0;
 	}
 
 	public void writeToParcel(Parcel out, int flags) {
 		out.writeParcelable(this.nfcTag, 0);
+		out.writeLong(tapSequence);
+		out.writeString(owner);
+		out.writeString(location);
+		out.writeString(assetClass);
 	}
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ambientdynamix.api.application.IContextInfo;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/*
+ * A tracked tag has left the field, see PresenceTracker.
+ */
+class NfcTagDeparted implements IContextInfo, INfcTagDeparted {
+	public static Parcelable.Creator<NfcTagDeparted> CREATOR = new Parcelable.Creator<NfcTagDeparted>() {
+		public NfcTagDeparted createFromParcel(Parcel in) {
+			return new NfcTagDeparted(in);
+		}
+
+		public NfcTagDeparted[] newArray(int size) {
+			return new NfcTagDeparted[size];
+		}
+	};
+	private final byte[] uid;
+	private final long tapSequence;
+	private final long dwellMillis;
+
+	NfcTagDeparted(byte[] uid, long tapSequence, long dwellMillis) {
+		this.uid = uid != null ? uid : new byte[0];
+		this.tapSequence = tapSequence;
+		this.dwellMillis = dwellMillis;
+	}
+
+	private NfcTagDeparted(final Parcel in) {
+		this.uid = in.createByteArray();
+		this.tapSequence = in.readLong();
+		this.dwellMillis = in.readLong();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTagDeparted#getTagIdAsString()
+	 */
+	public String getTagIdAsString() {
+		return NfcTag.byteArrayToHexString(uid);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTagDeparted#getTapSequence()
+	 */
+	public long getTapSequence() {
+		return tapSequence;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTagDeparted#getDwellMillis()
+	 */
+	public long getDwellMillis() {
+		return dwellMillis;
+	}
+
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	@Override
+	public void writeToParcel(Parcel dest, int flags) {
+		dest.writeByteArray(uid);
+		dest.writeLong(tapSequence);
+		dest.writeLong(dwellMillis);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTagDeparted#getContextType()
+	 */
+	@Override
+	public String getContextType() {
+		return "org.ambientdynamix.contextplugins.nfc.tag_departed";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTagDeparted#getImplementingClassname()
+	 */
+	@Override
+	public String getImplementingClassname() {
+		return this.getClass().getName();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTagDeparted#getStringRepresentation(java.lang.String)
+	 */
+	@Override
+	public String getStringRepresentation(String format) {
+		if (format.equalsIgnoreCase("text/plain"))
+			return getTagIdAsString() + " departed after " + dwellMillis + " ms";
+		return "";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTagDeparted#getStringRepresentationFormats()
+	 */
+	@Override
+	public Set<String> getStringRepresentationFormats() {
+		Set<String> formats = new HashSet<String>();
+		formats.add("text/plain");
+		return formats;
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ambientdynamix.api.application.IContextInfo;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/*
+ * The recent taps matching a query, sent in answer to a context request, see TapTextIndex.
+ */
+class NfcTapQueryResult implements IContextInfo, INfcTapQueryResult {
+	public static Parcelable.Creator<NfcTapQueryResult> CREATOR = new Parcelable.Creator<NfcTapQueryResult>() {
+		public NfcTapQueryResult createFromParcel(Parcel in) {
+			return new NfcTapQueryResult(in);
+		}
+
+		public NfcTapQueryResult[] newArray(int size) {
+			return new NfcTapQueryResult[size];
+		}
+	};
+	private final String text;
+	private final String host;
+	private final String path;
+	private final long[] tapSequences;
+	private final String[] tagIds;
+	private final long[] tapTimes;
+
+	NfcTapQueryResult(String text, String host, String path, long[] tapSequences, String[] tagIds, long[] tapTimes) {
+		this.text = text;
+		this.host = host;
+		this.path = path;
+		this.tapSequences = tapSequences;
+		this.tagIds = tagIds;
+		this.tapTimes = tapTimes;
+	}
+
+	private NfcTapQueryResult(final Parcel in) {
+		this.text = in.readString();
+		this.host = in.readString();
+		this.path = in.readString();
+		this.tapSequences = in.createLongArray();
+		this.tagIds = in.createStringArray();
+		this.tapTimes = in.createLongArray();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapQueryResult#getText()
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapQueryResult#getHost()
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapQueryResult#getPath()
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapQueryResult#getTapSequences()
+	 */
+	public long[] getTapSequences() {
+		return tapSequences.clone();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapQueryResult#getTagIds()
+	 */
+	public String[] getTagIds() {
+		return tagIds.clone();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapQueryResult#getTapTimes()
+	 */
+	public long[] getTapTimes() {
+		return tapTimes.clone();
+	}
+
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	@Override
+	public void writeToParcel(Parcel dest, int flags) {
+		dest.writeString(text);
+		dest.writeString(host);
+		dest.writeString(path);
+		dest.writeLongArray(tapSequences);
+		dest.writeStringArray(tagIds);
+		dest.writeLongArray(tapTimes);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapQueryResult#getContextType()
+	 */
+	@Override
+	public String getContextType() {
+		return "org.ambientdynamix.contextplugins.nfc.tap_query";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapQueryResult#getImplementingClassname()
+	 */
+	@Override
+	public String getImplementingClassname() {
+		return this.getClass().getName();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapQueryResult#getStringRepresentation(java.lang.String)
+	 */
+	@Override
+	public String getStringRepresentation(String format) {
+		if (format.equalsIgnoreCase("text/plain")) {
+			StringBuilder sb = new StringBuilder();
+			sb.append("matches=").append(tapSequences.length);
+			for (int i = 0; i < tapSequences.length; i++)
+				sb.append(' ').append(tapSequences[i]).append('=').append(tagIds[i]).append('@').append(tapTimes[i]);
+			return sb.toString();
+		}
+		return "";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapQueryResult#getStringRepresentationFormats()
+	 */
+	@Override
+	public Set<String> getStringRepresentationFormats() {
+		Set<String> formats = new HashSet<String>();
+		formats.add("text/plain");
+		return formats;
+	}
+}
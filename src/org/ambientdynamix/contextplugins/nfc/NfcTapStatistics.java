@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ambientdynamix.api.application.IContextInfo;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/*
+ * Periodic tap statistics, see TapAnalytics.
+ */
+class NfcTapStatistics implements IContextInfo, INfcTapStatistics {
+	public static Parcelable.Creator<NfcTapStatistics> CREATOR = new Parcelable.Creator<NfcTapStatistics>() {
+		public NfcTapStatistics createFromParcel(Parcel in) {
+			return new NfcTapStatistics(in);
+		}
+
+		public NfcTapStatistics[] newArray(int size) {
+			return new NfcTapStatistics[size];
+		}
+	};
+	private final long timestamp;
+	private final long totalTaps;
+	private final long tapsPerMinute;
+	private final String[] topTagIds;
+	private final long[] topCounts;
+	private long gatePassed;
+	private long gateDropped;
+	private long gateFalsePositives;
+
+	NfcTapStatistics(long timestamp, long totalTaps, long tapsPerMinute, String[] topTagIds, long[] topCounts) {
+		this.timestamp = timestamp;
+		this.totalTaps = totalTaps;
+		this.tapsPerMinute = tapsPerMinute;
+		this.topTagIds = topTagIds;
+		this.topCounts = topCounts;
+	}
+
+	private NfcTapStatistics(final Parcel in) {
+		this.timestamp = in.readLong();
+		this.totalTaps = in.readLong();
+		this.tapsPerMinute = in.readLong();
+		this.topTagIds = in.createStringArray();
+		this.topCounts = in.createLongArray();
+		this.gatePassed = in.readLong();
+		this.gateDropped = in.readLong();
+		this.gateFalsePositives = in.readLong();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapStatistics#getTimestamp()
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapStatistics#getTotalTaps()
+	 */
+	public long getTotalTaps() {
+		return totalTaps;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapStatistics#getTapsPerMinute()
+	 */
+	public long getTapsPerMinute() {
+		return tapsPerMinute;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapStatistics#getTopTagIds()
+	 */
+	public String[] getTopTagIds() {
+		return topTagIds.clone();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapStatistics#getTopCounts()
+	 */
+	public long[] getTopCounts() {
+		return topCounts.clone();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapStatistics#getGatePassedTaps()
+	 */
+	public long getGatePassedTaps() {
+		return gatePassed;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapStatistics#getGateDroppedTaps()
+	 */
+	public long getGateDroppedTaps() {
+		return gateDropped;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapStatistics#getGateFalsePositives()
+	 */
+	public long getGateFalsePositives() {
+		return gateFalsePositives;
+	}
+
+	void setGateCounts(long passed, long dropped, long falsePositives) {
+		this.gatePassed = passed;
+		this.gateDropped = dropped;
+		this.gateFalsePositives = falsePositives;
+	}
+
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	@Override
+	public void writeToParcel(Parcel dest, int flags) {
+		dest.writeLong(timestamp);
+		dest.writeLong(totalTaps);
+		dest.writeLong(tapsPerMinute);
+		dest.writeStringArray(topTagIds);
+		dest.writeLongArray(topCounts);
+		dest.writeLong(gatePassed);
+		dest.writeLong(gateDropped);
+		dest.writeLong(gateFalsePositives);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapStatistics#getContextType()
+	 */
+	@Override
+	public String getContextType() {
+		return "org.ambientdynamix.contextplugins.nfc.tap_statistics";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapStatistics#getImplementingClassname()
+	 */
+	@Override
+	public String getImplementingClassname() {
+		return this.getClass().getName();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapStatistics#getStringRepresentation(java.lang.String)
+	 */
+	@Override
+	public String getStringRepresentation(String format) {
+		if (format.equalsIgnoreCase("text/plain")) {
+			StringBuilder sb = new StringBuilder();
+			sb.append("taps=").append(totalTaps).append(" per_minute=").append(tapsPerMinute);
+			sb.append(" gate_passed=").append(gatePassed).append(" gate_dropped=").append(gateDropped);
+			sb.append(" gate_false_positives=").append(gateFalsePositives);
+			for (int i = 0; i < topTagIds.length; i++)
+				sb.append(' ').append(topTagIds[i]).append('=').append(topCounts[i]);
+			return sb.toString();
+		}
+		return "";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTapStatistics#getStringRepresentationFormats()
+	 */
+	@Override
+	public Set<String> getStringRepresentationFormats() {
+		Set<String> formats = new HashSet<String>();
+		formats.add("text/plain");
+		return formats;
+	}
+}
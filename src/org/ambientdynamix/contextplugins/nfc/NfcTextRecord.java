@@ -15,7 +15,7 @@
  */
 package org.ambientdynamix.contextplugins.nfc;
 
-import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -28,7 +28,7 @@ import android.os.Parcelable;
 /*
  * Adapted from http://developer.android.com/resources/samples/NFCDemo/src/com/example/android/nfc/record/TextRecord.html
  */
-class NfcTextRecord implements IContextInfo, ParsedNdefRecord, INfcTextRecord {
+class NfcTextRecord implements IContextInfo, ParsedNdefRecord, INfcTextRecord, SignedRecord, TapEvent {
 	public static Parcelable.Creator<NfcTextRecord> CREATOR = new Parcelable.Creator<NfcTextRecord>() {
 		public NfcTextRecord createFromParcel(Parcel in) {
 			return new NfcTextRecord(in);
@@ -38,6 +38,8 @@ class NfcTextRecord implements IContextInfo, ParsedNdefRecord, INfcTextRecord {
 			return new NfcTextRecord[size];
 		}
 	};
+	private long tapSequence = -1;
+	private int signatureStatus = SignatureVerifier.UNSIGNED;
 	private String mLanguageCode = "";
 	private String mText = "";
 	private NdefRecord record;
@@ -67,35 +69,20 @@ class NfcTextRecord implements IContextInfo, ParsedNdefRecord, INfcTextRecord {
 	public static NfcTextRecord parse(NdefRecord record) throws Exception {
 		if (record.getTnf() != NdefRecord.TNF_WELL_KNOWN)
 			throw new Exception();
-		if (record.getType() != NdefRecord.RTD_TEXT)
+		if (!Arrays.equals(record.getType(), NdefRecord.RTD_TEXT))
 			throw new Exception();
-		try {
-			byte[] payload = record.getPayload();
-			/*
-			 * payload[0] contains the "Status Byte Encodings" field, per the NFC Forum "Text Record Type Definition"
-			 * section 3.2.1. bit7 is the Text Encoding Field. if (Bit_7 == 0): The text is encoded in UTF-8 if (Bit_7
-			 * == 1): The text is encoded in UTF16 Bit_6 is reserved for future use and must be set to zero. Bits 5 to 0
-			 * are the length of the IANA language code.
-			 */
-			String textEncoding = ((payload[0] & 0200) == 0) ? "UTF-8" : "UTF-16";
-			int languageCodeLength = payload[0] & 0077;
-			String languageCode = new String(payload, 1, languageCodeLength, "US-ASCII");
-			String text = new String(payload, languageCodeLength + 1, payload.length - languageCodeLength - 1,
-					textEncoding);
-			return new NfcTextRecord(record, languageCode, text);
-		} catch (UnsupportedEncodingException e) {
-			// should never happen unless we get a malformed tag.
-			throw new IllegalArgumentException(e);
-		}
+		byte[] payload = record.getPayload();
+		String languageCode = NdefPayloads.decodeTextLanguage(payload, 0, payload.length);
+		String text = NdefPayloads.decodeText(payload, 0, payload.length);
+		return new NfcTextRecord(record, languageCode, text);
 	}
 
+	/**
+	 * Returns true for text records, by their TNF and type only: a malformed record is rejected by
+	 * {@link #parse(NdefRecord)}, rather than being parsed twice.
+	 */
 	public static boolean isText(NdefRecord record) {
-		try {
-			parse(record);
-			return true;
-		} catch (Exception e) {
-			return false;
-		}
+		return record.getTnf() == NdefRecord.TNF_WELL_KNOWN && Arrays.equals(record.getType(), NdefRecord.RTD_TEXT);
 	}
 
 	private NfcTextRecord(NdefRecord record, String languageCode, String text) {
@@ -108,6 +95,19 @@ class NfcTextRecord implements IContextInfo, ParsedNdefRecord, INfcTextRecord {
 		this.record = in.readParcelable(null);
 		this.mLanguageCode = in.readString();
 		this.mText = in.readString();
+		this.signatureStatus = in.readInt();
+		this.tapSequence = in.readLong();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTextRecord#getTapSequence()
+	 */
+	public long getTapSequence() {
+		return tapSequence;
+	}
+
+	public void setTapSequence(long sequence) {
+		this.tapSequence = sequence;
 	}
 
 	@Override
@@ -115,11 +115,24 @@ class NfcTextRecord implements IContextInfo, ParsedNdefRecord, INfcTextRecord {
 		return 0;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcTextRecord#getSignatureStatus()
+	 */
+	public String getSignatureStatus() {
+		return SignatureVerifier.statusName(signatureStatus);
+	}
+
+	public void setSignatureStatus(int status) {
+		this.signatureStatus = status;
+	}
+
 	@Override
 	public void writeToParcel(Parcel dest, int flags) {
 		dest.writeParcelable(this.record, flags);
 		dest.writeString(this.mLanguageCode);
 		dest.writeString(this.mText);
+		dest.writeInt(signatureStatus);
+		dest.writeLong(tapSequence);
 	}
 
 	/* (non-Javadoc)
@@ -150,16 +163,15 @@ class NfcTextRecord implements IContextInfo, ParsedNdefRecord, INfcTextRecord {
 		}
 		else if(format.equalsIgnoreCase("RDF/XML"))
 		{
-			String result="<rdf:RDF\n" +
-					"xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"\n" +
-					"xmlns:z.0=\"http://dynamix.org/semmodel/org.ambientdynamix.contextplugins.nfc/0.1/\"\n" +
-					"xmlns:z.1=\"http://dynamix.org/semmodel/0.1/\" > \n";
-			result=result+" <rdf:Description rdf:about=\"http://dynamix.org/semmodel/org.ambientdynamix.contextplugins.nfc/0.1/"+mText+"\">\n";
-			result=result+" <rdf:type>http://dynamix.org/semmodel/0.1/org.ambientdynamix.contextplugins.nfc.text_record</rdf:type>\n";
-			result=result+"<z.0:hasText>"+mText+"</z.0:hasText>\n" +
-					" <z.0:hasLanguage>"+mLanguageCode+"</z.0:hasLanguage>\n";
-			result=result+"  </rdf:Description>\n </rdf:RDF>";
-			return result;
+			StringBuilder result = new StringBuilder(NfcTag.RDF_HEADER.length() + 360 + 2 * mText.length()
+					+ mLanguageCode.length());
+			result.append(NfcTag.RDF_HEADER);
+			result.append(" <rdf:Description rdf:about=\"http://dynamix.org/semmodel/org.ambientdynamix.contextplugins.nfc/0.1/").append(mText).append("\">\n");
+			result.append(" <rdf:type>http://dynamix.org/semmodel/0.1/org.ambientdynamix.contextplugins.nfc.text_record</rdf:type>\n");
+			result.append("<z.0:hasText>").append(mText).append("</z.0:hasText>\n");
+			result.append(" <z.0:hasLanguage>").append(mLanguageCode).append("</z.0:hasLanguage>\n");
+			result.append("  </rdf:Description>\n </rdf:RDF>");
+			return result.toString();
 		}
 			return "";
 	}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+
+import android.util.Log;
+
+/**
+ * Structured trace of the tap path. Events are stored as primitive fields in a fixed-size ring buffer and are only
+ * formatted when the buffer is dumped, so tracing costs a few array writes per event and never allocates. Callers check
+ * {@link #isEnabled(int)} before computing any arguments. Levels use the {@link Log} priorities; the level is set with
+ * the {@link #SETTINGS_KEY} setting ("verbose", "debug", "info", "warn", "error" or "off") and defaults to info.
+ * Writers may race with each other and with a dump; at worst a dump shows a partially overwritten entry.
+ */
+class NfcTrace {
+	public static final String SETTINGS_KEY = "trace_level";
+	public static final int OFF = Integer.MAX_VALUE;
+	// Event codes
+	public static final int TAP = 0;
+	public static final int NDEF_MESSAGES = 1;
+	public static final int RECORD = 2;
+	public static final int EVENT_SENT = 3;
+	public static final int NO_EVENT = 4;
+	/** A tap dropped by the {@link UidGate}, with the same arguments as TAP */
+	public static final int GATE_DROPPED = 5;
+	/** The first event of a tap was sent, with the microseconds since the tap and the tap sequence number */
+	public static final int FIRST_EVENT = 6;
+	private static final String[] EVENT_NAMES = new String[] { "TAP", "NDEF_MESSAGES", "RECORD", "EVENT_SENT",
+			"NO_EVENT", "GATE_DROPPED", "FIRST_EVENT" };
+	// Record kinds, used as arguments of RECORD and EVENT_SENT
+	public static final int KIND_TAG = 0;
+	public static final int KIND_URI = 1;
+	public static final int KIND_TEXT = 2;
+	public static final int KIND_SMART_POSTER = 3;
+	public static final int KIND_OTHER = 4;
+	public static final int KIND_ISO_DEP = 5;
+	public static final int KIND_RAW_MEMORY = 6;
+	public static final int KIND_HANDOVER = 7;
+	public static final int KIND_DELTA = 8;
+	private static final String[] KIND_NAMES = new String[] { "tag", "uri", "text", "smart_poster", "other",
+			"isodep", "raw_memory", "handover", "delta" };
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	private final String tag;
+	private final int mask;
+	private final long[] times;
+	private final int[] events;
+	private final long[] args1;
+	private final long[] args2;
+	private final AtomicLong next = new AtomicLong();
+	private volatile int level = Log.INFO;
+
+	/**
+	 * Creates a trace holding the last capacity events (rounded up to a power of two), logging under the given tag.
+	 */
+	NfcTrace(String tag, int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+		this.tag = tag;
+		this.mask = size - 1;
+		this.times = new long[size];
+		this.events = new int[size];
+		this.args1 = new long[size];
+		this.args2 = new long[size];
+	}
+
+	/**
+	 * Returns true if events at the given level are recorded.
+	 */
+	public boolean isEnabled(int priority) {
+		return priority >= level;
+	}
+
+	public void setLevel(int priority) {
+		this.level = priority;
+	}
+
+	/**
+	 * Applies the {@link #SETTINGS_KEY} setting, if present.
+	 */
+	public void configure(ContextPluginSettings settings) {
+		String value = settings != null ? settings.get(SETTINGS_KEY) : null;
+		if (value == null)
+			return;
+		value = value.trim().toLowerCase();
+		if (value.equals("verbose"))
+			setLevel(Log.VERBOSE);
+		else if (value.equals("debug"))
+			setLevel(Log.DEBUG);
+		else if (value.equals("info"))
+			setLevel(Log.INFO);
+		else if (value.equals("warn"))
+			setLevel(Log.WARN);
+		else if (value.equals("error"))
+			setLevel(Log.ERROR);
+		else if (value.equals("off"))
+			setLevel(OFF);
+		else
+			Log.w(tag, "Unknown trace level: " + value);
+	}
+
+	/**
+	 * Records an event. Callers should check {@link #isEnabled(int)} first.
+	 */
+	public void record(int priority, int event, long arg1, long arg2) {
+		if (priority < level)
+			return;
+		int i = (int) (next.getAndIncrement() & mask);
+		times[i] = System.currentTimeMillis();
+		events[i] = (priority << 16) | event;
+		args1[i] = arg1;
+		args2[i] = arg2;
+	}
+
+	/**
+	 * Records a tap on the tag with the given UID bytes (which may be null).
+	 */
+	public void recordTap(int priority, byte[] uid) {
+		if (priority < level)
+			return;
+		record(priority, TAP, uid != null ? TagUids.pack(uid) : 0, uid != null ? uid.length : 0);
+	}
+
+	/**
+	 * Formats the buffered events, oldest first.
+	 */
+	public void dump(StringBuilder out) {
+		long end = next.get();
+		long start = Math.max(0, end - times.length);
+		for (long n = start; n < end; n++) {
+			int i = (int) (n & mask);
+			int event = events[i] & 0xffff;
+			out.append(times[i]).append(' ').append(levelName(events[i] >>> 16)).append(' ');
+			out.append(event < EVENT_NAMES.length ? EVENT_NAMES[event] : String.valueOf(event));
+			switch (event) {
+			case TAP:
+			case GATE_DROPPED:
+				out.append(" uid=");
+				appendUid(out, args1[i], (int) args2[i]);
+				break;
+			case NDEF_MESSAGES:
+				out.append(" count=").append(args1[i]);
+				break;
+			case FIRST_EVENT:
+				out.append(" us=").append(args1[i]).append(" tap=").append(args2[i]);
+				break;
+			case RECORD:
+			case EVENT_SENT:
+				out.append(" kind=").append(kindName(args1[i])).append(" index=").append(args2[i]);
+				break;
+			default:
+				out.append(' ').append(args1[i]).append(' ').append(args2[i]);
+			}
+			out.append('\n');
+		}
+	}
+
+	/**
+	 * Writes the buffered events to the Android log.
+	 */
+	public void dumpToLog() {
+		StringBuilder sb = new StringBuilder();
+		dump(sb);
+		if (sb.length() == 0)
+			return;
+		// Log lines are truncated at about 4K
+		int start = 0;
+		while (start < sb.length()) {
+			int end = Math.min(sb.length(), start + 4000);
+			int newline = sb.lastIndexOf("\n", end - 1);
+			if (end < sb.length() && newline > start)
+				end = newline + 1;
+			Log.i(tag, sb.substring(start, end));
+			start = end;
+		}
+	}
+
+	private static void appendUid(StringBuilder out, long packed, int length) {
+		if (!TagUids.isExact(packed)) {
+			// Folded, see TagUids
+			out.append('~');
+			length = 8;
+		}
+		for (int b = length - 1; b >= 0; b--) {
+			int v = (int) (packed >>> (b * 8)) & 0xff;
+			out.append(HEX[v >>> 4]).append(HEX[v & 0x0f]);
+		}
+	}
+
+	private static String kindName(long kind) {
+		return kind >= 0 && kind < KIND_NAMES.length ? KIND_NAMES[(int) kind] : String.valueOf(kind);
+	}
+
+	private static String levelName(int priority) {
+		switch (priority) {
+		case Log.VERBOSE:
+			return "V";
+		case Log.DEBUG:
+			return "D";
+		case Log.INFO:
+			return "I";
+		case Log.WARN:
+			return "W";
+		default:
+			return "E";
+		}
+	}
+}
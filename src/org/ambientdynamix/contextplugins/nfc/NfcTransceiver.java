@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.io.IOException;
+
+import android.nfc.tech.IsoDep;
+import android.nfc.tech.NfcA;
+import android.os.Build;
+
+/**
+ * Raw command/response channel to a tag. Wraps the transceive methods of the android.nfc.tech classes so that the
+ * readers built on top of it can be driven by a simulated tag.
+ */
+interface NfcTransceiver {
+	public void connect() throws IOException;
+
+	public void close() throws IOException;
+
+	public byte[] transceive(byte[] command) throws IOException;
+
+	public int getMaxTransceiveLength();
+
+	/**
+	 * Sets the timeout of a single {@link #transceive(byte[])} call.
+	 */
+	public void setTimeout(int millis);
+
+	/**
+	 * {@link NfcTransceiver} backed by {@link IsoDep}.
+	 */
+	static class IsoDepTransceiver implements NfcTransceiver {
+		private final IsoDep isoDep;
+
+		IsoDepTransceiver(IsoDep isoDep) {
+			this.isoDep = isoDep;
+		}
+
+		public boolean isExtendedLengthApduSupported() {
+			return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN && isoDep.isExtendedLengthApduSupported();
+		}
+
+		@Override
+		public void connect() throws IOException {
+			isoDep.connect();
+		}
+
+		@Override
+		public void close() throws IOException {
+			isoDep.close();
+		}
+
+		@Override
+		public byte[] transceive(byte[] command) throws IOException {
+			return isoDep.transceive(command);
+		}
+
+		@Override
+		public int getMaxTransceiveLength() {
+			return isoDep.getMaxTransceiveLength();
+		}
+
+		@Override
+		public void setTimeout(int millis) {
+			isoDep.setTimeout(millis);
+		}
+	}
+
+	/**
+	 * {@link NfcTransceiver} backed by {@link NfcA}, for raw commands to Type 2 tags.
+	 */
+	static class NfcATransceiver implements NfcTransceiver {
+		private final NfcA nfcA;
+
+		NfcATransceiver(NfcA nfcA) {
+			this.nfcA = nfcA;
+		}
+
+		@Override
+		public void connect() throws IOException {
+			nfcA.connect();
+		}
+
+		@Override
+		public void close() throws IOException {
+			nfcA.close();
+		}
+
+		@Override
+		public byte[] transceive(byte[] command) throws IOException {
+			return nfcA.transceive(command);
+		}
+
+		@Override
+		public int getMaxTransceiveLength() {
+			return nfcA.getMaxTransceiveLength();
+		}
+
+		@Override
+		public void setTimeout(int millis) {
+			nfcA.setTimeout(millis);
+		}
+	}
+}
@@ -19,11 +19,8 @@
  */
 package org.ambientdynamix.contextplugins.nfc;
 
-import java.nio.charset.Charset;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 import org.ambientdynamix.api.application.IContextInfo;
@@ -37,50 +34,7 @@ import android.os.Parcelable;
 /*
  * Adapted from http://developer.android.com/resources/samples/NFCDemo/src/com/example/android/nfc/record/UriRecord.html
  */
-class NfcUriRecord implements IContextInfo, ParsedNdefRecord, INfcUriRecord {
-	/**
-	 * NFC Forum "URI Record Type Definition" This is a mapping of "URI Identifier Codes" to URI string prefixes, per
-	 * section 3.2.2 of the NFC Forum URI Record Type Definition document.
-	 */
-	private static final Map<Byte, String> URI_PREFIX_MAP = new HashMap<Byte, String>();
-	static {
-		URI_PREFIX_MAP.put((byte) 0x00, "");
-		URI_PREFIX_MAP.put((byte) 0x01, "http://www.");
-		URI_PREFIX_MAP.put((byte) 0x02, "https://www.");
-		URI_PREFIX_MAP.put((byte) 0x03, "http://");
-		URI_PREFIX_MAP.put((byte) 0x04, "https://");
-		URI_PREFIX_MAP.put((byte) 0x05, "tel:");
-		URI_PREFIX_MAP.put((byte) 0x06, "mailto:");
-		URI_PREFIX_MAP.put((byte) 0x07, "ftp://anonymous:anonymous@");
-		URI_PREFIX_MAP.put((byte) 0x08, "ftp://ftp.");
-		URI_PREFIX_MAP.put((byte) 0x09, "ftps://");
-		URI_PREFIX_MAP.put((byte) 0x0A, "sftp://");
-		URI_PREFIX_MAP.put((byte) 0x0B, "smb://");
-		URI_PREFIX_MAP.put((byte) 0x0C, "nfs://");
-		URI_PREFIX_MAP.put((byte) 0x0D, "ftp://");
-		URI_PREFIX_MAP.put((byte) 0x0E, "dav://");
-		URI_PREFIX_MAP.put((byte) 0x0F, "news:");
-		URI_PREFIX_MAP.put((byte) 0x10, "telnet://");
-		URI_PREFIX_MAP.put((byte) 0x11, "imap:");
-		URI_PREFIX_MAP.put((byte) 0x12, "rtsp://");
-		URI_PREFIX_MAP.put((byte) 0x13, "urn:");
-		URI_PREFIX_MAP.put((byte) 0x14, "pop:");
-		URI_PREFIX_MAP.put((byte) 0x15, "sip:");
-		URI_PREFIX_MAP.put((byte) 0x16, "sips:");
-		URI_PREFIX_MAP.put((byte) 0x17, "tftp:");
-		URI_PREFIX_MAP.put((byte) 0x18, "btspp://");
-		URI_PREFIX_MAP.put((byte) 0x19, "btl2cap://");
-		URI_PREFIX_MAP.put((byte) 0x1A, "btgoep://");
-		URI_PREFIX_MAP.put((byte) 0x1B, "tcpobex://");
-		URI_PREFIX_MAP.put((byte) 0x1C, "irdaobex://");
-		URI_PREFIX_MAP.put((byte) 0x1D, "file://");
-		URI_PREFIX_MAP.put((byte) 0x1E, "urn:epc:id:");
-		URI_PREFIX_MAP.put((byte) 0x1F, "urn:epc:tag:");
-		URI_PREFIX_MAP.put((byte) 0x20, "urn:epc:pat:");
-		URI_PREFIX_MAP.put((byte) 0x21, "urn:epc:raw:");
-		URI_PREFIX_MAP.put((byte) 0x22, "urn:epc:");
-		URI_PREFIX_MAP.put((byte) 0x23, "urn:nfc:");
-	}
+class NfcUriRecord implements IContextInfo, ParsedNdefRecord, INfcUriRecord, SignedRecord, TapEvent {
 	public static Parcelable.Creator<NfcUriRecord> CREATOR = new Parcelable.Creator<NfcUriRecord>() {
 		public NfcUriRecord createFromParcel(Parcel in) {
 			return new NfcUriRecord(in);
@@ -90,6 +44,8 @@ class NfcUriRecord implements IContextInfo, ParsedNdefRecord, INfcUriRecord {
 			return new NfcUriRecord[size];
 		}
 	};
+	private long tapSequence = -1;
+	private int signatureStatus = SignatureVerifier.UNSIGNED;
 	private final Uri mUri;
 	private NdefRecord record;
 
@@ -108,6 +64,8 @@ class NfcUriRecord implements IContextInfo, ParsedNdefRecord, INfcUriRecord {
 	private NfcUriRecord(final Parcel in) {
 		this.record = in.readParcelable(null);
 		this.mUri = in.readParcelable(null);
+		this.signatureStatus = in.readInt();
+		this.tapSequence = in.readLong();
 	}
 
 	/* (non-Javadoc)
@@ -134,43 +92,51 @@ class NfcUriRecord implements IContextInfo, ParsedNdefRecord, INfcUriRecord {
 		throw new IllegalArgumentException("Unknown TNF " + tnf);
 	}
 
-	/** Parse and absolute URI record */
+	/**
+	 * Parse an absolute URI record, whose URI is its TYPE field (NDEF Technical Specification section 3.2.6).
+	 */
 	private static NfcUriRecord parseAbsolute(NdefRecord record) {
-		byte[] payload = record.getPayload();
-		Uri uri = Uri.parse(new String(payload, Charset.forName("UTF-8")));
+		byte[] type = record.getType();
+		Uri uri = Uri.parse(NdefPayloads.decodeUtf8(type, 0, type.length));
 		return new NfcUriRecord(record, uri);
 	}
 
 	/** Parse an well known URI record */
 	private static NfcUriRecord parseWellKnown(NdefRecord record) {
+		if (!Arrays.equals(record.getType(), NdefRecord.RTD_URI))
+			throw new IllegalArgumentException("Not a URI record");
 		byte[] payload = record.getPayload();
-		/*
-		 * payload[0] contains the URI Identifier Code, per the NFC Forum "URI Record Type Definition" section 3.2.2.
-		 * payload[1]...payload[payload.length - 1] contains the rest of the URI.
-		 */
-		String prefix = URI_PREFIX_MAP.get(payload[0]);
-		byte[] schemeBytes = prefix.getBytes(Charset.forName("UTF-8"));
-		byte[] uriBytes = Arrays.copyOfRange(payload, 1, payload.length);
-		byte[] fullUri = new byte[schemeBytes.length + uriBytes.length];
-		System.arraycopy(schemeBytes, 0, fullUri, 0, schemeBytes.length);
-		System.arraycopy(uriBytes, 0, fullUri, schemeBytes.length, uriBytes.length);
-		Uri uri = Uri.parse(new String(fullUri, Charset.forName("UTF-8")));
+		Uri uri = Uri.parse(NdefPayloads.decodeWellKnownUri(payload, 0, payload.length));
 		return new NfcUriRecord(record, uri);
 	}
 
+	/**
+	 * Returns true for URI records, by their TNF and type only: a malformed record is rejected by
+	 * {@link #parse(NdefRecord)}, rather than being parsed twice.
+	 */
 	public static boolean isUri(NdefRecord record) {
-		try {
-			parse(record);
-			return true;
-		} catch (IllegalArgumentException e) {
-			return false;
-		}
+		short tnf = record.getTnf();
+		return tnf == NdefRecord.TNF_ABSOLUTE_URI
+				|| (tnf == NdefRecord.TNF_WELL_KNOWN && Arrays.equals(record.getType(), NdefRecord.RTD_URI));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcUriRecord#getSignatureStatus()
+	 */
+	public String getSignatureStatus() {
+		return SignatureVerifier.statusName(signatureStatus);
+	}
+
+	public void setSignatureStatus(int status) {
+		this.signatureStatus = status;
 	}
 
 	@Override
 	public void writeToParcel(Parcel dest, int flags) {
 		dest.writeParcelable(this.record, flags);
 		dest.writeParcelable(this.mUri, flags);
+		dest.writeInt(signatureStatus);
+		dest.writeLong(tapSequence);
 	}
 
 	/* (non-Javadoc)
@@ -192,15 +158,14 @@ class NfcUriRecord implements IContextInfo, ParsedNdefRecord, INfcUriRecord {
 		}
 		else if(format.equalsIgnoreCase("RDF/XML"))
 		{
-			String result="<rdf:RDF\n" +
-					"xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"\n" +
-					"xmlns:z.0=\"http://dynamix.org/semmodel/org.ambientdynamix.contextplugins.nfc/0.1/\"\n" +
-					"xmlns:z.1=\"http://dynamix.org/semmodel/0.1/\" > \n";
-			result=result+"<rdf:Description rdf:about=\"http://dynamix.org/semmodel/org.ambientdynamix.contextplugins.nfc/0.1/"+mUri.toString()+"\">\n";
-			result=result+"<rdf:type>http://dynamix.org/semmodel/0.1/org.ambientdynamix.contextplugins.nfc.uri_record</rdf:type>\n";
-			result=result+"<z.0:hasTagURI>"+mUri.toString()+"</z.0:hasTagURI>\n";
-			result=result+"</rdf:Description>\n </rdf:RDF>";
-			return result;
+			String uri = mUri.toString();
+			StringBuilder result = new StringBuilder(NfcTag.RDF_HEADER.length() + 300 + 2 * uri.length());
+			result.append(NfcTag.RDF_HEADER);
+			result.append("<rdf:Description rdf:about=\"http://dynamix.org/semmodel/org.ambientdynamix.contextplugins.nfc/0.1/").append(uri).append("\">\n");
+			result.append("<rdf:type>http://dynamix.org/semmodel/0.1/org.ambientdynamix.contextplugins.nfc.uri_record</rdf:type>\n");
+			result.append("<z.0:hasTagURI>").append(uri).append("</z.0:hasTagURI>\n");
+			result.append("</rdf:Description>\n </rdf:RDF>");
+			return result.toString();
 		}
 		else
 		{
@@ -233,6 +198,17 @@ class NfcUriRecord implements IContextInfo, ParsedNdefRecord, INfcUriRecord {
 	/* (non-Javadoc)
 	 * @see org.ambientdynamix.contextplugins.nfc.INfcUriRecord#describeContents()
 	 */
+	/* (non-Javadoc)
+	 * @see org.ambientdynamix.contextplugins.nfc.INfcUriRecord#getTapSequence()
+	 */
+	public long getTapSequence() {
+		return tapSequence;
+	}
+
+	public void setTapSequence(long sequence) {
+		this.tapSequence = sequence;
+	}
+
 	public int describeContents() {
 		return 0;
 	}
@@ -19,6 +19,6 @@ import org.ambientdynamix.api.contextplugin.*;
 
 public class PluginFactory extends ContextPluginRuntimeFactory {
 	public PluginFactory() {
-		super(NfcPluginRuntime.class, null, null);
+		super(NfcPluginRuntime.class, NfcInteractionViewFactory.class, null);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+
+import android.nfc.Tag;
+import android.nfc.tech.IsoDep;
+import android.nfc.tech.NfcA;
+import android.nfc.tech.NfcB;
+import android.nfc.tech.NfcF;
+import android.nfc.tech.NfcV;
+import android.nfc.tech.TagTechnology;
+import android.util.Log;
+
+/**
+ * Follows the presence of the last tapped tag by polling {@link TagTechnology#isConnected()}, which asks the NFC
+ * service whether the tag is still in the field without any I/O to the tag, on the runtime's shared scheduler. When
+ * the tag leaves (or a new tag is tapped) a {@link NfcTagDeparted} event is produced and polling stops. The dwell
+ * times of tags seen leaving feed a moving average, from which {@link #expiryMillis()} derives the expiry of tap
+ * events, so that the framework drops tag context about as soon as tags are usually gone. A tag replaced by a new tap
+ * before a check noticed it leave is left out of the average, as its dwell time is only an upper bound.
+ * <p>
+ * Only the departure event expires after the tag's actual dwell time. The expiry of an event is fixed when it is sent,
+ * before the tag has left, and events cannot be withdrawn later, so the expiry of tap events is a prediction from the
+ * dwell times of previous tags rather than the dwell time of the tag itself. Apps that need the exact end of a tap use
+ * the departure event.
+ */
+class PresenceTracker {
+	/** Settings key enabling presence tracking ("true" or "false", the default) */
+	public static final String ENABLED_SETTINGS_KEY = "presence_tracking";
+	/** Settings key holding the presence check interval in milliseconds */
+	public static final String INTERVAL_SETTINGS_KEY = "presence_interval_ms";
+	public static final int DEFAULT_INTERVAL_MILLIS = 250;
+	/** Tags are no longer followed after this long, e.g. a card left on the reader */
+	private static final long MAX_TRACKING_MILLIS = 10 * 60 * 1000;
+	private static final int MIN_EXPIRY_MILLIS = 1000;
+	private static final int MAX_EXPIRY_MILLIS = 60000;
+	private final String TAG = this.getClass().getSimpleName();
+	private volatile boolean enabled;
+	private volatile int intervalMillis = DEFAULT_INTERVAL_MILLIS;
+	// Exponential moving average of dwell times, -1 until the first departure
+	private volatile long averageDwellMillis = -1;
+	private Presence current;
+
+	/**
+	 * Receives the departure of tracked tags.
+	 */
+	interface Listener {
+		public void onTagDeparted(NfcTagDeparted event, int expireMills);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Applies the {@link #ENABLED_SETTINGS_KEY} and {@link #INTERVAL_SETTINGS_KEY} settings.
+	 */
+	public void configure(ContextPluginSettings settings) {
+		String value = settings != null ? settings.get(ENABLED_SETTINGS_KEY) : null;
+		enabled = value != null && Boolean.parseBoolean(value.trim());
+		String interval = settings != null ? settings.get(INTERVAL_SETTINGS_KEY) : null;
+		if (interval != null) {
+			try {
+				intervalMillis = Math.max(10, Integer.parseInt(interval.trim()));
+			} catch (NumberFormatException e) {
+				Log.w(TAG, "Ignoring presence interval: " + interval);
+			}
+		}
+		if (!enabled)
+			stop();
+	}
+
+	/**
+	 * Returns the expiry for the events of a tap: twice the average dwell time plus one check interval, within [1 s,
+	 * 60 s], or 60 s until a dwell time has been observed.
+	 */
+	public int expiryMillis() {
+		long dwell = averageDwellMillis;
+		if (dwell < 0)
+			return MAX_EXPIRY_MILLIS;
+		return (int) Math.max(MIN_EXPIRY_MILLIS, Math.min(MAX_EXPIRY_MILLIS, 2 * dwell + intervalMillis));
+	}
+
+	/**
+	 * Starts following the given tag, ending the tracking of the previous one. Must be called once the tap is done
+	 * with the tag, as the tracker keeps a technology connected.
+	 */
+	public synchronized void track(ScheduledExecutorService scheduler, Tag tag, byte[] uid, long tapSequence,
+			long tapNanos, Listener listener) {
+		if (current != null)
+			end(current, true, false);
+		TagTechnology tech = technology(tag);
+		if (tech == null)
+			return;
+		Presence presence = new Presence(tech, uid, tapSequence, tapNanos, listener);
+		try {
+			presence.future = scheduler.scheduleWithFixedDelay(presence, 0, intervalMillis, TimeUnit.MILLISECONDS);
+			current = presence;
+		} catch (RejectedExecutionException e) {
+			// Shutting down
+		}
+	}
+
+	/**
+	 * Stops tracking without producing a departure event.
+	 */
+	public synchronized void stop() {
+		if (current != null)
+			end(current, false, false);
+	}
+
+	private void check(Presence presence) {
+		synchronized (this) {
+			if (presence != current)
+				return;
+		}
+		// Outside the lock, so that a tap never waits for the I/O of a check
+		boolean present;
+		try {
+			if (!presence.connected) {
+				presence.tech.connect();
+				presence.connected = true;
+			}
+			present = presence.tech.isConnected();
+		} catch (IOException e) {
+			present = false;
+		} catch (RuntimeException e) {
+			// e.g. IllegalStateException if the app has another technology of the tag connected; try again later
+			present = true;
+		}
+		synchronized (this) {
+			if (presence != current) {
+				// Ended while connecting, which may have reconnected the technology after end() closed it
+				close(presence);
+			} else if (!present || elapsedMillis(presence) > MAX_TRACKING_MILLIS) {
+				end(presence, !present, !present);
+			}
+		}
+	}
+
+	/**
+	 * Ends the tracking of the given tag, producing a departure event if it departed and adding its dwell time to the
+	 * average if the departure was observed by a check.
+	 */
+	private void end(Presence presence, boolean departed, boolean observed) {
+		current = null;
+		if (presence.future != null)
+			presence.future.cancel(false);
+		close(presence);
+		if (!departed)
+			return;
+		long dwell = elapsedMillis(presence);
+		if (observed) {
+			long average = averageDwellMillis;
+			averageDwellMillis = average < 0 ? dwell : (3 * average + dwell) / 4;
+		}
+		int expiry = (int) Math.max(MIN_EXPIRY_MILLIS, Math.min(MAX_EXPIRY_MILLIS, dwell));
+		presence.listener.onTagDeparted(new NfcTagDeparted(presence.uid, presence.tapSequence, dwell), expiry);
+	}
+
+	private static void close(Presence presence) {
+		try {
+			presence.tech.close();
+		} catch (IOException e) {
+		}
+	}
+
+	private static long elapsedMillis(Presence presence) {
+		return (System.nanoTime() - presence.tapNanos) / 1000000;
+	}
+
+	/**
+	 * Returns a technology of the tag that can be connected without affecting its state.
+	 */
+	private static TagTechnology technology(Tag tag) {
+		TagTechnology tech = NfcA.get(tag);
+		if (tech == null)
+			tech = NfcB.get(tag);
+		if (tech == null)
+			tech = NfcF.get(tag);
+		if (tech == null)
+			tech = NfcV.get(tag);
+		if (tech == null)
+			tech = IsoDep.get(tag);
+		return tech;
+	}
+
+	private final class Presence implements Runnable {
+		final TagTechnology tech;
+		final byte[] uid;
+		final long tapSequence;
+		final long tapNanos;
+		final Listener listener;
+		ScheduledFuture<?> future;
+		boolean connected;
+
+		Presence(TagTechnology tech, byte[] uid, long tapSequence, long tapNanos, Listener listener) {
+			this.tech = tech;
+			this.uid = uid;
+			this.tapSequence = tapSequence;
+			this.tapNanos = tapNanos;
+			this.listener = listener;
+		}
+
+		@Override
+		public void run() {
+			check(this);
+		}
+	}
+}
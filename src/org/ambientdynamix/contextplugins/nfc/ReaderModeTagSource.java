@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+
+import android.app.Activity;
+import android.nfc.NfcAdapter;
+import android.nfc.Tag;
+import android.os.Bundle;
+import android.util.Log;
+
+/**
+ * Tag source based on {@link NfcAdapter#enableReaderMode}, which hands tags straight to a callback on a binder thread,
+ * without intent dispatch and, if so configured, without the platform's NDEF check. Requires API level 19 and an
+ * activity in the foreground, so it is used while the plug-in's interaction view is shown if the
+ * {@link NfcPluginRuntime#TAG_SOURCE_SETTINGS_KEY} setting selects it (see {@link NfcInteractionViewFactory}).
+ */
+class ReaderModeTagSource implements TagSource, NfcAdapter.ReaderCallback {
+	/** Settings key holding the polled technologies, a comma separated subset of "a", "b", "f", "v" and "barcode" */
+	public static final String TECHNOLOGIES_SETTINGS_KEY = "reader_mode_technologies";
+	/**
+	 * Settings key to skip the platform's NDEF check ("true" or "false", the default). Saves the NDEF read for taps
+	 * that only need the UID or ISO-DEP responses, but then no NDEF records are decoded.
+	 */
+	public static final String SKIP_NDEF_CHECK_SETTINGS_KEY = "reader_mode_skip_ndef_check";
+	/** Settings key holding the platform's presence check delay in milliseconds */
+	public static final String PRESENCE_DELAY_SETTINGS_KEY = "reader_mode_presence_delay_ms";
+	private static final int DEFAULT_TECHNOLOGIES = NfcAdapter.FLAG_READER_NFC_A | NfcAdapter.FLAG_READER_NFC_B
+			| NfcAdapter.FLAG_READER_NFC_F | NfcAdapter.FLAG_READER_NFC_V;
+	private static final String TAG = ReaderModeTagSource.class.getSimpleName();
+	private final Activity activity;
+	private final NfcAdapter adapter;
+	private final int flags;
+	private final Bundle extras;
+	private volatile Listener listener;
+
+	ReaderModeTagSource(Activity activity, int flags, int presenceDelayMillis) {
+		this.activity = activity;
+		this.adapter = NfcAdapter.getDefaultAdapter(activity);
+		if (adapter == null)
+			throw new IllegalStateException("No NFC adapter");
+		this.flags = flags;
+		this.extras = new Bundle();
+		if (presenceDelayMillis > 0)
+			extras.putInt(NfcAdapter.EXTRA_READER_PRESENCE_CHECK_DELAY, presenceDelayMillis);
+	}
+
+	/**
+	 * Returns the reader mode flags for the {@link #TECHNOLOGIES_SETTINGS_KEY} and
+	 * {@link #SKIP_NDEF_CHECK_SETTINGS_KEY} settings.
+	 */
+	static int flagsFromSettings(ContextPluginSettings settings) {
+		int flags = DEFAULT_TECHNOLOGIES;
+		String value = settings != null ? settings.get(TECHNOLOGIES_SETTINGS_KEY) : null;
+		if (value != null) {
+			flags = 0;
+			for (String technology : value.split(",")) {
+				technology = technology.trim().toLowerCase();
+				if (technology.equals("a"))
+					flags |= NfcAdapter.FLAG_READER_NFC_A;
+				else if (technology.equals("b"))
+					flags |= NfcAdapter.FLAG_READER_NFC_B;
+				else if (technology.equals("f"))
+					flags |= NfcAdapter.FLAG_READER_NFC_F;
+				else if (technology.equals("v"))
+					flags |= NfcAdapter.FLAG_READER_NFC_V;
+				else if (technology.equals("barcode"))
+					flags |= NfcAdapter.FLAG_READER_NFC_BARCODE;
+				else if (technology.length() > 0)
+					Log.w(TAG, "Unknown reader mode technology: " + technology);
+			}
+		}
+		String skip = settings != null ? settings.get(SKIP_NDEF_CHECK_SETTINGS_KEY) : null;
+		if (skip != null && Boolean.parseBoolean(skip.trim()))
+			flags |= NfcAdapter.FLAG_READER_SKIP_NDEF_CHECK;
+		return flags;
+	}
+
+	/**
+	 * Returns the {@link #PRESENCE_DELAY_SETTINGS_KEY} setting, or 0 for the platform default.
+	 */
+	static int presenceDelayFromSettings(ContextPluginSettings settings) {
+		String value = settings != null ? settings.get(PRESENCE_DELAY_SETTINGS_KEY) : null;
+		if (value == null)
+			return 0;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			Log.w(TAG, "Ignoring presence check delay: " + value);
+			return 0;
+		}
+	}
+
+	@Override
+	public void start(Listener listener) {
+		this.listener = listener;
+		adapter.enableReaderMode(activity, this, flags, extras);
+	}
+
+	@Override
+	public void stop() {
+		adapter.disableReaderMode(activity);
+		this.listener = null;
+	}
+
+	@Override
+	public void onTagDiscovered(Tag tag) {
+		Listener l = listener;
+		if (l != null)
+			l.onTagDiscovered(tag);
+	}
+}
@@ -0,0 +1,569 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.io.ByteArrayInputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.CertificateNotYetValidException;
+import java.security.cert.X509Certificate;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+
+import android.nfc.NdefRecord;
+import android.util.Log;
+
+/**
+ * Verifies NFC Forum Signature RTD 2.0 records ("Sig"). A signature record covers the records that precede it, back to
+ * the previous signature record or the start of the message; the signed data is the type, id and payload of each
+ * covered record. The signer's key is either taken from the X.509 certificate chain carried by the record, which must
+ * chain up to one of the trusted keys, or is one of the trusted keys itself. Every certificate of a chain must be
+ * within its validity period, and every certificate that signs another must be a CA certificate allowed to sign
+ * certificates, within its path length constraint. Signatures referenced by URI cannot be
+ * checked on the tap path and are reported as unverifiable.
+ * <p>
+ * Verification results are cached by (content hash, key id) and validated certificate chains by their fingerprint, in
+ * bounded LRU caches, so re-reading a signed tag costs one SHA-256 pass. Outcomes that depend on a certificate chain
+ * expire when the validity of the chain changes. Cache entries are tagged with the generation of the trusted key set
+ * they were computed against, so outcomes of checks still running when the keys change are
+ * not served afterwards. If an executor is given, cache misses are verified on it: the covered records are then
+ * reported as pending and the outcome arrives later through the {@link Listener}.
+ */
+class SignatureVerifier {
+	/** Settings key holding comma separated trusted public keys, as hex encoded X.509 SubjectPublicKeyInfo */
+	public static final String KEYS_SETTINGS_KEY = "signature_trusted_keys";
+	/** Settings key enabling verification off the tap thread ("true" or "false", the default) */
+	public static final String ASYNC_SETTINGS_KEY = "signature_async";
+	public static final int UNSIGNED = 0;
+	public static final int VERIFIED = 1;
+	/** Bad signature, untrusted signer or malformed signature record */
+	public static final int INVALID = 2;
+	/** Verification is running off the tap thread */
+	public static final int PENDING = 3;
+	/** Unsupported algorithm or certificate format, or a signature referenced by URI */
+	public static final int UNVERIFIABLE = 4;
+	private static final String[] STATUS_NAMES = new String[] { "unsigned", "verified", "invalid", "pending",
+			"unverifiable" };
+	static final byte[] TYPE_SIGNATURE = new byte[] { 'S', 'i', 'g' };
+	private static final int VERSION_2 = 0x20;
+	private static final int CERTIFICATE_X509 = 0;
+	private static final int RESULT_CACHE_SIZE = 256;
+	private static final int KEY_CACHE_SIZE = 32;
+	/** Cached value of a certificate chain that does not lead to a trusted key */
+	private static final Object UNTRUSTED = new Object();
+	private final String TAG = this.getClass().getSimpleName();
+	private volatile KeySet keySet = new KeySet(Collections.<PublicKey> emptyList(), 0);
+	private volatile boolean async;
+	private final Map<Long, Cached> chainKeys = newLruMap(KEY_CACHE_SIZE);
+	private final Map<ResultKey, Cached> results = newLruMap(RESULT_CACHE_SIZE);
+
+	/**
+	 * Receives the outcome of each signature record.
+	 */
+	interface Listener {
+		public void onSignatureVerified(NfcSignatureResult result);
+	}
+
+	static String statusName(int status) {
+		return STATUS_NAMES[status];
+	}
+
+	/**
+	 * Returns true if trusted keys are configured. Without them no signature can verify, so signature records are not
+	 * looked at.
+	 */
+	public boolean isEnabled() {
+		return !keySet.keys.isEmpty();
+	}
+
+	public boolean isAsync() {
+		return async;
+	}
+
+	/**
+	 * Applies the {@link #KEYS_SETTINGS_KEY} and {@link #ASYNC_SETTINGS_KEY} settings. Invalid keys are skipped.
+	 */
+	public void configure(ContextPluginSettings settings) {
+		String async = settings != null ? settings.get(ASYNC_SETTINGS_KEY) : null;
+		this.async = async != null && Boolean.parseBoolean(async.trim());
+		String value = settings != null ? settings.get(KEYS_SETTINGS_KEY) : null;
+		List<PublicKey> keys = new ArrayList<PublicKey>();
+		if (value != null) {
+			for (String hex : value.split(",")) {
+				hex = hex.trim();
+				if (hex.length() == 0)
+					continue;
+				try {
+					keys.add(decodePublicKey(HexStrings.toBytes(hex, 0)));
+				} catch (Exception e) {
+					Log.w(TAG, "Ignoring trusted key: " + e);
+				}
+			}
+		}
+		synchronized (this) {
+			// Cached outcomes depend on the trusted keys
+			keySet = new KeySet(Collections.unmodifiableList(keys), keySet.generation + 1);
+			chainKeys.clear();
+			results.clear();
+		}
+	}
+
+	/**
+	 * Checks the signature records of a message, returning the status of each record, or null if the message has no
+	 * signature records. executor may be null to verify on the calling thread.
+	 */
+	int[] verify(NdefRecord[] records, Executor executor, Listener listener) {
+		int[] statuses = null;
+		int start = 0;
+		for (int i = 0; i < records.length; i++) {
+			NdefRecord record = records[i];
+			if (record.getTnf() != NdefRecord.TNF_WELL_KNOWN || !Arrays.equals(record.getType(), TYPE_SIGNATURE))
+				continue;
+			if (statuses == null)
+				statuses = new int[records.length];
+			if (i > start)
+				verifyRange(records, start, i, statuses, executor, listener);
+			start = i + 1;
+		}
+		return statuses;
+	}
+
+	/**
+	 * Verifies records[from, to) against the signature record records[to].
+	 */
+	private void verifyRange(final NdefRecord[] records, final int from, final int to, int[] statuses,
+			Executor executor, final Listener listener) {
+		final SignatureRecord sig;
+		try {
+			sig = SignatureRecord.parse(records[to].getPayload());
+		} catch (IllegalArgumentException e) {
+			report(listener, INVALID, -1, from, to, 0, null);
+			Arrays.fill(statuses, from, to, INVALID);
+			return;
+		}
+		if (sig.type == 0) {
+			// Marks the start of a signed range, the records before it are not signed
+			return;
+		}
+		if (sig.signatureUri || sig.certificateUri || sig.algorithm() == null
+				|| (sig.certificateCount > 0 && sig.certificateFormat != CERTIFICATE_X509)) {
+			report(listener, UNVERIFIABLE, sig.type, from, to, 0, null);
+			Arrays.fill(statuses, from, to, UNVERIFIABLE);
+			return;
+		}
+		final long keyId = sig.certificateCount > 0 ? sig.chainFingerprint() : 0;
+		final ResultKey key = new ResultKey(contentHash(records, from, to, sig), keyId);
+		// The whole range is checked against one key set, even if the keys change meanwhile
+		final KeySet keys = keySet;
+		Integer cached = (Integer) cached(results, key, keys);
+		if (cached != null) {
+			report(listener, cached, sig.type, from, to, keyId, key.hash);
+			Arrays.fill(statuses, from, to, cached);
+			return;
+		}
+		if (executor != null) {
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						int status = check(records, from, to, sig, keyId, keys);
+						cache(key, status, keys);
+						report(listener, status, sig.type, from, to, keyId, key.hash);
+					}
+				});
+				Arrays.fill(statuses, from, to, PENDING);
+				return;
+			} catch (RejectedExecutionException e) {
+				// Shutting down, verify here
+			}
+		}
+		int status = check(records, from, to, sig, keyId, keys);
+		cache(key, status, keys);
+		report(listener, status, sig.type, from, to, keyId, key.hash);
+		Arrays.fill(statuses, from, to, status);
+	}
+
+	private int check(NdefRecord[] records, int from, int to, SignatureRecord sig, long keyId, KeySet keySet) {
+		try {
+			List<PublicKey> keys = keySet.keys;
+			if (sig.certificateCount > 0) {
+				PublicKey signer = chainKey(sig, keyId, keySet);
+				if (signer == null)
+					return INVALID;
+				keys = Collections.singletonList(signer);
+			}
+			for (PublicKey key : keys) {
+				Signature signature = Signature.getInstance(sig.algorithm());
+				signature.initVerify(key);
+				for (int i = from; i < to; i++) {
+					signature.update(records[i].getType());
+					signature.update(records[i].getId());
+					signature.update(records[i].getPayload());
+				}
+				try {
+					if (signature.verify(sig.payload, sig.signatureOffset, sig.signatureLength))
+						return VERIFIED;
+				} catch (GeneralSecurityException e) {
+					// Malformed signature or key of another algorithm, try the next key
+				}
+			}
+			return INVALID;
+		} catch (NoSuchAlgorithmException e) {
+			return UNVERIFIABLE;
+		} catch (GeneralSecurityException e) {
+			return INVALID;
+		}
+	}
+
+	/**
+	 * Returns the validated public key of the leaf certificate of the chain, or null if the chain does not lead to a
+	 * trusted key.
+	 */
+	private PublicKey chainKey(SignatureRecord sig, long fingerprint, KeySet keySet) throws GeneralSecurityException {
+		Object cached = cached(chainKeys, fingerprint, keySet);
+		if (cached != null)
+			return cached == UNTRUSTED ? null : (PublicKey) cached;
+		CertificateFactory factory = CertificateFactory.getInstance("X.509");
+		X509Certificate[] chain = new X509Certificate[sig.certificateCount];
+		for (int i = 0; i < chain.length; i++) {
+			chain[i] = (X509Certificate) factory.generateCertificate(new ByteArrayInputStream(sig.payload,
+					sig.certificateOffsets[i], sig.certificateLengths[i]));
+		}
+		Object result = UNTRUSTED;
+		// A trusted chain is kept until its first certificate expires, a chain not yet valid until it becomes valid
+		long expires = Long.MAX_VALUE;
+		try {
+			Date now = new Date();
+			for (X509Certificate certificate : chain)
+				certificate.checkValidity(now);
+			for (int i = 0; i + 1 < chain.length; i++) {
+				checkIssuer(chain[i + 1], i);
+				chain[i].verify(chain[i + 1].getPublicKey());
+			}
+			X509Certificate root = chain[chain.length - 1];
+			for (PublicKey trusted : keySet.keys) {
+				if (trusted.equals(root.getPublicKey()) || verifies(root, trusted)) {
+					result = chain[0].getPublicKey();
+					for (X509Certificate certificate : chain)
+						expires = Math.min(expires, certificate.getNotAfter().getTime());
+					break;
+				}
+			}
+		} catch (CertificateNotYetValidException e) {
+			expires = 0;
+			for (X509Certificate certificate : chain)
+				expires = Math.max(expires, certificate.getNotBefore().getTime());
+			Log.w(TAG, "Invalid certificate chain: " + e);
+		} catch (GeneralSecurityException e) {
+			Log.w(TAG, "Invalid certificate chain: " + e);
+		}
+		cache(chainKeys, fingerprint, result, keySet, expires);
+		return result == UNTRUSTED ? null : (PublicKey) result;
+	}
+
+	/**
+	 * Checks that issuer may sign certificates, with the given number of intermediate certificates below it.
+	 */
+	private static void checkIssuer(X509Certificate issuer, int intermediates) throws CertificateException {
+		int pathLength = issuer.getBasicConstraints();
+		if (pathLength < 0)
+			throw new CertificateException("Not a CA certificate: " + issuer.getSubjectX500Principal());
+		if (intermediates > pathLength)
+			throw new CertificateException("Path length exceeded: " + issuer.getSubjectX500Principal());
+		boolean[] keyUsage = issuer.getKeyUsage();
+		if (keyUsage != null && (keyUsage.length <= 5 || !keyUsage[5]))
+			throw new CertificateException("Not allowed to sign certificates: " + issuer.getSubjectX500Principal());
+	}
+
+	private static boolean verifies(X509Certificate certificate, PublicKey key) {
+		try {
+			certificate.verify(key);
+			return true;
+		} catch (GeneralSecurityException e) {
+			return false;
+		}
+	}
+
+	private synchronized void cache(ResultKey key, int status, KeySet keySet) {
+		// Pending outcomes of a shut down executor are not cached
+		if (status == PENDING)
+			return;
+		long expires = Long.MAX_VALUE;
+		if (key.keyId != 0) {
+			// The outcome lasts as long as the signer's chain, unless that has been evicted already
+			Cached chain = chainKeys.get(Long.valueOf(key.keyId));
+			if (chain == null)
+				return;
+			expires = chain.expires;
+		}
+		cache(results, key, status, keySet, expires);
+	}
+
+	/**
+	 * Returns the value cached for key, or null if there is none, it has expired or it was computed against another
+	 * key set.
+	 */
+	private synchronized <K> Object cached(Map<K, Cached> cache, K key, KeySet keySet) {
+		Cached cached = cache.get(key);
+		if (cached == null)
+			return null;
+		if (cached.generation != keySet.generation || System.currentTimeMillis() >= cached.expires) {
+			cache.remove(key);
+			return null;
+		}
+		return cached.value;
+	}
+
+	/**
+	 * Caches a value computed against keySet until the given time, unless the trusted keys have changed since.
+	 */
+	private synchronized <K> void cache(Map<K, Cached> cache, K key, Object value, KeySet keySet, long expires) {
+		if (keySet.generation == this.keySet.generation)
+			cache.put(key, new Cached(value, keySet.generation, expires));
+	}
+
+	private static void report(Listener listener, int status, int signatureType, int from, int to, long keyId,
+			byte[] contentHash) {
+		if (listener != null)
+			listener.onSignatureVerified(new NfcSignatureResult(status, signatureType, from, to - from,
+					keyId != 0 ? Long.toHexString(keyId) : null,
+					contentHash != null ? NfcTag.byteArrayToHexString(contentHash) : null));
+	}
+
+	/**
+	 * Hashes the covered records and the signature, which together identify a verification outcome.
+	 */
+	private static byte[] contentHash(NdefRecord[] records, int from, int to, SignatureRecord sig) {
+		MessageDigest digest = sha256();
+		for (int i = from; i < to; i++) {
+			digest.update(records[i].getType());
+			digest.update(records[i].getId());
+			digest.update(records[i].getPayload());
+		}
+		digest.update(sig.payload, sig.signatureOffset, sig.signatureLength);
+		return digest.digest();
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static PublicKey decodePublicKey(byte[] encoded) throws GeneralSecurityException {
+		X509EncodedKeySpec spec = new X509EncodedKeySpec(encoded);
+		GeneralSecurityException error = null;
+		for (String algorithm : new String[] { "EC", "RSA", "DSA" }) {
+			try {
+				return KeyFactory.getInstance(algorithm).generatePublic(spec);
+			} catch (GeneralSecurityException e) {
+				error = e;
+			}
+		}
+		throw error;
+	}
+
+	private static <K, V> Map<K, V> newLruMap(final int capacity) {
+		return new LinkedHashMap<K, V>(capacity, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * The trusted keys, numbered so that values computed against them can be told apart from those of other key sets.
+	 */
+	private static final class KeySet {
+		final List<PublicKey> keys;
+		final int generation;
+
+		KeySet(List<PublicKey> keys, int generation) {
+			this.keys = keys;
+			this.generation = generation;
+		}
+	}
+
+	/**
+	 * A cached outcome or signer key, with the generation of the key set it was computed against and the time it
+	 * expires, in milliseconds since the epoch.
+	 */
+	private static final class Cached {
+		final Object value;
+		final int generation;
+		final long expires;
+
+		Cached(Object value, int generation, long expires) {
+			this.value = value;
+			this.generation = generation;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * Key of a cached verification outcome.
+	 */
+	private static final class ResultKey {
+		final byte[] hash;
+		final long keyId;
+		private final int hashCode;
+
+		ResultKey(byte[] hash, long keyId) {
+			this.hash = hash;
+			this.keyId = keyId;
+			this.hashCode = 31 * Arrays.hashCode(hash) + (int) (keyId ^ (keyId >>> 32));
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof ResultKey))
+				return false;
+			ResultKey other = (ResultKey) o;
+			return keyId == other.keyId && Arrays.equals(hash, other.hash);
+		}
+	}
+
+	/**
+	 * A parsed signature record payload: version, signature field (URI flag, type, length, value), hash algorithm and
+	 * certificate field (URI flag, format, count, length-prefixed certificates, optional URI). Fields are kept as
+	 * offsets into the payload.
+	 */
+	private static final class SignatureRecord {
+		byte[] payload;
+		int type;
+		boolean signatureUri;
+		int signatureOffset;
+		int signatureLength;
+		int hashAlgorithm;
+		int certificateFormat;
+		int certificateCount;
+		boolean certificateUri;
+		int[] certificateOffsets;
+		int[] certificateLengths;
+
+		static SignatureRecord parse(byte[] p) {
+			if (p.length < 4 || (p[0] & 0xff) != VERSION_2)
+				throw new IllegalArgumentException("Unsupported signature record version");
+			SignatureRecord sig = new SignatureRecord();
+			sig.payload = p;
+			sig.signatureUri = (p[1] & 0x80) != 0;
+			sig.type = p[1] & 0x7f;
+			sig.signatureLength = readShort(p, 2);
+			sig.signatureOffset = 4;
+			int pos = sig.signatureOffset + sig.signatureLength;
+			if (pos > p.length)
+				throw new IllegalArgumentException("Truncated signature field");
+			if (sig.type == 0)
+				return sig;
+			if (pos + 2 > p.length)
+				throw new IllegalArgumentException("Truncated signature record");
+			sig.hashAlgorithm = p[pos++] & 0xff;
+			int certificates = p[pos++] & 0xff;
+			sig.certificateUri = (certificates & 0x80) != 0;
+			sig.certificateFormat = (certificates >>> 4) & 0x07;
+			sig.certificateCount = certificates & 0x0f;
+			sig.certificateOffsets = new int[sig.certificateCount];
+			sig.certificateLengths = new int[sig.certificateCount];
+			for (int i = 0; i < sig.certificateCount; i++) {
+				int length = readShort(p, pos);
+				sig.certificateOffsets[i] = pos + 2;
+				sig.certificateLengths[i] = length;
+				pos += 2 + length;
+			}
+			if (pos > p.length)
+				throw new IllegalArgumentException("Truncated certificate field");
+			return sig;
+		}
+
+		/**
+		 * Returns the JCA name of the signature algorithm, or null if it is not supported.
+		 */
+		String algorithm() {
+			String hash;
+			switch (hashAlgorithm) {
+			case 0x02:
+				hash = "SHA256";
+				break;
+			case 0x03:
+				hash = "SHA384";
+				break;
+			case 0x04:
+				hash = "SHA512";
+				break;
+			default:
+				return null;
+			}
+			switch (type) {
+			case 0x01:
+				return hash + "withRSA/PSS";
+			case 0x02:
+				return hash + "withRSA";
+			case 0x03:
+				return hash + "withDSA";
+			case 0x04:
+				return hash + "withECDSA";
+			default:
+				return null;
+			}
+		}
+
+		/**
+		 * Returns the first 8 bytes of the SHA-256 of the certificates, which identifies the signer.
+		 */
+		long chainFingerprint() {
+			MessageDigest digest = sha256();
+			for (int i = 0; i < certificateCount; i++)
+				digest.update(payload, certificateOffsets[i], certificateLengths[i]);
+			byte[] hash = digest.digest();
+			long fingerprint = 0;
+			for (int i = 0; i < 8; i++)
+				fingerprint = (fingerprint << 8) | (hash[i] & 0xff);
+			return fingerprint;
+		}
+
+		private static int readShort(byte[] p, int offset) {
+			if (offset + 2 > p.length)
+				throw new IllegalArgumentException("Truncated signature record");
+			return ((p[offset] & 0xff) << 8) | (p[offset + 1] & 0xff);
+		}
+	}
+}
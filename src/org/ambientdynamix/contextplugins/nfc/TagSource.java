@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import android.nfc.Tag;
+
+/**
+ * A source of discovered tags that feeds {@link NfcPluginRuntime} directly with {@link Tag} objects, as an alternative
+ * to the NFC intents relayed by Dynamix. See {@link ReaderModeTagSource} and {@link ManualTagSource}.
+ */
+interface TagSource {
+	/**
+	 * Receives discovered tags, on the source's thread.
+	 */
+	interface Listener {
+		public void onTagDiscovered(Tag tag);
+	}
+
+	public void start(Listener listener);
+
+	public void stop();
+}
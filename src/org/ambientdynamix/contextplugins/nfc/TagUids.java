@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+/**
+ * Packs tag UIDs into longs for compact storage and comparison. Has no Android dependencies, so that files keyed by
+ * packed UIDs can be built off-device.
+ * <p>
+ * UIDs of up to {@link #MAX_EXACT_LENGTH} bytes, which covers the 4 and 7 byte UIDs of ISO 14443-A tags, are packed
+ * exactly: the length in the top byte and the UID big-endian below it, so UIDs that differ only in length or leading
+ * zeros never collide. Longer UIDs, such as 8 byte ISO 15693 and 10 byte ISO 14443-A UIDs, are folded with a 64-bit
+ * FNV-1a hash and have the sign bit set; users that need exact matches keep the full UID for those and compare it.
+ */
+final class TagUids {
+	static final int MAX_EXACT_LENGTH = 7;
+
+	private TagUids() {
+	}
+
+	public static long pack(byte[] uid) {
+		long packed;
+		if (uid.length <= MAX_EXACT_LENGTH) {
+			packed = (long) uid.length << 56;
+			for (int i = 0; i < uid.length; i++)
+				packed |= (long) (uid[i] & 0xff) << ((uid.length - 1 - i) * 8);
+			return packed;
+		}
+		packed = 0xcbf29ce484222325L;
+		for (byte b : uid) {
+			packed ^= b & 0xff;
+			packed *= 0x100000001b3L;
+		}
+		return packed | Long.MIN_VALUE;
+	}
+
+	/**
+	 * Returns true if the packed UID holds the whole UID, false if it is a hash of a longer one.
+	 */
+	public static boolean isExact(long packed) {
+		return packed >= 0;
+	}
+
+	/**
+	 * Returns the length of an exactly packed UID.
+	 */
+	public static int length(long packed) {
+		return (int) (packed >>> 56);
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory tap analytics over packed tag UIDs (see {@link TagUids}): a count-min sketch estimates how often each
+ * tag was tapped, a small min-heap keeps the most tapped tags, and per-second buckets over the last minute give the
+ * tap rate. Memory is constant however many distinct tags are seen. {@link #recordTap(byte[], long)} never blocks or
+ * allocates: counters are updated with atomic operations, and if another thread is updating the heap at the same
+ * moment the heap update is skipped, which only makes the top list slightly more approximate. The heap keeps the UID
+ * bytes of its tags, so that the summary can name them.
+ */
+class TapAnalytics {
+	private static final int DEPTH = 4;
+	private static final int WIDTH = 2048;
+	private static final int WINDOW_SECONDS = 60;
+	private static final long[] SEEDS = new long[] { 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+			0xD6E8FEB86659FD93L };
+	private final int k;
+	private final AtomicIntegerArray sketch = new AtomicIntegerArray(DEPTH * WIDTH);
+	/** Per-second buckets, each the second in the high 32 bits and the tap count in the low 32 bits */
+	private final AtomicLongArray buckets = new AtomicLongArray(WINDOW_SECONDS);
+	private final AtomicLong totalTaps = new AtomicLong();
+	// Min-heap of the top tags by estimated count, guarded by heapBusy
+	private final AtomicBoolean heapBusy = new AtomicBoolean();
+	private final long[] heapUids;
+	private final byte[][] heapIds;
+	private final long[] heapCounts;
+	private int heapSize;
+
+	/**
+	 * Creates analytics tracking the k most tapped tags.
+	 */
+	TapAnalytics(int k) {
+		this.k = k;
+		this.heapUids = new long[k];
+		this.heapIds = new byte[k][];
+		this.heapCounts = new long[k];
+	}
+
+	/**
+	 * Records a tap of the tag with the given UID at the given wall clock time. The UID array is kept, not copied, and
+	 * must not be modified.
+	 */
+	public void recordTap(byte[] uid, long nowMillis) {
+		long packedUid = TagUids.pack(uid);
+		totalTaps.incrementAndGet();
+		recordRate(nowMillis / 1000);
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < DEPTH; row++) {
+			int index = row * WIDTH + (int) (mix(packedUid ^ SEEDS[row]) & (WIDTH - 1));
+			estimate = Math.min(estimate, sketch.incrementAndGet(index) & 0xffffffffL);
+		}
+		if (heapBusy.compareAndSet(false, true)) {
+			try {
+				offer(packedUid, uid, estimate);
+			} finally {
+				heapBusy.set(false);
+			}
+		}
+	}
+
+	private void recordRate(long second) {
+		int index = (int) (second % WINDOW_SECONDS);
+		// The second and count change together, so a tap racing a bucket reset is never lost
+		while (true) {
+			long bucket = buckets.get(index);
+			long next = bucket >>> 32 == second ? bucket + 1 : (second << 32) | 1;
+			if (buckets.compareAndSet(index, bucket, next))
+				return;
+		}
+	}
+
+	private void offer(long uid, byte[] id, long estimate) {
+		for (int i = 0; i < heapSize; i++) {
+			if (heapUids[i] == uid) {
+				heapCounts[i] = estimate;
+				siftDown(i);
+				return;
+			}
+		}
+		if (heapSize < k) {
+			int i = heapSize++;
+			heapUids[i] = uid;
+			heapIds[i] = id;
+			heapCounts[i] = estimate;
+			siftUp(i);
+		} else if (k > 0 && estimate > heapCounts[0]) {
+			heapUids[0] = uid;
+			heapIds[0] = id;
+			heapCounts[0] = estimate;
+			siftDown(0);
+		}
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (heapCounts[parent] <= heapCounts[i])
+				return;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int smallest = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if (left < heapSize && heapCounts[left] < heapCounts[smallest])
+				smallest = left;
+			if (right < heapSize && heapCounts[right] < heapCounts[smallest])
+				smallest = right;
+			if (smallest == i)
+				return;
+			swap(i, smallest);
+			i = smallest;
+		}
+	}
+
+	private void swap(int a, int b) {
+		long uid = heapUids[a];
+		byte[] id = heapIds[a];
+		long count = heapCounts[a];
+		heapUids[a] = heapUids[b];
+		heapIds[a] = heapIds[b];
+		heapCounts[a] = heapCounts[b];
+		heapUids[b] = uid;
+		heapIds[b] = id;
+		heapCounts[b] = count;
+	}
+
+	/**
+	 * Returns the number of taps in the minute before the given time.
+	 */
+	public long tapsInLastMinute(long nowMillis) {
+		long second = nowMillis / 1000;
+		long taps = 0;
+		for (int i = 0; i < WINDOW_SECONDS; i++) {
+			long bucket = buckets.get(i);
+			long bucketSecond = bucket >>> 32;
+			if (bucketSecond > second - WINDOW_SECONDS && bucketSecond <= second)
+				taps += bucket & 0xffffffffL;
+		}
+		return taps;
+	}
+
+	/**
+	 * Returns a summary of the current state, with the top tags ordered by descending estimated count. Spins briefly
+	 * if a tap is updating the heap.
+	 */
+	public NfcTapStatistics summarize(long nowMillis) {
+		byte[][] ids;
+		long[] counts;
+		while (!heapBusy.compareAndSet(false, true))
+			Thread.yield();
+		try {
+			ids = new byte[heapSize][];
+			counts = new long[heapSize];
+			System.arraycopy(heapIds, 0, ids, 0, heapSize);
+			System.arraycopy(heapCounts, 0, counts, 0, heapSize);
+		} finally {
+			heapBusy.set(false);
+		}
+		// Selection sort, k is small
+		for (int i = 0; i < counts.length; i++) {
+			int max = i;
+			for (int j = i + 1; j < counts.length; j++) {
+				if (counts[j] > counts[max])
+					max = j;
+			}
+			byte[] id = ids[i];
+			long count = counts[i];
+			ids[i] = ids[max];
+			counts[i] = counts[max];
+			ids[max] = id;
+			counts[max] = count;
+		}
+		String[] tagIds = new String[ids.length];
+		for (int i = 0; i < ids.length; i++)
+			tagIds[i] = NfcTag.byteArrayToHexString(ids[i]);
+		return new NfcTapStatistics(nowMillis, totalTaps.get(), tapsInLastMinute(nowMillis), tagIds, counts);
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+}
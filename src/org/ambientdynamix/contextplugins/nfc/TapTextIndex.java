@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+
+import android.util.Log;
+
+/**
+ * Inverted index over the words of recently decoded text records and the hosts and path segments of recently decoded
+ * URIs, so that apps can ask whether a tag with some text or a URI under some host was seen lately without keeping
+ * copies of the events (see {@link NfcTapQueryResult}). Each indexed record gets a consecutive int id; each token maps
+ * to a posting list of (record id, position) pairs, in ascending order, so that a query only matches tokens seen in
+ * the same record, and a phrase only matches its words in order. The records themselves are kept in a ring of fixed
+ * capacity, so a record leaves the index when its tap is older than the window or when the ring is full, and posting
+ * lists drop entries that left lazily, whenever they are touched and in a sweep every quarter of the capacity. Queries
+ * intersect the posting lists of their tokens, starting from the shortest. Methods are synchronized, the tap path only
+ * holds the lock to append a few entries.
+ */
+class TapTextIndex {
+	/** Settings key holding how long taps stay in the index, in milliseconds, 0 (the default) disables the index */
+	public static final String WINDOW_SETTINGS_KEY = "text_index_window_ms";
+	/** Settings key holding the most records kept in the index, rounded up to a power of two */
+	public static final String CAPACITY_SETTINGS_KEY = "text_index_max_records";
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	private static final long[] NO_TAPS = new long[0];
+	// Token prefixes, so that words, hosts and path segments at different depths do not match each other
+	private static final String WORD = "w:";
+	private static final String HOST = "h:";
+	private static final String PATH = "p";
+	private final String TAG = this.getClass().getSimpleName();
+	private volatile long windowMillis;
+	private final Map<String, Postings> postings = new HashMap<String, Postings>();
+	// Ring of indexed records, slot id & mask holds record id
+	private int mask = -1;
+	private long[] sequences;
+	private long[] times;
+	private byte[][] uids;
+	// Ids of the oldest record still indexed and of the next record
+	private int oldestId;
+	private int nextId;
+	private int addsSinceSweep;
+
+	/**
+	 * The (record id, token position) pairs a token was seen at, ascending, in ids[start, end) and positions[start,
+	 * end).
+	 */
+	private static final class Postings {
+		int[] ids = new int[2];
+		int[] positions = new int[2];
+		int start;
+		int end;
+
+		void add(int id, int position) {
+			if (end == ids.length) {
+				int size = end - start;
+				if (start > 0 && size < ids.length / 2) {
+					System.arraycopy(ids, start, ids, 0, size);
+					System.arraycopy(positions, start, positions, 0, size);
+				} else {
+					ids = grow(ids, start, size);
+					positions = grow(positions, start, size);
+				}
+				start = 0;
+				end = size;
+			}
+			ids[end] = id;
+			positions[end++] = position;
+		}
+
+		private static int[] grow(int[] values, int start, int size) {
+			int[] grown = new int[values.length * 2];
+			System.arraycopy(values, start, grown, 0, size);
+			return grown;
+		}
+
+		/**
+		 * Drops the entries of records below oldestId and returns the number left.
+		 */
+		int trim(int oldestId) {
+			while (start < end && ids[start] < oldestId)
+				start++;
+			if (start == end)
+				start = end = 0;
+			return end - start;
+		}
+
+		/**
+		 * Returns whether the token was seen at the given position of the record whose entries start at from.
+		 */
+		boolean hasPosition(int from, int id, int position) {
+			for (int i = from; i < end && ids[i] == id && positions[i] <= position; i++) {
+				if (positions[i] == position)
+					return true;
+			}
+			return false;
+		}
+	}
+
+	public boolean isEnabled() {
+		return windowMillis > 0;
+	}
+
+	/**
+	 * Applies the {@link #WINDOW_SETTINGS_KEY} and {@link #CAPACITY_SETTINGS_KEY} settings. The index is cleared if it
+	 * is disabled or its capacity changes.
+	 */
+	public synchronized void configure(ContextPluginSettings settings) {
+		long window = 0;
+		int capacity = DEFAULT_CAPACITY;
+		String value = settings != null ? settings.get(WINDOW_SETTINGS_KEY) : null;
+		String size = settings != null ? settings.get(CAPACITY_SETTINGS_KEY) : null;
+		try {
+			if (value != null)
+				window = Math.max(0, Long.parseLong(value.trim()));
+			if (size != null)
+				capacity = Math.max(16, Math.min(1 << 24, Integer.parseInt(size.trim())));
+		} catch (NumberFormatException e) {
+			Log.w(TAG, "Ignoring text index settings: " + e.getMessage());
+		}
+		capacity = Integer.highestOneBit(capacity - 1) << 1;
+		if (window == 0) {
+			clear(0);
+		} else if (capacity != mask + 1) {
+			clear(capacity);
+		}
+		windowMillis = window;
+	}
+
+	private void clear(int capacity) {
+		postings.clear();
+		mask = capacity - 1;
+		sequences = capacity > 0 ? new long[capacity] : null;
+		times = capacity > 0 ? new long[capacity] : null;
+		uids = capacity > 0 ? new byte[capacity][] : null;
+		oldestId = nextId = 0;
+		addsSinceSweep = 0;
+	}
+
+	/**
+	 * Indexes the words of a text record seen in the given tap. Taps must be added in the order of their sequence
+	 * numbers. The UID array is kept, not copied.
+	 */
+	public void addText(long tapSequence, byte[] uid, long nowMillis, String text) {
+		List<String> tokens = new ArrayList<String>();
+		addWords(tokens, text);
+		add(tapSequence, uid, nowMillis, tokens);
+	}
+
+	/**
+	 * Indexes the host (and its parent domains) and the path segments of a URI seen in the given tap, as one record.
+	 * host may be null.
+	 */
+	public void addUri(long tapSequence, byte[] uid, long nowMillis, String host, List<String> pathSegments) {
+		List<String> tokens = new ArrayList<String>();
+		if (host != null && host.length() > 0) {
+			host = host.toLowerCase(Locale.US);
+			tokens.add(HOST + host);
+			for (int dot = host.indexOf('.'); dot >= 0 && host.indexOf('.', dot + 1) >= 0; dot = host.indexOf('.',
+					dot + 1))
+				tokens.add(HOST + host.substring(dot + 1));
+		}
+		if (pathSegments != null) {
+			for (int depth = 0; depth < pathSegments.size(); depth++)
+				tokens.add(PATH + depth + ':' + pathSegments.get(depth));
+		}
+		add(tapSequence, uid, nowMillis, tokens);
+	}
+
+	private synchronized void add(long tapSequence, byte[] uid, long nowMillis, List<String> tokens) {
+		if (mask < 0 || tokens.isEmpty())
+			return;
+		// Ids stay positive, start over long before they would wrap
+		if (nextId == Integer.MAX_VALUE)
+			clear(mask + 1);
+		int id = nextId++;
+		int slot = id & mask;
+		sequences[slot] = tapSequence;
+		times[slot] = nowMillis;
+		uids[slot] = uid;
+		evict(nowMillis);
+		if (++addsSinceSweep > (mask + 1) / 4)
+			sweep();
+		for (int t = 0; t < tokens.size(); t++) {
+			String token = tokens.get(t);
+			Postings list = postings.get(token);
+			if (list == null) {
+				list = new Postings();
+				postings.put(token, list);
+			} else {
+				list.trim(oldestId);
+			}
+			list.add(id, t);
+		}
+	}
+
+	private void evict(long nowMillis) {
+		long cutoff = nowMillis - windowMillis;
+		while (oldestId < nextId && (nextId - oldestId > mask + 1 || times[oldestId & mask] < cutoff))
+			oldestId++;
+	}
+
+	/**
+	 * Trims all posting lists and removes the tokens no longer seen in any indexed record.
+	 */
+	private void sweep() {
+		addsSinceSweep = 0;
+		for (Iterator<Postings> it = postings.values().iterator(); it.hasNext();) {
+			if (it.next().trim(oldestId) == 0)
+				it.remove();
+		}
+	}
+
+	/**
+	 * Answers a query: the indexed taps, oldest first, in which a text record contained the words of the given phrase
+	 * in order, and a URI with the given host (or a subdomain of it) and a path starting with the given segments was
+	 * seen. Each part may be null to leave it out, but at least one must be given.
+	 */
+	public synchronized NfcTapQueryResult query(String text, String host, String path, long nowMillis) {
+		long[] taps = null;
+		if (text != null)
+			taps = findText(text, nowMillis);
+		if (host != null || path != null) {
+			long[] uriTaps = findUri(host, path, nowMillis);
+			taps = taps != null ? intersect(taps, uriTaps) : uriTaps;
+		}
+		if (taps == null)
+			taps = NO_TAPS;
+		String[] tagIds = new String[taps.length];
+		long[] tapTimes = new long[taps.length];
+		for (int t = 0; t < taps.length; t++) {
+			int slot = slotOf(taps[t]);
+			tagIds[t] = uids[slot] != null ? NfcTag.byteArrayToHexString(uids[slot]) : "";
+			tapTimes[t] = times[slot];
+		}
+		return new NfcTapQueryResult(text, host, path, taps, tagIds, tapTimes);
+	}
+
+	/**
+	 * Returns the sequence numbers of the indexed taps, oldest first, in which a text record contained the words of
+	 * the given phrase next to each other and in order.
+	 */
+	public long[] findText(String phrase, long nowMillis) {
+		List<String> tokens = new ArrayList<String>();
+		addWords(tokens, phrase);
+		return find(tokens, true, nowMillis);
+	}
+
+	/**
+	 * Returns the sequence numbers of the indexed taps, oldest first, in which a URI with the given host (or a
+	 * subdomain of it) and a path starting with the given segments was seen. host may be null to match any host, and
+	 * path null or "/" to match any path.
+	 */
+	public long[] findUri(String host, String path, long nowMillis) {
+		List<String> tokens = new ArrayList<String>();
+		if (host != null && host.length() > 0)
+			tokens.add(HOST + host.toLowerCase(Locale.US));
+		if (path != null) {
+			int depth = 0;
+			for (String segment : path.split("/")) {
+				if (segment.length() > 0)
+					tokens.add(PATH + depth++ + ':' + segment);
+			}
+		}
+		return find(tokens, false, nowMillis);
+	}
+
+	/**
+	 * Returns the taps with a record containing all tokens, at consecutive positions if phrase is set.
+	 */
+	private synchronized long[] find(List<String> tokens, boolean phrase, long nowMillis) {
+		if (mask < 0 || tokens.isEmpty())
+			return NO_TAPS;
+		evict(nowMillis);
+		Postings[] lists = new Postings[tokens.size()];
+		int shortest = 0;
+		for (int t = 0; t < lists.length; t++) {
+			lists[t] = postings.get(tokens.get(t));
+			if (lists[t] == null || lists[t].trim(oldestId) == 0)
+				return NO_TAPS;
+			if (lists[t].end - lists[t].start < lists[shortest].end - lists[shortest].start)
+				shortest = t;
+		}
+		Postings first = lists[shortest];
+		long[] taps = new long[first.end - first.start];
+		int count = 0;
+		// Cursor per list at the first entry of the candidate record, all ids ascend
+		int[] cursors = new int[lists.length];
+		for (int t = 0; t < lists.length; t++)
+			cursors[t] = lists[t].start;
+		candidates: for (int i = first.start; i < first.end; i++) {
+			int id = first.ids[i];
+			if (i > first.start && first.ids[i - 1] == id)
+				continue;
+			cursors[shortest] = i;
+			for (int t = 0; t < lists.length; t++) {
+				if (t == shortest)
+					continue;
+				Postings list = lists[t];
+				int c = seek(list.ids, cursors[t], list.end, id);
+				cursors[t] = c;
+				if (c == list.end)
+					break candidates;
+				if (list.ids[c] != id)
+					continue candidates;
+			}
+			if (phrase && !isPhrase(lists, cursors, id))
+				continue;
+			// Records of a tap are consecutive
+			long sequence = sequences[id & mask];
+			if (count == 0 || taps[count - 1] != sequence)
+				taps[count++] = sequence;
+		}
+		return Arrays.copyOf(taps, count);
+	}
+
+	/**
+	 * Returns whether the record has the tokens of lists at consecutive positions, given the cursors at its entries.
+	 */
+	private static boolean isPhrase(Postings[] lists, int[] cursors, int id) {
+		Postings head = lists[0];
+		starts: for (int i = cursors[0]; i < head.end && head.ids[i] == id; i++) {
+			int position = head.positions[i];
+			for (int t = 1; t < lists.length; t++) {
+				if (!lists[t].hasPosition(cursors[t], id, position + t))
+					continue starts;
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the first index in ids[from, to) whose id is at least id, galloping then searching binary.
+	 */
+	private static int seek(int[] ids, int from, int to, int id) {
+		int step = 1;
+		int low = from;
+		int high = from;
+		while (high < to && ids[high] < id) {
+			low = high + 1;
+			high += step;
+			step <<= 1;
+		}
+		high = Math.min(high, to);
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (ids[mid] < id)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the sequence numbers in both ascending arrays.
+	 */
+	private static long[] intersect(long[] a, long[] b) {
+		long[] both = new long[Math.min(a.length, b.length)];
+		int count = 0;
+		for (int i = 0, j = 0; i < a.length && j < b.length;) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				both[count++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(both, count);
+	}
+
+	/**
+	 * Returns the UID of the tag of the given indexed tap, or null if the tap is not in the index.
+	 */
+	public synchronized byte[] getUid(long tapSequence) {
+		int slot = slotOf(tapSequence);
+		return slot >= 0 ? uids[slot] : null;
+	}
+
+	/**
+	 * Returns the wall clock time of the given indexed tap, or 0 if the tap is not in the index.
+	 */
+	public synchronized long getTapTime(long tapSequence) {
+		int slot = slotOf(tapSequence);
+		return slot >= 0 ? times[slot] : 0;
+	}
+
+	/**
+	 * Returns the slot of the first indexed record of the given tap, or -1.
+	 */
+	private int slotOf(long tapSequence) {
+		if (mask < 0)
+			return -1;
+		// Sequences ascend with ids
+		int low = oldestId;
+		int high = nextId;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (sequences[mid & mask] < tapSequence)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low < nextId && sequences[low & mask] == tapSequence ? low & mask : -1;
+	}
+
+	/**
+	 * Returns the number of records and of distinct tokens in the index.
+	 */
+	public synchronized String toString() {
+		return TAG + ": " + (nextId - oldestId) + " records, " + postings.size() + " tokens";
+	}
+
+	/**
+	 * Adds the lower case runs of letters and digits in text.
+	 */
+	private static void addWords(List<String> tokens, String text) {
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (word && start < 0) {
+				start = i;
+			} else if (!word && start >= 0) {
+				tokens.add(WORD + text.substring(start, i).toLowerCase(Locale.US));
+				start = -1;
+			}
+		}
+	}
+}
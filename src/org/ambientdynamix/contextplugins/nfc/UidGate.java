@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+
+import android.util.Log;
+
+/**
+ * Early allow/deny gate on tag UIDs, checked before anything else is done for a tap. The UID list is held as a Bloom
+ * filter, which rejects most unlisted tags with a few bit tests, backed by a sorted array of packed UIDs (see
+ * {@link TagUids}) that resolves the filter's false positives exactly. UIDs too long to be packed exactly are kept
+ * whole, sorted by their packed hash, and compared in full. Lists are built off the tap path and swapped in with a
+ * single volatile write, so bulk updates of hundreds of thousands of UIDs never block taps.
+ */
+class UidGate {
+	/** Settings key holding the gate mode: "off" (default), "allow" or "deny" */
+	public static final String MODE_SETTINGS_KEY = "uid_gate_mode";
+	/** Settings key holding a comma separated list of hex UIDs */
+	public static final String UIDS_SETTINGS_KEY = "uid_gate_uids";
+	/** Settings key holding the path of a file with one hex UID per line ('#' starts a comment) */
+	public static final String FILE_SETTINGS_KEY = "uid_gate_file";
+	public static final int MODE_OFF = 0;
+	/** Only listed tags pass */
+	public static final int MODE_ALLOW = 1;
+	/** Listed tags are dropped */
+	public static final int MODE_DENY = 2;
+	private static final int BITS_PER_UID = 10;
+	private static final int HASHES = 7;
+	private final String TAG = this.getClass().getSimpleName();
+	private volatile Snapshot snapshot = new UidList().toSnapshot(MODE_OFF);
+	private final AtomicLong passed = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong falsePositives = new AtomicLong();
+
+	/**
+	 * An immutable mode and UID list.
+	 */
+	private static final class Snapshot {
+		final int mode;
+		final long[] bits;
+		/** Exactly packed UIDs, sorted */
+		final long[] uids;
+		/** Packed hashes of the long UIDs, sorted, and the UIDs in the same order */
+		final long[] hashedKeys;
+		final byte[][] hashedUids;
+
+		Snapshot(int mode, long[] sortedUids, byte[][] sortedHashedUids) {
+			this.mode = mode;
+			this.uids = sortedUids;
+			this.hashedUids = sortedHashedUids;
+			this.hashedKeys = new long[sortedHashedUids.length];
+			for (int i = 0; i < hashedKeys.length; i++)
+				hashedKeys[i] = TagUids.pack(sortedHashedUids[i]);
+			int count = sortedUids.length + hashedKeys.length;
+			this.bits = new long[Math.max(1, (count * BITS_PER_UID + 63) / 64)];
+			for (long uid : sortedUids)
+				add(uid);
+			for (long key : hashedKeys)
+				add(key);
+		}
+
+		private void add(long uid) {
+			long m = bits.length * 64L;
+			long h1 = mix(uid);
+			long h2 = mix(h1) | 1;
+			for (int i = 0; i < HASHES; i++) {
+				long bit = ((h1 + i * h2) & Long.MAX_VALUE) % m;
+				bits[(int) (bit >>> 6)] |= 1L << bit;
+			}
+		}
+
+		boolean mightContain(long uid) {
+			long m = bits.length * 64L;
+			long h1 = mix(uid);
+			long h2 = mix(h1) | 1;
+			for (int i = 0; i < HASHES; i++) {
+				long bit = ((h1 + i * h2) & Long.MAX_VALUE) % m;
+				if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+					return false;
+			}
+			return true;
+		}
+
+		boolean containsHashed(long packedUid, byte[] uid) {
+			int i = Arrays.binarySearch(hashedKeys, packedUid);
+			if (i < 0)
+				return false;
+			// Distinct UIDs may share a hash
+			while (i > 0 && hashedKeys[i - 1] == packedUid)
+				i--;
+			for (; i < hashedKeys.length && hashedKeys[i] == packedUid; i++) {
+				if (Arrays.equals(hashedUids[i], uid))
+					return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Returns true if a tap of the tag with the given UID bytes (which may be null) should be processed.
+	 */
+	public boolean admit(byte[] uid) {
+		Snapshot s = snapshot;
+		if (s.mode == MODE_OFF)
+			return true;
+		boolean listed = uid != null && contains(s, uid);
+		boolean admit = s.mode == MODE_ALLOW ? listed : !listed;
+		(admit ? passed : dropped).incrementAndGet();
+		return admit;
+	}
+
+	private boolean contains(Snapshot s, byte[] uid) {
+		long packedUid = TagUids.pack(uid);
+		if (!s.mightContain(packedUid))
+			return false;
+		boolean found = TagUids.isExact(packedUid) ? Arrays.binarySearch(s.uids, packedUid) >= 0 : s.containsHashed(
+				packedUid, uid);
+		if (found)
+			return true;
+		falsePositives.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Replaces the mode and UID list. The UIDs are copied.
+	 */
+	public void swap(int mode, byte[][] uids) {
+		UidList list = new UidList();
+		for (byte[] uid : uids)
+			list.add(uid.clone());
+		snapshot = list.toSnapshot(mode);
+	}
+
+	/**
+	 * Applies the gate settings, reading the UID file if one is given. Without a mode setting the gate is off. On
+	 * error the current gate is kept.
+	 */
+	public void configure(ContextPluginSettings settings) {
+		String mode = settings != null ? settings.get(MODE_SETTINGS_KEY) : null;
+		mode = mode != null ? mode.trim().toLowerCase(Locale.US) : "off";
+		try {
+			if (mode.equals("off")) {
+				swap(MODE_OFF, new byte[0][]);
+				return;
+			}
+			if (!mode.equals("allow") && !mode.equals("deny"))
+				throw new IllegalArgumentException("Unknown mode: " + mode);
+			UidList list = new UidList();
+			String uids = settings.get(UIDS_SETTINGS_KEY);
+			if (uids != null) {
+				for (String uid : uids.split(","))
+					list.add(uid);
+			}
+			String file = settings.get(FILE_SETTINGS_KEY);
+			if (file != null)
+				list.addFile(file.trim());
+			snapshot = list.toSnapshot(mode.equals("allow") ? MODE_ALLOW : MODE_DENY);
+			Log.i(TAG, "UID gate in " + mode + " mode with " + list.size() + " UIDs");
+		} catch (Exception e) {
+			Log.w(TAG, "Keeping previous UID gate: " + e);
+		}
+	}
+
+	public long getPassedCount() {
+		return passed.get();
+	}
+
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Returns the number of Bloom filter hits that the exact list rejected.
+	 */
+	public long getFalsePositiveCount() {
+		return falsePositives.get();
+	}
+
+	/**
+	 * Growable list of packed UIDs, so that large files are not held as strings. UIDs too long to be packed exactly
+	 * are kept whole.
+	 */
+	private static final class UidList {
+		long[] uids = new long[1024];
+		int size;
+		final List<byte[]> hashed = new ArrayList<byte[]>();
+
+		void add(String hex) {
+			hex = hex.trim();
+			if (hex.length() != 0)
+				add(HexStrings.toBytes(hex, 0));
+		}
+
+		void add(byte[] uid) {
+			long packed = TagUids.pack(uid);
+			if (!TagUids.isExact(packed)) {
+				hashed.add(uid);
+				return;
+			}
+			if (size == uids.length)
+				uids = Arrays.copyOf(uids, size * 2);
+			uids[size++] = packed;
+		}
+
+		void addFile(String path) throws IOException {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), "US-ASCII"));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					int comment = line.indexOf('#');
+					add(comment >= 0 ? line.substring(0, comment) : line);
+				}
+			} finally {
+				reader.close();
+			}
+		}
+
+		int size() {
+			return size + hashed.size();
+		}
+
+		Snapshot toSnapshot(int mode) {
+			long[] sorted = Arrays.copyOf(uids, size);
+			Arrays.sort(sorted);
+			byte[][] sortedHashed = hashed.toArray(new byte[hashed.size()][]);
+			Arrays.sort(sortedHashed, new Comparator<byte[]>() {
+				@Override
+				public int compare(byte[] a, byte[] b) {
+					long x = TagUids.pack(a);
+					long y = TagUids.pack(b);
+					return x < y ? -1 : (x == y ? 0 : 1);
+				}
+			});
+			return new Snapshot(mode, sorted, sortedHashed);
+		}
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+
+import android.util.Log;
+
+/**
+ * Read-only asset metadata (owner, location and class) by tag UID, looked up on the tap path to enrich
+ * {@link NfcTag} events. The store is a file built offline with {@link Builder} and memory-mapped, so lookups read
+ * the mapped pages directly and entries are never loaded onto the heap, however many there are. The file holds a
+ * header, an open-addressing hash table with linear probing over packed UIDs (see {@link TagUids}) at most two
+ * thirds full, and the entries:
+ * 
+ * <pre>
+ * header:  int magic "NFCM", int version 2, int slot count (a power of two), int entry count
+ * slot:    long packed UID, int entry offset in the file (0 if the slot is empty), int unused
+ * entry:   an unsigned byte length and the UID bytes, then owner, location and class, each an unsigned short
+ *          length and that many bytes of UTF-8
+ * </pre>
+ * 
+ * All numbers are big-endian. UIDs too long to be packed exactly are matched against the UID of the entry, so
+ * distinct UIDs with the same packed hash never share metadata. A new file is installed by renaming it over the
+ * configured one, which {@link #install(File)} does, and is mapped on the next
+ * {@link #configure(ContextPluginSettings)} or install; the mapping is swapped with a single volatile write, so taps
+ * see either the old or the new store, never a mix.
+ */
+class UidMetadataStore {
+	/** Settings key holding the path of the store file, the store is disabled if absent */
+	public static final String FILE_SETTINGS_KEY = "uid_metadata_file";
+	static final int MAGIC = 0x4E46434D;
+	static final int VERSION = 2;
+	private static final int HEADER_SIZE = 16;
+	private static final int SLOT_SIZE = 16;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private final String TAG = this.getClass().getSimpleName();
+	private volatile Mapping mapping;
+
+	/**
+	 * The metadata of a UID. Fields are null if not set.
+	 */
+	static final class Entry {
+		final String owner;
+		final String location;
+		final String assetClass;
+
+		Entry(String owner, String location, String assetClass) {
+			this.owner = owner;
+			this.location = location;
+			this.assetClass = assetClass;
+		}
+	}
+
+	/**
+	 * A mapped store file. Immutable, only absolute reads are made on the buffer so it can be shared by threads.
+	 */
+	private static final class Mapping {
+		final String path;
+		final long lastModified;
+		final long length;
+		final MappedByteBuffer buffer;
+		final int mask;
+		final int entries;
+
+		Mapping(File file) throws IOException {
+			path = file.getPath();
+			lastModified = file.lastModified();
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				length = raf.length();
+				if (length < HEADER_SIZE || length > Integer.MAX_VALUE)
+					throw new IOException("Bad store size: " + length);
+				// The mapping stays valid once the file is closed
+				buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+			} finally {
+				raf.close();
+			}
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+				throw new IOException("Not a UID metadata store: " + path);
+			int slots = buffer.getInt(8);
+			if (slots <= 0 || Integer.bitCount(slots) != 1 || HEADER_SIZE + (long) slots * SLOT_SIZE > length)
+				throw new IOException("Bad slot count: " + slots);
+			mask = slots - 1;
+			entries = buffer.getInt(12);
+		}
+
+		boolean isCurrent(File file) {
+			return file.getPath().equals(path) && file.lastModified() == lastModified && file.length() == length;
+		}
+
+		/**
+		 * Returns the file offset of the entry of the UID, or 0.
+		 */
+		int find(byte[] uid) {
+			long packedUid = TagUids.pack(uid);
+			boolean exact = TagUids.isExact(packedUid);
+			int slot = (int) mix(packedUid) & mask;
+			for (int probes = 0; probes <= mask; probes++) {
+				int position = HEADER_SIZE + slot * SLOT_SIZE;
+				int offset = buffer.getInt(position + 8);
+				if (offset == 0)
+					return 0;
+				if (buffer.getLong(position) == packedUid && (exact || uidEquals(offset, uid)))
+					return offset;
+				slot = (slot + 1) & mask;
+			}
+			return 0;
+		}
+
+		private boolean uidEquals(int offset, byte[] uid) {
+			if ((buffer.get(offset) & 0xff) != uid.length)
+				return false;
+			for (int i = 0; i < uid.length; i++) {
+				if (buffer.get(offset + 1 + i) != uid[i])
+					return false;
+			}
+			return true;
+		}
+
+		Entry read(int offset) {
+			offset += 1 + (buffer.get(offset) & 0xff);
+			int location = offset + 2 + length(offset);
+			int assetClass = location + 2 + length(location);
+			return new Entry(readString(offset), readString(location), readString(assetClass));
+		}
+
+		private int length(int offset) {
+			return buffer.getShort(offset) & 0xffff;
+		}
+
+		private String readString(int offset) {
+			int length = length(offset);
+			if (length == 0)
+				return null;
+			byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i++)
+				bytes[i] = buffer.get(offset + 2 + i);
+			return new String(bytes, UTF_8);
+		}
+	}
+
+	public boolean isOpen() {
+		return mapping != null;
+	}
+
+	/**
+	 * Returns the number of entries in the mapped store, 0 if none is open.
+	 */
+	public int size() {
+		Mapping m = mapping;
+		return m != null ? m.entries : 0;
+	}
+
+	/**
+	 * Maps the file named by the {@link #FILE_SETTINGS_KEY} setting, unless it is already mapped and has not changed
+	 * since, or closes the store if the setting is absent. Keeps the previous store if the file cannot be mapped.
+	 */
+	public synchronized void configure(ContextPluginSettings settings) {
+		String path = settings != null ? settings.get(FILE_SETTINGS_KEY) : null;
+		if (path == null) {
+			mapping = null;
+			return;
+		}
+		File file = new File(path.trim());
+		Mapping current = mapping;
+		if (current != null && current.isCurrent(file))
+			return;
+		try {
+			open(file);
+		} catch (IOException e) {
+			Log.w(TAG, "Keeping previous UID metadata: " + e);
+		}
+	}
+
+	/**
+	 * Installs a store file built with {@link Builder} by renaming it over the configured file, which must be on the
+	 * same file system, and maps it.
+	 */
+	public synchronized void install(File built) throws IOException {
+		Mapping current = mapping;
+		if (current == null)
+			throw new IOException("No store file is configured");
+		File target = new File(current.path);
+		if (!built.renameTo(target))
+			throw new IOException("Could not rename " + built + " to " + target);
+		open(target);
+	}
+
+	private void open(File file) throws IOException {
+		Mapping m = new Mapping(file);
+		mapping = m;
+		Log.i(TAG, "Mapped " + m.entries + " UID metadata entries from " + m.path);
+	}
+
+	/**
+	 * Returns the metadata of the tag with the given UID, or null.
+	 */
+	public Entry lookup(byte[] uid) {
+		Mapping m = mapping;
+		if (m == null || uid == null)
+			return null;
+		try {
+			int offset = m.find(uid);
+			return offset != 0 ? m.read(offset) : null;
+		} catch (IndexOutOfBoundsException e) {
+			// Corrupt store
+			return null;
+		}
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+
+	/**
+	 * Builds store files, offline or on a background thread. Has no Android dependencies. Later entries for a UID
+	 * replace earlier ones.
+	 */
+	static final class Builder {
+		/** Entries by UID, which is wrapped so that it is compared by content */
+		private final Map<ByteBuffer, byte[]> entries = new HashMap<ByteBuffer, byte[]>();
+
+		/**
+		 * Builds a store file from metadata text files (see {@link #addFile(String)}) on a plain JVM.
+		 * <p>
+		 * Usage: {@code UidMetadataStore$Builder out.store metadata.csv...}
+		 */
+		public static void main(String[] args) throws Exception {
+			if (args.length < 2) {
+				System.err.println("Usage: UidMetadataStore$Builder out.store metadata.csv...");
+				System.exit(1);
+			}
+			Builder builder = new Builder();
+			for (int i = 1; i < args.length; i++)
+				builder.addFile(args[i]);
+			builder.write(new File(args[0]));
+			System.err.println("Wrote " + builder.size() + " entries to " + args[0]);
+		}
+
+		public void add(byte[] uid, String owner, String location, String assetClass) {
+			if (uid.length > 0xff)
+				throw new IllegalArgumentException("UID too long: " + uid.length);
+			ByteArrayOutputStream entry = new ByteArrayOutputStream();
+			entry.write(uid.length);
+			entry.write(uid, 0, uid.length);
+			writeString(entry, owner);
+			writeString(entry, location);
+			writeString(entry, assetClass);
+			entries.put(ByteBuffer.wrap(uid.clone()), entry.toByteArray());
+		}
+
+		/**
+		 * Adds the entries of a UTF-8 text file with one "uid,owner,location,class" line per tag, the UID in hex.
+		 * Empty fields are not set, text after '#' is ignored.
+		 */
+		public void addFile(String path) throws IOException {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), UTF_8));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					int comment = line.indexOf('#');
+					if (comment >= 0)
+						line = line.substring(0, comment);
+					if (line.trim().length() == 0)
+						continue;
+					String[] fields = line.split(",", -1);
+					if (fields.length != 4)
+						throw new IOException("Expected uid,owner,location,class: " + line);
+					add(HexStrings.toBytes(fields[0].trim(), 0), fields[1].trim(), fields[2].trim(),
+							fields[3].trim());
+				}
+			} finally {
+				reader.close();
+			}
+		}
+
+		public int size() {
+			return entries.size();
+		}
+
+		/**
+		 * Writes the store to the given file, to be installed with {@link UidMetadataStore#install(File)}.
+		 */
+		public void write(File file) throws IOException {
+			int slots = Integer.highestOneBit(Math.max(1, entries.size() * 3 / 2)) << 1;
+			long[] slotUids = new long[slots];
+			byte[][] slotEntries = new byte[slots][];
+			for (Map.Entry<ByteBuffer, byte[]> entry : entries.entrySet()) {
+				long uid = TagUids.pack(entry.getKey().array());
+				int slot = (int) mix(uid) & (slots - 1);
+				while (slotEntries[slot] != null)
+					slot = (slot + 1) & (slots - 1);
+				slotUids[slot] = uid;
+				slotEntries[slot] = entry.getValue();
+			}
+			// Entries are written in slot order
+			int[] slotOffsets = new int[slots];
+			long offset = HEADER_SIZE + (long) slots * SLOT_SIZE;
+			for (int slot = 0; slot < slots; slot++) {
+				if (slotEntries[slot] == null)
+					continue;
+				if (offset > Integer.MAX_VALUE)
+					throw new IOException("Store too large");
+				slotOffsets[slot] = (int) offset;
+				offset += slotEntries[slot].length;
+			}
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(slots);
+				out.writeInt(entries.size());
+				for (int slot = 0; slot < slots; slot++) {
+					out.writeLong(slotUids[slot]);
+					out.writeInt(slotOffsets[slot]);
+					out.writeInt(0);
+				}
+				for (int slot = 0; slot < slots; slot++) {
+					if (slotEntries[slot] != null)
+						out.write(slotEntries[slot]);
+				}
+			} finally {
+				out.close();
+			}
+		}
+
+		private static void writeString(ByteArrayOutputStream out, String value) {
+			byte[] bytes = value != null ? value.getBytes(UTF_8) : new byte[0];
+			if (bytes.length > 0xffff)
+				throw new IllegalArgumentException("Value too long: " + value.length());
+			out.write(bytes.length >>> 8);
+			out.write(bytes.length);
+			out.write(bytes, 0, bytes.length);
+		}
+	}
+}
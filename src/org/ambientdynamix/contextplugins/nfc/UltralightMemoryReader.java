@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.io.IOException;
+
+/**
+ * Dumps the memory of NFC Forum Type 2 tags (MIFARE Ultralight, Ultralight EV1/C and NTAG21x) that carry no NDEF
+ * data, e.g. legacy tags storing IDs in user memory. The memory size is taken from GET_VERSION where the tag supports
+ * it, and pages are fetched with FAST_READ ranges sized to the reader's maximum transceive length; tags without
+ * GET_VERSION are read with 4-page READ commands. Instances are not thread-safe.
+ */
+class UltralightMemoryReader {
+	public static final int PAGE_SIZE = 4;
+	/** Pages of a MIFARE Ultralight, read when the size cannot be determined */
+	public static final int DEFAULT_PAGES = 16;
+	/** Pages of a MIFARE Ultralight C */
+	public static final int ULTRALIGHT_C_PAGES = 48;
+	private static final byte CMD_GET_VERSION = 0x60;
+	private static final byte CMD_READ = 0x30;
+	private static final byte CMD_FAST_READ = 0x3A;
+	private final byte[] getVersion = new byte[] { CMD_GET_VERSION };
+	private final byte[] read = new byte[] { CMD_READ, 0 };
+	private final byte[] fastRead = new byte[] { CMD_FAST_READ, 0, 0 };
+	private int transceiveCount;
+
+	/**
+	 * Reads the whole memory of the tag behind the given, not yet connected, transceiver, which is closed on return.
+	 * fallbackPages is used if the tag does not answer GET_VERSION.
+	 */
+	public NfcRawMemory read(NfcTransceiver transceiver, int fallbackPages) throws IOException {
+		transceiveCount = 0;
+		long start = System.nanoTime();
+		transceiver.connect();
+		try {
+			int pages = versionPages(transceiver);
+			boolean fastReadSupported = pages > 0;
+			if (!fastReadSupported) {
+				// A failed command halts the tag, so start over
+				transceiver.close();
+				transceiver.connect();
+				pages = fallbackPages;
+			}
+			byte[] memory = new byte[pages * PAGE_SIZE];
+			if (fastReadSupported)
+				fastReadAll(transceiver, memory, pages);
+			else
+				readAll(transceiver, memory, pages);
+			return new NfcRawMemory(memory, PAGE_SIZE, transceiveCount, (System.nanoTime() - start) / 1000000L);
+		} finally {
+			transceiver.close();
+		}
+	}
+
+	/**
+	 * Returns the page count reported by GET_VERSION, or 0 if the tag does not support it.
+	 */
+	private int versionPages(NfcTransceiver transceiver) {
+		try {
+			byte[] version = transceive(transceiver, getVersion);
+			if (version.length < 8)
+				return 0;
+			return pagesForStorageSize(version[6] & 0xff);
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Maps the GET_VERSION storage size byte of known NTAG21x and Ultralight EV1 products to their total page count.
+	 */
+	static int pagesForStorageSize(int storageSize) {
+		switch (storageSize) {
+		case 0x0B:
+			// Ultralight EV1 MF0UL11
+			return 20;
+		case 0x0E:
+			// Ultralight EV1 MF0UL21
+			return 41;
+		case 0x0F:
+			// NTAG213
+			return 45;
+		case 0x11:
+			// NTAG215
+			return 135;
+		case 0x13:
+			// NTAG216
+			return 231;
+		default:
+			// Unknown products: the size byte encodes 2^(n/2) user bytes, plus 4 header and 5 configuration pages
+			return storageSize > 0 && storageSize < 0x20 ? (1 << (storageSize >> 1)) / PAGE_SIZE + 9 : 0;
+		}
+	}
+
+	private void fastReadAll(NfcTransceiver transceiver, byte[] memory, int pages) throws IOException {
+		int pagesPerRead = Math.max(1, transceiver.getMaxTransceiveLength() / PAGE_SIZE);
+		for (int page = 0; page < pages; page += pagesPerRead) {
+			int last = Math.min(page + pagesPerRead, pages) - 1;
+			fastRead[1] = (byte) page;
+			fastRead[2] = (byte) last;
+			byte[] data = transceive(transceiver, fastRead);
+			int expected = (last - page + 1) * PAGE_SIZE;
+			if (data.length < expected)
+				throw new IOException("Short FAST_READ response");
+			System.arraycopy(data, 0, memory, page * PAGE_SIZE, expected);
+		}
+	}
+
+	private void readAll(NfcTransceiver transceiver, byte[] memory, int pages) throws IOException {
+		// READ returns 4 pages (16 bytes), wrapping around at the end of memory
+		for (int page = 0; page < pages; page += 4) {
+			read[1] = (byte) page;
+			byte[] data = transceive(transceiver, read);
+			int count = Math.min(4, pages - page) * PAGE_SIZE;
+			if (data.length < count)
+				throw new IOException("Short READ response");
+			System.arraycopy(data, 0, memory, page * PAGE_SIZE, count);
+		}
+	}
+
+	private byte[] transceive(NfcTransceiver transceiver, byte[] command) throws IOException {
+		transceiveCount++;
+		return transceiver.transceive(command);
+	}
+}
@@ -0,0 +1,10 @@
+#!/bin/sh
+# Compiles the plug-in sources against the JVM stand-ins in test/stubs and runs the unit tests in test/src.
+# Usage: JUNIT_CLASSPATH=junit-4.jar:hamcrest-core-1.3.jar test/run-tests.sh
+set -e
+cd "$(dirname "$0")/.."
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+javac -nowarn -encoding UTF-8 -cp "$JUNIT_CLASSPATH" -d "$out" $(find src test/stubs test/src -name '*.java')
+tests=$(cd test/src && find . -name '*Test.java' | sed 's|^\./||; s|\.java$||; s|/|.|g' | sort)
+java -cp "$out:$JUNIT_CLASSPATH" org.junit.runner.JUnitCore $tests
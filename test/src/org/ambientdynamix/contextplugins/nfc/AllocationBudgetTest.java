@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.ambientdynamix.api.application.IContextInfo;
+import org.junit.Test;
+
+import android.nfc.NdefMessage;
+import android.nfc.NdefRecord;
+import android.nfc.Tag;
+
+/**
+ * Allocation budgets of the tap path: decoding, UID formatting and rendering. Each budget is in bytes per call on the
+ * calling thread and includes the returned event or string, so a test fails when a change makes its path allocate
+ * more than it declares. Raise a budget only with the change that needs it.
+ */
+public class AllocationBudgetTest {
+	private static final int GET_RECORDS_BUDGET_BYTES = 2304;
+	private static final int URI_PARSE_BUDGET_BYTES = 288;
+	private static final int ABSOLUTE_URI_PARSE_BUDGET_BYTES = 200;
+	private static final int SMART_POSTER_PARSE_BUDGET_BYTES = 1472;
+	private static final int BLUETOOTH_PARSE_BUDGET_BYTES = 464;
+	private static final int WIFI_PARSE_BUDGET_BYTES = 400;
+	private static final int EXTERNAL_DECODE_BUDGET_BYTES = 192;
+	private static final int TAG_ID_BUDGET_BYTES = 152;
+	private static final int TEXT_PLAIN_BUDGET_BYTES = 152;
+	private static final int TAG_RDF_BUDGET_BYTES = 1408;
+	private static final int URI_RDF_BUDGET_BYTES = 1344;
+	private static final int TEXT_RDF_BUDGET_BYTES = 1344;
+	private static final int SMART_POSTER_RDF_BUDGET_BYTES = 1600;
+
+	private static final NdefRecord URI = NdefTestRecords.uri(0x04, "dynamix.org/gate/17");
+	private static final NdefRecord TEXT = NdefTestRecords.text("en", "Gate 17");
+	private static final NdefRecord ABSOLUTE_URI = new NdefRecord(NdefRecord.TNF_ABSOLUTE_URI,
+			"https://dynamix.org/gate/17".getBytes(NdefTestRecords.UTF_8), new byte[0], new byte[0]);
+	private static final NdefRecord SMART_POSTER = new NdefRecord(NdefRecord.TNF_WELL_KNOWN,
+			NdefRecord.RTD_SMART_POSTER, new byte[0], new NdefMessage(new NdefRecord[] { URI, TEXT }).toByteArray());
+	private static final NdefRecord APPLICATION = NdefTestRecords.record(NdefRecord.TNF_EXTERNAL_TYPE,
+			NfcApplicationRecord.EXTERNAL_TYPE, "org.ambientdynamix.core");
+	private static final NdefRecord BLUETOOTH = new NdefRecord(NdefRecord.TNF_MIME_MEDIA,
+			"application/vnd.bluetooth.ep.oob".getBytes(NdefTestRecords.UTF_8), new byte[] { '0' }, new byte[] {
+					19, 0, 0x66, 0x55, 0x44, 0x33, 0x22, 0x11, 10, 0x09, 'H', 'e', 'a', 'd', 's', 'e', 't', ' ', '7' });
+	private static final NdefRecord WIFI = new NdefRecord(NdefRecord.TNF_MIME_MEDIA,
+			"application/vnd.wfa.wsc".getBytes(NdefTestRecords.UTF_8), new byte[0], new byte[] {
+					0x10, 0x0E, 0, 32,
+					0x10, 0x45, 0, 6, 'W', 'a', 'r', 'd', ' ', '4',
+					0x10, 0x03, 0, 2, 0, 0x20,
+					0x10, 0x0F, 0, 2, 0, 0x08,
+					0x10, 0x20, 0, 6, 0x00, 0x11, 0x22, 0x33, 0x44, 0x55 });
+	private static final NdefRecord[] MESSAGE = { URI, TEXT, SMART_POSTER };
+	private static final NfcTag TAG = new NfcTag(Tag.createMockTag(new byte[] { 0x04, (byte) 0xa2, 0x3c, 0x12,
+			(byte) 0xb1, 0x5f, (byte) 0x80 }, new int[0], null));
+
+	@Test
+	public void decodesTheTestRecords() throws Exception {
+		assertEquals(3, NfcPluginRuntime.getRecords(MESSAGE).size());
+		assertEquals("https://dynamix.org/gate/17", NfcUriRecord.parse(ABSOLUTE_URI).getUri().toString());
+		NfcSmartPoster poster = NfcSmartPoster.parse(SMART_POSTER);
+		assertEquals("Gate 17 https://dynamix.org/gate/17", poster.getStringRepresentation("text/plain"));
+		assertTrue(poster.getStringRepresentation("RDF/XML").contains("<z.0:hasText>Gate 17</z.0:hasText>"));
+		NfcHandover headset = NfcHandover.parse(BLUETOOTH, null);
+		assertEquals("11:22:33:44:55:66", headset.getAddress());
+		assertEquals("Headset 7", headset.getName());
+		NfcHandover network = NfcHandover.parse(WIFI, null);
+		assertEquals("Ward 4", network.getName());
+		assertEquals("00:11:22:33:44:55", network.getAddress());
+		assertTrue(ExternalTypeRegistry.getDefault().decode(APPLICATION) instanceof NfcApplicationRecord);
+		assertEquals("04A23C12B15F80", TAG.getTagIdAsString());
+	}
+
+	@Test
+	public void getRecordsStaysWithinBudget() throws Exception {
+		assertWithinBudget("NfcPluginRuntime.getRecords", GET_RECORDS_BUDGET_BYTES, new AllocationCounter() {
+			@Override
+			void run() {
+				NfcPluginRuntime.getRecords(MESSAGE);
+			}
+		});
+	}
+
+	@Test
+	public void uriParseStaysWithinBudget() throws Exception {
+		assertWithinBudget("NfcUriRecord.parse", URI_PARSE_BUDGET_BYTES, new AllocationCounter() {
+			@Override
+			void run() {
+				NfcUriRecord.parse(URI);
+			}
+		});
+		assertWithinBudget("NfcUriRecord.parse of an absolute URI", ABSOLUTE_URI_PARSE_BUDGET_BYTES,
+				new AllocationCounter() {
+					@Override
+					void run() {
+						NfcUriRecord.parse(ABSOLUTE_URI);
+					}
+				});
+	}
+
+	@Test
+	public void smartPosterParseStaysWithinBudget() throws Exception {
+		assertWithinBudget("NfcSmartPoster.parse", SMART_POSTER_PARSE_BUDGET_BYTES, new AllocationCounter() {
+			@Override
+			void run() throws Exception {
+				NfcSmartPoster.parse(SMART_POSTER);
+			}
+		});
+	}
+
+	@Test
+	public void handoverParseStaysWithinBudget() throws Exception {
+		assertWithinBudget("NfcHandover.parse of Bluetooth OOB", BLUETOOTH_PARSE_BUDGET_BYTES, new AllocationCounter() {
+			@Override
+			void run() {
+				NfcHandover.parse(BLUETOOTH, null);
+			}
+		});
+		assertWithinBudget("NfcHandover.parse of Wi-Fi WSC", WIFI_PARSE_BUDGET_BYTES, new AllocationCounter() {
+			@Override
+			void run() {
+				NfcHandover.parse(WIFI, null);
+			}
+		});
+	}
+
+	@Test
+	public void externalDecodeStaysWithinBudget() throws Exception {
+		final ExternalTypeRegistry registry = ExternalTypeRegistry.getDefault();
+		assertWithinBudget("ExternalTypeRegistry.decode", EXTERNAL_DECODE_BUDGET_BYTES, new AllocationCounter() {
+			@Override
+			void run() throws Exception {
+				registry.decode(APPLICATION);
+			}
+		});
+	}
+
+	@Test
+	public void tagIdStaysWithinBudget() throws Exception {
+		assertWithinBudget("NfcTag.getTagIdAsString", TAG_ID_BUDGET_BYTES, new AllocationCounter() {
+			@Override
+			void run() {
+				TAG.getTagIdAsString();
+			}
+		});
+	}
+
+	@Test
+	public void textRenderingStaysWithinBudget() throws Exception {
+		IContextInfo[] events = { TAG, NfcUriRecord.parse(URI), NfcTextRecord.parse(TEXT),
+				NfcSmartPoster.parse(SMART_POSTER) };
+		for (final IContextInfo event : events)
+			assertWithinBudget(event.getImplementingClassname() + " text/plain", TEXT_PLAIN_BUDGET_BYTES,
+					new AllocationCounter() {
+						@Override
+						void run() {
+							event.getStringRepresentation("text/plain");
+						}
+					});
+	}
+
+	@Test
+	public void rdfRenderingStaysWithinBudget() throws Exception {
+		assertRdfWithinBudget(TAG, TAG_RDF_BUDGET_BYTES);
+		assertRdfWithinBudget(NfcUriRecord.parse(URI), URI_RDF_BUDGET_BYTES);
+		assertRdfWithinBudget(NfcTextRecord.parse(TEXT), TEXT_RDF_BUDGET_BYTES);
+		assertRdfWithinBudget(NfcSmartPoster.parse(SMART_POSTER), SMART_POSTER_RDF_BUDGET_BYTES);
+	}
+
+	private static void assertRdfWithinBudget(final IContextInfo event, int budget) throws Exception {
+		assertWithinBudget(event.getImplementingClassname() + " RDF/XML", budget, new AllocationCounter() {
+			@Override
+			void run() {
+				event.getStringRepresentation("RDF/XML");
+			}
+		});
+	}
+
+	private static void assertWithinBudget(String path, int budget, AllocationCounter counter) throws Exception {
+		double bytes = counter.bytesPerCall();
+		assertTrue(path + " allocated " + bytes + " bytes per call, over its budget of " + budget, bytes <= budget);
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Assume;
+
+/**
+ * Measures the bytes allocated per call by an operation on the calling thread, using the HotSpot thread allocation
+ * counter. Tests using it are skipped on VMs without the counter.
+ */
+abstract class AllocationCounter {
+	/** Calls made before measuring, so that lazy initialization and compilation are not counted */
+	private static final int WARM_UP_CALLS = 20000;
+	private static final int MEASURED_CALLS = 20000;
+	private static final int ROUNDS = 3;
+
+	/**
+	 * The operation to measure.
+	 */
+	abstract void run() throws Exception;
+
+	/**
+	 * Returns the average number of bytes allocated per call of {@link #run()} on the calling thread. The lowest of a
+	 * few rounds is returned, as a round may include one-off allocations such as a late compilation.
+	 */
+	final double bytesPerCall() throws Exception {
+		com.sun.management.ThreadMXBean threads = threadBean();
+		long thread = Thread.currentThread().getId();
+		for (int n = 0; n < WARM_UP_CALLS; n++)
+			run();
+		// The counter itself allocates a little, measure it to subtract it
+		long before = threads.getThreadAllocatedBytes(thread);
+		long overhead = threads.getThreadAllocatedBytes(thread) - before;
+		long lowest = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			before = threads.getThreadAllocatedBytes(thread);
+			for (int n = 0; n < MEASURED_CALLS; n++)
+				run();
+			lowest = Math.min(lowest, threads.getThreadAllocatedBytes(thread) - before - overhead);
+		}
+		return Math.max(0, lowest) / (double) MEASURED_CALLS;
+	}
+
+	private static com.sun.management.ThreadMXBean threadBean() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		return threads;
+	}
+}
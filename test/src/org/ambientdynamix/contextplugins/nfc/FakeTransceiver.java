@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Simulated tag behind an {@link NfcTransceiver}. Subclasses answer commands; the commands, connects and timeouts
+ * are recorded for the test to check.
+ */
+abstract class FakeTransceiver implements NfcTransceiver {
+	final List<String> commands = new ArrayList<String>();
+	final List<Integer> timeouts = new ArrayList<Integer>();
+	int connects;
+	int closes;
+	int maxTransceiveLength = 253;
+	/** Time each command takes */
+	long commandMillis;
+
+	/**
+	 * Returns the response to the command, including the status word for ISO-DEP cards.
+	 */
+	abstract byte[] respond(byte[] command) throws IOException;
+
+	@Override
+	public void connect() {
+		connects++;
+	}
+
+	@Override
+	public void close() {
+		closes++;
+	}
+
+	@Override
+	public byte[] transceive(byte[] command) throws IOException {
+		commands.add(hex(command));
+		if (commandMillis > 0) {
+			try {
+				Thread.sleep(commandMillis);
+			} catch (InterruptedException e) {
+				throw new IOException(e.toString());
+			}
+		}
+		return respond(command);
+	}
+
+	@Override
+	public int getMaxTransceiveLength() {
+		return maxTransceiveLength;
+	}
+
+	@Override
+	public void setTimeout(int millis) {
+		timeouts.add(millis);
+	}
+
+	static String hex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+			sb.append(String.format("%02X", b & 0xff));
+		return sb.toString();
+	}
+
+	static byte[] bytes(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		return bytes;
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+import org.junit.Test;
+
+public class IsoDepReaderTest {
+	private static final String SELECT = "00A4040007D2760000850101";
+	private static final String READ = "00B0000000";
+
+	/**
+	 * Card answering from a fixed table of commands, "6D00" (unknown instruction) otherwise.
+	 */
+	private static class Card extends FakeTransceiver {
+		private final Map<String, String> responses = new HashMap<String, String>();
+
+		Card answer(String command, String response) {
+			responses.put(command, response);
+			return this;
+		}
+
+		@Override
+		byte[] respond(byte[] command) {
+			String response = responses.get(hex(command));
+			return bytes(response != null ? response : "6D00");
+		}
+	}
+
+	private static ApduScript script(String name, String... apdus) {
+		byte[][] commands = new byte[apdus.length][];
+		for (int i = 0; i < apdus.length; i++)
+			commands[i] = FakeTransceiver.bytes(apdus[i]);
+		return new ApduScript(name, commands);
+	}
+
+	private static List<NfcIsoDepResponse> run(Card card, boolean extendedLength, int deadlineMillis,
+			ApduScript... scripts) throws IOException {
+		return new IsoDepReader().run(card, extendedLength, Arrays.asList(scripts), deadlineMillis);
+	}
+
+	@Test
+	public void collectsGetResponseChain() throws IOException {
+		Card card = new Card().answer(SELECT, "9000").answer(READ, "AABB6103").answer("00C0000003", "CCDDEE9000");
+		NfcIsoDepResponse response = run(card, false, 1000, script("ndef", SELECT, READ)).get(0);
+		assertTrue(response.isComplete());
+		assertEquals(2, response.getResponseCount());
+		assertArrayEquals(new byte[0], response.getResponse(0));
+		assertArrayEquals(FakeTransceiver.bytes("AABBCCDDEE"), response.getResponse(1));
+		assertEquals(0x9000, response.getStatusWord(1));
+		assertEquals(Arrays.asList(SELECT, READ, "00C0000003"), card.commands);
+		assertEquals(1, card.connects);
+		assertEquals(1, card.closes);
+	}
+
+	@Test
+	public void collectsDesfireAdditionalFrames() throws IOException {
+		Card card = new Card().answer("90BD000000", "010291AF").answer("90AF000000", "03049100");
+		NfcIsoDepResponse response = run(card, false, 1000, script("file", "90BD000000")).get(0);
+		assertTrue(response.isComplete());
+		assertArrayEquals(FakeTransceiver.bytes("01020304"), response.getResponse(0));
+		assertEquals(0x9100, response.getStatusWord(0));
+	}
+
+	@Test
+	public void repeatsWrongLeWithTheExactLength() throws IOException {
+		Card card = new Card().answer(READ, "6C04").answer("00B0000004", "010203049000");
+		NfcIsoDepResponse response = run(card, false, 1000, script("read", READ)).get(0);
+		assertTrue(response.isComplete());
+		assertArrayEquals(FakeTransceiver.bytes("01020304"), response.getResponse(0));
+		assertEquals(Arrays.asList(READ, "00B0000004"), card.commands);
+	}
+
+	@Test
+	public void rewritesShortLeForExtendedLengthCards() throws IOException {
+		Card card = new Card().answer(SELECT, "9000").answer("00B00000000000", "01029000");
+		NfcIsoDepResponse response = run(card, true, 1000, script("read", SELECT, READ)).get(0);
+		assertTrue(response.isComplete());
+		// Commands with data or a non-zero Le are sent as is
+		assertEquals(Arrays.asList(SELECT, "00B00000000000"), card.commands);
+		assertArrayEquals(FakeTransceiver.bytes(SELECT), ApduScript.toExtendedLe(FakeTransceiver.bytes(SELECT)));
+		assertArrayEquals(FakeTransceiver.bytes("00B0000010"),
+				ApduScript.toExtendedLe(FakeTransceiver.bytes("00B0000010")));
+	}
+
+	@Test
+	public void stopsScriptOnErrorStatus() throws IOException {
+		Card card = new Card().answer(SELECT, "6A82");
+		List<NfcIsoDepResponse> responses = run(card, false, 1000, script("missing", SELECT, READ),
+				script("other", READ));
+		NfcIsoDepResponse response = responses.get(0);
+		assertFalse(response.isComplete());
+		assertEquals(1, response.getResponseCount());
+		assertEquals(0x6A82, response.getStatusWord(0));
+		// Later scripts still run
+		assertEquals(2, responses.size());
+		assertEquals(Arrays.asList(SELECT, READ), card.commands);
+	}
+
+	@Test
+	public void sharesOneDeadlineAcrossScripts() throws IOException {
+		Card card = new Card().answer(SELECT, "9000").answer(READ, "9000");
+		card.commandMillis = 40;
+		List<NfcIsoDepResponse> responses = run(card, false, 100, script("first", SELECT, READ),
+				script("second", SELECT, READ), script("third", SELECT, READ));
+		// Normally the second script runs out of time and the third is not started
+		assertTrue(responses.size() < 3);
+		NfcIsoDepResponse last = responses.get(responses.size() - 1);
+		assertFalse(last.isComplete());
+		assertEquals(-1, last.getStatusWord(last.getResponseCount() - 1));
+		// No command is sent once the deadline has passed
+		assertTrue(card.commands.size() <= 3);
+		// Each command may only take the time left
+		for (int i = 1; i < card.timeouts.size(); i++)
+			assertTrue(card.timeouts.get(i) < card.timeouts.get(i - 1));
+		assertTrue(card.timeouts.get(0) <= 100);
+		assertEquals(1, card.closes);
+	}
+
+	@Test
+	public void readsScriptsAndDeadlineFromSettings() {
+		ContextPluginSettings settings = new ContextPluginSettings();
+		settings.put(ApduScript.SETTINGS_KEY, "ndef=" + SELECT + ";" + READ + "|file=90BD000000");
+		settings.put(ApduScript.DEADLINE_SETTINGS_KEY, "250");
+		List<ApduScript> scripts = ApduScript.fromSettings(settings);
+		assertEquals(2, scripts.size());
+		assertEquals("ndef", scripts.get(0).name);
+		assertEquals(2, scripts.get(0).commands.length);
+		assertEquals(250, ApduScript.deadlineFromSettings(settings));
+	}
+
+	@Test
+	public void fallsBackToDefaultDeadline() {
+		ContextPluginSettings settings = new ContextPluginSettings();
+		settings.put(ApduScript.SETTINGS_KEY, "ndef=" + SELECT);
+		settings.put(ApduScript.DEADLINE_SETTINGS_KEY, "half a second");
+		assertEquals(ApduScript.DEFAULT_DEADLINE_MILLIS, ApduScript.deadlineFromSettings(settings));
+		// The scripts are unaffected by the bad deadline
+		assertEquals(1, ApduScript.fromSettings(settings).size());
+		settings.put(ApduScript.DEADLINE_SETTINGS_KEY, "0");
+		assertEquals(ApduScript.DEFAULT_DEADLINE_MILLIS, ApduScript.deadlineFromSettings(settings));
+		assertEquals(ApduScript.DEFAULT_DEADLINE_MILLIS,
+				ApduScript.deadlineFromSettings(new ContextPluginSettings()));
+		assertEquals(Collections.emptyList(), ApduScript.fromSettings(null));
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import android.nfc.NdefMessage;
+import android.nfc.NdefRecord;
+
+public class NdefTagEmulatorTest {
+	/** Mean time the emulator may take to answer a command, well below the reader's frame waiting time */
+	private static final long MEAN_RESPONSE_BOUND_NANOS = 50000;
+	private static final byte[] SELECT_CC = FakeTransceiver.bytes("00A4000C02E103");
+	private static final byte[] SELECT_NDEF = FakeTransceiver.bytes("00A4000C02E104");
+
+	/**
+	 * Stand-in for a reader, sending the commands a Type 4 tag reader sends: select the NDEF application, select and
+	 * read the CC file, select the NDEF file, read NLEN and read the message in chunks of the announced size.
+	 */
+	private static class Reader {
+		final List<byte[]> apdus = new ArrayList<byte[]>();
+		final int messageLength;
+
+		Reader(int messageLength, int maxRead) {
+			this.messageLength = messageLength;
+			apdus.add(FakeTransceiver.bytes("00A4040007" + FakeTransceiver.hex(NdefTagEmulator.NDEF_AID) + "00"));
+			apdus.add(SELECT_CC);
+			apdus.add(FakeTransceiver.bytes("00B000000F"));
+			apdus.add(SELECT_NDEF);
+			apdus.add(FakeTransceiver.bytes("00B0000002"));
+			for (int offset = 2; offset < messageLength + 2; offset += maxRead) {
+				int le = Math.min(maxRead, messageLength + 2 - offset);
+				apdus.add(new byte[] { 0x00, (byte) 0xB0, (byte) (offset >>> 8), (byte) offset, (byte) le });
+			}
+		}
+
+		/**
+		 * Runs one session and returns the message read.
+		 */
+		byte[] read(NdefTagEmulator emulator) {
+			ByteArrayOutputStream message = new ByteArrayOutputStream();
+			for (int a = 0; a < apdus.size(); a++) {
+				byte[] response = emulator.process(apdus.get(a));
+				assertEquals("Status of APDU " + a, "9000", statusWord(response));
+				if (a >= 5)
+					message.write(response, 0, response.length - 2);
+			}
+			emulator.endSession();
+			return message.toByteArray();
+		}
+	}
+
+	private static String statusWord(byte[] response) {
+		return FakeTransceiver.hex(Arrays.copyOfRange(response, response.length - 2, response.length));
+	}
+
+	private static byte[] message(int payloadSize) {
+		byte[] payload = new byte[payloadSize];
+		for (int i = 0; i < payload.length; i++)
+			payload[i] = (byte) i;
+		return new NdefMessage(new NdefRecord[] { new NdefRecord(NdefRecord.TNF_MIME_MEDIA,
+				"application/vnd.example.badge".getBytes(NdefTestRecords.UTF_8), new byte[0], payload) })
+				.toByteArray();
+	}
+
+	private static NdefTagEmulator emulator(byte[] message) {
+		NdefTagEmulator emulator = new NdefTagEmulator();
+		emulator.setMessage(message);
+		return emulator;
+	}
+
+	@Test
+	public void servesTheMessage() {
+		for (int size : new int[] { 0, 40, 254, 1000 }) {
+			byte[] message = message(size);
+			assertArrayEquals("Payload of " + size + " bytes", message, new Reader(message.length, 0xFF)
+					.read(emulator(message)));
+		}
+	}
+
+	@Test
+	public void servesTheCapabilityContainer() {
+		byte[] message = message(40);
+		NdefTagEmulator emulator = emulator(message);
+		emulator.process(new Reader(message.length, 0xFF).apdus.get(0));
+		emulator.process(SELECT_CC);
+		byte[] cc = emulator.process(FakeTransceiver.bytes("00B000000F"));
+		// CCLEN 15, version 2.0, MLe 255, MLc 255, NDEF file E104 of the message size plus NLEN, read-only
+		assertEquals("000F2000FF00FF0406E104" + String.format("%04X", message.length + 2) + "00FF9000",
+				FakeTransceiver.hex(cc));
+	}
+
+	@Test
+	public void servesReadsAtOtherOffsets() {
+		byte[] message = message(300);
+		NdefTagEmulator emulator = emulator(message);
+		Reader reader = new Reader(message.length, 0xFF);
+		for (int a = 0; a < 4; a++)
+			emulator.process(reader.apdus.get(a));
+		// The NDEF file is NLEN followed by the message
+		byte[] file = new byte[2 + message.length];
+		file[0] = (byte) (message.length >>> 8);
+		file[1] = (byte) message.length;
+		System.arraycopy(message, 0, file, 2, message.length);
+		for (int offset : new int[] { 1, 7, 100, 7, 300 }) {
+			byte[] response = emulator.process(new byte[] { 0x00, (byte) 0xB0, (byte) (offset >>> 8), (byte) offset,
+					0x10 });
+			assertEquals("9000", statusWord(response));
+			assertArrayEquals(Arrays.copyOfRange(file, offset, Math.min(file.length, offset + 16)),
+					Arrays.copyOf(response, response.length - 2));
+		}
+	}
+
+	@Test
+	public void rejectsOtherCommands() {
+		NdefTagEmulator emulator = new NdefTagEmulator();
+		byte[] selectApplication = new Reader(0, 0xFF).apdus.get(0);
+		// No message configured
+		assertEquals("6A82", statusWord(emulator.process(selectApplication)));
+		emulator.setMessage(message(10));
+		assertEquals("6986", statusWord(emulator.process(FakeTransceiver.bytes("00B0000002"))));
+		assertEquals("6A82", statusWord(emulator.process(FakeTransceiver.bytes("00A4040007A0000000031010"))));
+		assertEquals("9000", statusWord(emulator.process(selectApplication)));
+		assertEquals("6A82", statusWord(emulator.process(FakeTransceiver.bytes("00A4000C02E105"))));
+		assertEquals("9000", statusWord(emulator.process(SELECT_NDEF)));
+		assertEquals("6982", statusWord(emulator.process(FakeTransceiver.bytes("00D6000002000000"))));
+		assertEquals("6B00", statusWord(emulator.process(FakeTransceiver.bytes("00B0100002"))));
+		assertEquals("6D00", statusWord(emulator.process(FakeTransceiver.bytes("00CA000000"))));
+		assertEquals("6700", statusWord(emulator.process(new byte[] { 0x00 })));
+	}
+
+	@Test
+	public void reportsSessionStatistics() {
+		byte[] message = message(600);
+		NdefTagEmulator emulator = emulator(message);
+		final List<NfcEmulationStatistics> sessions = new ArrayList<NfcEmulationStatistics>();
+		emulator.setListener(new NdefTagEmulator.Listener() {
+			@Override
+			public void onSessionEnded(NfcEmulationStatistics statistics) {
+				sessions.add(statistics);
+			}
+		});
+		Reader reader = new Reader(message.length, 0xFF);
+		reader.read(emulator);
+		// A deselect without commands is not a session
+		emulator.endSession();
+		assertEquals(1, sessions.size());
+		NfcEmulationStatistics statistics = sessions.get(0);
+		assertEquals(reader.apdus.size(), statistics.getApduCount());
+		assertEquals(reader.apdus.size() - 3, statistics.getReadCount());
+		assertEquals(0, statistics.getErrorCount());
+		assertEquals(15 + 2 + message.length, statistics.getBytesServed());
+	}
+
+	@Test
+	public void countsOnlyFailedCommandsAsErrors() {
+		byte[] message = message(40);
+		NdefTagEmulator emulator = emulator(message);
+		final List<NfcEmulationStatistics> sessions = new ArrayList<NfcEmulationStatistics>();
+		emulator.setListener(new NdefTagEmulator.Listener() {
+			@Override
+			public void onSessionEnded(NfcEmulationStatistics statistics) {
+				sessions.add(statistics);
+			}
+		});
+		Reader reader = new Reader(message.length, 0xFF);
+		for (int a = 0; a < 4; a++)
+			emulator.process(reader.apdus.get(a));
+		// A read at the end of the NDEF file succeeds with no data, one past it fails
+		int end = 2 + message.length;
+		assertEquals("9000", FakeTransceiver.hex(emulator.process(new byte[] { 0x00, (byte) 0xB0, 0x00,
+				(byte) end, 0x10 })));
+		assertEquals("6B00", statusWord(emulator.process(new byte[] { 0x00, (byte) 0xB0, 0x00, (byte) (end + 1),
+				0x10 })));
+		assertEquals("6D00", statusWord(emulator.process(FakeTransceiver.bytes("00CA000000"))));
+		emulator.endSession();
+		assertEquals(1, sessions.size());
+		assertEquals(7, sessions.get(0).getApduCount());
+		assertEquals(2, sessions.get(0).getErrorCount());
+	}
+
+	@Test
+	public void answersWithinLatencyBound() {
+		byte[] message = message(2000);
+		NdefTagEmulator emulator = emulator(message);
+		final List<NfcEmulationStatistics> sessions = new ArrayList<NfcEmulationStatistics>();
+		emulator.setListener(new NdefTagEmulator.Listener() {
+			@Override
+			public void onSessionEnded(NfcEmulationStatistics statistics) {
+				sessions.add(statistics);
+			}
+		});
+		Reader reader = new Reader(message.length, 0xFF);
+		for (int n = 0; n < 20000; n++)
+			reader.read(emulator);
+		sessions.clear();
+		for (int n = 0; n < 1000; n++)
+			reader.read(emulator);
+		long totalNanos = 0;
+		for (NfcEmulationStatistics statistics : sessions)
+			totalNanos += statistics.getMeanResponseNanos();
+		long meanNanos = totalNanos / sessions.size();
+		assertTrue("Mean response time " + meanNanos + " ns", meanNanos <= MEAN_RESPONSE_BOUND_NANOS);
+	}
+
+	@Test
+	public void answersWithoutAllocating() throws Exception {
+		byte[] message = message(2000);
+		final NdefTagEmulator emulator = emulator(message);
+		final byte[][] apdus = new Reader(message.length, 0xFF).apdus.toArray(new byte[0][]);
+		double bytes = new AllocationCounter() {
+			@Override
+			void run() {
+				for (byte[] apdu : apdus)
+					emulator.process(apdu);
+				emulator.endSession();
+			}
+		}.bytesPerCall();
+		assertEquals("Bytes allocated per session", 0, bytes, 0);
+	}
+}
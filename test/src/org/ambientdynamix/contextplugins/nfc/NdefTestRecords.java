@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import java.nio.charset.Charset;
+
+import android.nfc.NdefRecord;
+
+/**
+ * Builds the NDEF records used by the unit tests.
+ */
+final class NdefTestRecords {
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+	static final Charset UTF_16 = Charset.forName("UTF-16");
+
+	private NdefTestRecords() {
+	}
+
+	/**
+	 * Returns an RTD_TEXT record of the text encoded in UTF-8.
+	 */
+	static NdefRecord text(String language, String text) {
+		return text(language, text.getBytes(UTF_8), false);
+	}
+
+	/**
+	 * Returns an RTD_TEXT record of the encoded text, with the UTF-16 flag set if utf16.
+	 */
+	static NdefRecord text(String language, byte[] encodedText, boolean utf16) {
+		byte[] lang = language.getBytes(UTF_8);
+		byte[] payload = new byte[1 + lang.length + encodedText.length];
+		payload[0] = (byte) ((utf16 ? 0x80 : 0) | lang.length);
+		System.arraycopy(lang, 0, payload, 1, lang.length);
+		System.arraycopy(encodedText, 0, payload, 1 + lang.length, encodedText.length);
+		return new NdefRecord(NdefRecord.TNF_WELL_KNOWN, NdefRecord.RTD_TEXT, new byte[0], payload);
+	}
+
+	/**
+	 * Returns an RTD_URI record of the URI with the abbreviation code prefix, e.g. 0x04 for "https://".
+	 */
+	static NdefRecord uri(int prefix, String rest) {
+		byte[] bytes = rest.getBytes(UTF_8);
+		byte[] payload = new byte[1 + bytes.length];
+		payload[0] = (byte) prefix;
+		System.arraycopy(bytes, 0, payload, 1, bytes.length);
+		return new NdefRecord(NdefRecord.TNF_WELL_KNOWN, NdefRecord.RTD_URI, new byte[0], payload);
+	}
+
+	/**
+	 * Returns a record of the given TNF and type with the payload encoded in UTF-8.
+	 */
+	static NdefRecord record(short tnf, String type, String payload) {
+		return new NdefRecord(tnf, type.getBytes(UTF_8), new byte[0], payload.getBytes(UTF_8));
+	}
+}
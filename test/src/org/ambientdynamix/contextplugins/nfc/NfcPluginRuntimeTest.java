@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import org.ambientdynamix.api.application.IContextInfo;
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.nfc.NdefMessage;
+import android.nfc.NdefRecord;
+import android.nfc.NfcAdapter;
+import android.nfc.Tag;
+import android.os.Bundle;
+import android.os.Parcelable;
+
+public class NfcPluginRuntimeTest {
+	private NfcPluginRuntime runtime;
+	private Sink sink;
+
+	/**
+	 * Collects the events of the runtime, noting how many taps were being handled at once.
+	 */
+	private static class Sink implements NfcPluginRuntime.ContextEventSink {
+		final List<NfcTag> tags = new ArrayList<NfcTag>();
+		final List<IContextInfo> others = new ArrayList<IContextInfo>();
+		int active;
+		int maxActive;
+
+		@Override
+		public void onContextEvent(IContextInfo event, int expireMills) {
+			if (!(event instanceof NfcTag)) {
+				synchronized (this) {
+					others.add(event);
+				}
+				return;
+			}
+			synchronized (this) {
+				maxActive = Math.max(maxActive, ++active);
+			}
+			try {
+				// Leaves time for a concurrent tap to overlap
+				Thread.sleep(2);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized (this) {
+				active--;
+				tags.add((NfcTag) event);
+			}
+		}
+
+		synchronized int size() {
+			return tags.size();
+		}
+	}
+
+	@Before
+	public void setUp() {
+		runtime = new NfcPluginRuntime();
+		sink = new Sink();
+		runtime.setEventSink(sink);
+		runtime.updateSettings(new ContextPluginSettings());
+	}
+
+	@After
+	public void tearDown() {
+		runtime.stop();
+	}
+
+	private static Tag tag(int id) {
+		return Tag.createMockTag(new byte[] { 0x04, 0x11, 0x22, (byte) id }, new int[0], new Bundle[0]);
+	}
+
+	@Test
+	public void takesTagsFromItsSourceOnlyWhileStarted() {
+		ManualTagSource source = new ManualTagSource();
+		runtime.setTagSource(source);
+		source.discover(tag(1));
+		assertEquals(0, sink.size());
+		runtime.start();
+		source.discover(tag(2));
+		assertEquals(1, sink.size());
+		assertEquals("04112202", sink.tags.get(0).getTagIdAsString());
+		runtime.stop();
+		source.discover(tag(3));
+		assertEquals(1, sink.size());
+		runtime.start();
+		source.discover(tag(4));
+		assertEquals(2, sink.size());
+		assertEquals("04112204", sink.tags.get(1).getTagIdAsString());
+	}
+
+	@Test
+	public void handlesOneTapAtATime() throws Exception {
+		final ManualTagSource source = new ManualTagSource();
+		runtime.setTagSource(source);
+		runtime.start();
+		final int threads = 8;
+		final int taps = 10;
+		final CountDownLatch go = new CountDownLatch(1);
+		List<Thread> started = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						go.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int n = 0; n < taps; n++)
+						source.discover(tag(id));
+				}
+			};
+			thread.start();
+			started.add(thread);
+		}
+		go.countDown();
+		for (Thread thread : started)
+			thread.join();
+		assertEquals(threads * taps, sink.size());
+		assertEquals(1, sink.maxActive);
+		Set<Long> sequences = new HashSet<Long>();
+		for (NfcTag tag : sink.tags)
+			sequences.add(tag.getTapSequence());
+		assertEquals(threads * taps, sequences.size());
+	}
+
+	@Test
+	public void answersTapQueriesOverUnsubscribedRecords() {
+		ContextPluginSettings settings = new ContextPluginSettings();
+		settings.put(ContextSubscriptions.SETTINGS_KEY, "org.ambientdynamix.contextplugins.nfc.tag");
+		settings.put(TapTextIndex.WINDOW_SETTINGS_KEY, "60000");
+		runtime.updateSettings(settings);
+		NdefMessage message = new NdefMessage(new NdefRecord[] { NdefTestRecords.text("en", "Room 4, second floor"),
+				NdefTestRecords.uri(0x04, "example.com/rooms/4") });
+		Intent intent = new Intent(NfcAdapter.ACTION_NDEF_DISCOVERED);
+		intent.putExtra(NfcAdapter.EXTRA_TAG, tag(6));
+		intent.putExtra(NfcAdapter.EXTRA_ID, tag(6).getId());
+		intent.putExtra(NfcAdapter.EXTRA_NDEF_MESSAGES, new Parcelable[] { message });
+		runtime.onNfcEvent(intent);
+		// Only the subscribed tag event is sent
+		assertEquals(1, sink.size());
+		assertTrue(sink.others.isEmpty());
+		Bundle query = new Bundle();
+		query.putString(NfcPluginRuntime.QUERY_TEXT_KEY, "second floor");
+		query.putString(NfcPluginRuntime.QUERY_HOST_KEY, "example.com");
+		runtime.handleConfiguredContextRequest(UUID.randomUUID(), NfcPluginRuntime.TAP_QUERY_CONTEXT_TYPE, query);
+		assertEquals(1, sink.others.size());
+		NfcTapQueryResult result = (NfcTapQueryResult) sink.others.get(0);
+		assertEquals(1, result.getTapSequences().length);
+		assertEquals(sink.tags.get(0).getTapSequence(), result.getTapSequences()[0]);
+		assertEquals("04112206", result.getTagIds()[0]);
+	}
+
+	@Test
+	public void usesReaderModeWhileTheInteractionViewIsShown() throws Exception {
+		ContextPluginSettings settings = new ContextPluginSettings();
+		settings.put(NfcPluginRuntime.TAG_SOURCE_SETTINGS_KEY, "reader_mode");
+		runtime.updateSettings(settings);
+		runtime.start();
+		Activity activity = new Activity();
+		NfcAdapter adapter = NfcAdapter.getDefaultAdapter(activity);
+		NfcInteractionViewFactory view = new NfcInteractionViewFactory();
+		view.initializeView(activity, runtime, 0);
+		NfcAdapter.ReaderCallback callback = adapter.getReaderCallback(activity);
+		assertNotNull(callback);
+		callback.onTagDiscovered(tag(5));
+		assertEquals(1, sink.size());
+		view.destroyView();
+		assertNull(adapter.getReaderCallback(activity));
+		// Reader mode is not used unless selected
+		runtime.updateSettings(new ContextPluginSettings());
+		view.initializeView(activity, runtime, 0);
+		assertNull(adapter.getReaderCallback(activity));
+		view.destroyView();
+	}
+}
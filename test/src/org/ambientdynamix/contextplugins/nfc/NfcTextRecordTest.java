@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import android.nfc.NdefRecord;
+
+public class NfcTextRecordTest {
+	/** Bytes per parse of a cached text: the type and payload copies and the event */
+	private static final int PARSE_BUDGET_BYTES = 96;
+
+	@Test
+	public void decodesUtf8Text() throws Exception {
+		NfcTextRecord text = NfcTextRecord.parse(NdefTestRecords.text("en", "Gr\u00fc\u00dfe, Ward 7"));
+		assertEquals("en", text.getLanguageCode());
+		assertEquals("Gr\u00fc\u00dfe, Ward 7", text.getText());
+	}
+
+	@Test
+	public void decodesUtf16TextWithByteOrderMark() throws Exception {
+		NfcTextRecord big = NfcTextRecord.parse(NdefTestRecords.text("de-DE", "Stra\u00dfe".getBytes(NdefTestRecords.UTF_16),
+				true));
+		assertEquals("de-DE", big.getLanguageCode());
+		assertEquals("Stra\u00dfe", big.getText());
+		byte[] little = "Stra\u00dfe".getBytes("UTF-16LE");
+		byte[] withBom = new byte[little.length + 2];
+		withBom[0] = (byte) 0xFF;
+		withBom[1] = (byte) 0xFE;
+		System.arraycopy(little, 0, withBom, 2, little.length);
+		assertEquals("Stra\u00dfe", NfcTextRecord.parse(NdefTestRecords.text("de", withBom, true)).getText());
+	}
+
+	@Test
+	public void decodesUncommonLanguageCodes() throws Exception {
+		assertEquals("x-klingon", NfcTextRecord.parse(NdefTestRecords.text("x-klingon", "Qapla'")).getLanguageCode());
+	}
+
+	@Test
+	public void returnsCachedTextForRepeatedPayloads() throws Exception {
+		NdefRecord record = NdefTestRecords.text("en", "Badge 17");
+		assertSame(NfcTextRecord.parse(record).getText(), NfcTextRecord.parse(record).getText());
+	}
+
+	@Test
+	public void rejectsOtherRecords() {
+		assertFalse(NfcTextRecord.isText(NdefTestRecords.uri(0x04, "example.com")));
+		assertTrue(NfcTextRecord.isText(NdefTestRecords.text("en", "")));
+	}
+
+	@Test
+	public void parseOfCachedTextsStaysWithinBudget() throws Exception {
+		final NdefRecord[] records = new NdefRecord[16];
+		for (int n = 0; n < records.length; n++)
+			records[n] = NdefTestRecords.text(n % 2 == 0 ? "en" : "de", "Ward " + n);
+		double bytes = new AllocationCounter() {
+			private int n;
+
+			@Override
+			void run() throws Exception {
+				NfcTextRecord.parse(records[n++ & (records.length - 1)]);
+			}
+		}.bytesPerCall();
+		assertTrue("NfcTextRecord.parse allocated " + bytes + " bytes per call", bytes <= PARSE_BUDGET_BYTES);
+	}
+}
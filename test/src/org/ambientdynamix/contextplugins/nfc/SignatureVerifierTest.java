@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.nfc.NdefRecord;
+
+/**
+ * Certificate chain checks of {@link SignatureVerifier}. The EC P-256 certificates were made with keytool.
+ */
+public class SignatureVerifierTest {
+	/** SubjectPublicKeyInfo of the trusted root; all certificates but the expired one are valid 2020 to 2119 */
+	private static final String ROOT_KEY = "3059301306072A8648CE3D020106082A8648CE3D030107034200046B7078BB8BD5DB90"
+			+ "7A41EFE2DDD602A2DD0D1E88090E1C77E8C82C939FF26C464554E94B7E09E96A2DB7B5497E4E9987F9DF60E63780397522CE"
+			+ "584B02CB31E8";
+	/** PKCS #8 private key of the tag, certified by each of the leaf certificates */
+	private static final String TAG_PRIVATE_KEY = "3041020100301306072A8648CE3D020106082A8648CE3D030107042730250201"
+			+ "010420B9AF1A9888BA962785CB01D7B79A1912EC1E97D7123F93FA0C497029DC2F6661";
+	/** CA certificate issued by the root */
+	private static final String INTERMEDIATE = "3082017130820117A00302010202085535D1C6D83C4A17300A06082A8648CE3D04"
+			+ "0302300F310D300B06035504031304526F6F743020170D3230303130313131333933315A180F323131393132303831313339"
+			+ "33315A3017311530130603550403130C496E7465726D6564696174653059301306072A8648CE3D020106082A8648CE3D0301"
+			+ "070342000444BCF9688A4B745EB5D7E87019FFB7A85D3D0447B5B925ECE23F11DDEF9B3237B22E567FDB9028FB5EE8C9B4C0"
+			+ "2A9412E850FB72CCF94BEE9E41BAD58DBA9171A3533051301D0603551D0E041604142478B7F869B303B4A84CF55F30A27FF6"
+			+ "24499989300F0603551D130101FF040530030101FF301F0603551D2304183016801437BBB7C6BA45449603C7C32CBB3B0072"
+			+ "85779292300A06082A8648CE3D0403020348003045022017452D23F2BAF144B4FFBCB6706ADFE5DACF2C31AE8D72957A0901"
+			+ "1D35B0D97D022100D9F56F35AA700275741F89B7EF2F68528C69E507DA42AB033625B8C57D43FF6D";
+	/** End entity certificate (basicConstraints CA:false) issued by the root */
+	private static final String NOT_A_CA = "308201653082010BA003020102020802922F5C7C35CD64300A06082A8648CE3D040302"
+			+ "300F310D300B06035504031304526F6F743020170D3230303130313131333933335A180F3231313931323038313133393333"
+			+ "5A3011310F300D060355040313065265616465723059301306072A8648CE3D020106082A8648CE3D030107034200047501A2"
+			+ "544A37A9399EBDB2E1CB6566C3CD9F2DFD00614036C0A1252094161E926BF096684B8548DFEA9CC0658FFED47E377B5E379E"
+			+ "5D4136824E2D60EC6392CFA34D304B301D0603551D0E0416041435465F731A3527553BAD5BC040F258E9035B4EB330090603"
+			+ "551D1304023000301F0603551D2304183016801437BBB7C6BA45449603C7C32CBB3B007285779292300A06082A8648CE3D04"
+			+ "0302034800304502205EF67469A167AFBE2F026AE88A05D274C625DE9DD081E1C0EB55CA4154DD91BC022100865B60C468A5"
+			+ "F32E10C860D3051C62B4BCD56D96D41EC86BE20CC36B702A2D32";
+	/** Tag certificate issued by {@link #INTERMEDIATE} */
+	private static final String TAG = "3082015E30820105A00302010202084D65AC08DA013619300A06082A8648CE3D040302301731"
+			+ "1530130603550403130C496E7465726D6564696174653020170D3230303130313131333933365A180F323131393132303831"
+			+ "31333933365A300E310C300A060355040313035461673059301306072A8648CE3D020106082A8648CE3D03010703420004EB"
+			+ "BC9B7B3A7E665CD14FC4C82FCA0159DF2D967D16A8389E97F9938CDC126B33226B4D376C8BDC3ACAB81C2B26140D8EE535AA"
+			+ "23A97385D35121D541A27C6428A3423040301D0603551D0E04160414743C5D70DD1C7F8C6934E36EF6DFEF04C86CE63B301F"
+			+ "0603551D230418301680142478B7F869B303B4A84CF55F30A27FF624499989300A06082A8648CE3D04030203470030440220"
+			+ "0226F33420506867786745D38E559F59A5CB631A3C923C39E1E144684CD0BC1A02207C5D463CDF99D04EEB2636A72A093272"
+			+ "C3D26E58201C9B23BB3D315B924E2765";
+	/** Tag certificate issued by {@link #NOT_A_CA} */
+	private static final String TAG_OF_NOT_A_CA = "308201573081FFA00302010202084BBDC13B7EDC3159300A06082A8648CE3D04"
+			+ "03023011310F300D060355040313065265616465723020170D3230303130313131333933395A180F32313139313230383131"
+			+ "333933395A300E310C300A060355040313035461673059301306072A8648CE3D020106082A8648CE3D03010703420004EBBC"
+			+ "9B7B3A7E665CD14FC4C82FCA0159DF2D967D16A8389E97F9938CDC126B33226B4D376C8BDC3ACAB81C2B26140D8EE535AA23"
+			+ "A97385D35121D541A27C6428A3423040301D0603551D0E04160414743C5D70DD1C7F8C6934E36EF6DFEF04C86CE63B301F06"
+			+ "03551D2304183016801435465F731A3527553BAD5BC040F258E9035B4EB3300A06082A8648CE3D0403020347003044022056"
+			+ "D43E4287501EBA0FE265D053006949CA719C82E68D94171586D015558E18CA02204FFA6FD5A29470823532647160820A1547"
+			+ "8970299C0E34FE4A348DCC65E48C4F";
+	/** Tag certificate issued by {@link #INTERMEDIATE}, valid in January 2020 only */
+	private static final String EXPIRED_TAG = "3082015D30820103A00302010202085460B943B5DE7EB5300A06082A8648CE3D0403"
+			+ "023017311530130603550403130C496E7465726D656469617465301E170D3230303130313131333934315A170D3230303133"
+			+ "313131333934315A300E310C300A060355040313035461673059301306072A8648CE3D020106082A8648CE3D030107034200"
+			+ "04EBBC9B7B3A7E665CD14FC4C82FCA0159DF2D967D16A8389E97F9938CDC126B33226B4D376C8BDC3ACAB81C2B26140D8EE5"
+			+ "35AA23A97385D35121D541A27C6428A3423040301D0603551D0E04160414743C5D70DD1C7F8C6934E36EF6DFEF04C86CE63B"
+			+ "301F0603551D230418301680142478B7F869B303B4A84CF55F30A27FF624499989300A06082A8648CE3D0403020348003045"
+			+ "02202038D3866C0121BB5546B0A6CE1079A6074A5A79A3F36CB8799004271793778F022100C8800FA7D32B7780F27420857D"
+			+ "CFF0AAE6F98FCA92D6CF3EC5A158BF78E9FD6C";
+
+	private SignatureVerifier verifier;
+
+	@Before
+	public void trustRoot() {
+		verifier = new SignatureVerifier();
+		ContextPluginSettings settings = new ContextPluginSettings();
+		settings.put(SignatureVerifier.KEYS_SETTINGS_KEY, ROOT_KEY);
+		verifier.configure(settings);
+	}
+
+	@Test
+	public void verifiesAChainOfValidCaCertificates() throws Exception {
+		assertEquals(SignatureVerifier.VERIFIED, verifySigned(TAG, INTERMEDIATE));
+	}
+
+	@Test
+	public void rejectsAnExpiredCertificate() throws Exception {
+		assertEquals(SignatureVerifier.INVALID, verifySigned(EXPIRED_TAG, INTERMEDIATE));
+	}
+
+	@Test
+	public void rejectsCertificatesIssuedByANonCaCertificate() throws Exception {
+		assertEquals(SignatureVerifier.INVALID, verifySigned(TAG_OF_NOT_A_CA, NOT_A_CA));
+	}
+
+	/**
+	 * Signs a text record with the tag key and returns the status of the record, verified on the calling thread.
+	 */
+	private int verifySigned(String... chain) throws Exception {
+		NdefRecord text = NdefTestRecords.text("en", "Ward 4");
+		PrivateKey key = KeyFactory.getInstance("EC").generatePrivate(
+				new PKCS8EncodedKeySpec(HexStrings.toBytes(TAG_PRIVATE_KEY, 0)));
+		Signature signer = Signature.getInstance("SHA256withECDSA");
+		signer.initSign(key);
+		signer.update(text.getType());
+		signer.update(text.getId());
+		signer.update(text.getPayload());
+		byte[] signature = signer.sign();
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		payload.write(0x20);
+		// ECDSA with SHA-256, then X.509 certificates
+		payload.write(0x04);
+		writeShort(payload, signature.length);
+		payload.write(signature);
+		payload.write(0x02);
+		payload.write(chain.length);
+		for (String certificate : chain) {
+			byte[] der = HexStrings.toBytes(certificate, 0);
+			writeShort(payload, der.length);
+			payload.write(der);
+		}
+		NdefRecord sig = new NdefRecord(NdefRecord.TNF_WELL_KNOWN, SignatureVerifier.TYPE_SIGNATURE, new byte[0],
+				payload.toByteArray());
+		return verifier.verify(new NdefRecord[] { text, sig }, null, null)[0];
+	}
+
+	private static void writeShort(ByteArrayOutputStream out, int value) {
+		out.write(value >>> 8);
+		out.write(value);
+	}
+}
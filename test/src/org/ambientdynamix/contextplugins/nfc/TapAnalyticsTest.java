@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class TapAnalyticsTest {
+	private static final long NOW = 1700000000000L;
+
+	@Test
+	public void namesTheMostTappedTagsByUid() {
+		TapAnalytics analytics = new TapAnalytics(2);
+		byte[] frequent = HexStrings.toBytes("00000001", 0);
+		byte[] occasional = HexStrings.toBytes("E004010012345678", 0);
+		for (int i = 0; i < 5; i++)
+			analytics.recordTap(frequent, NOW);
+		for (int i = 0; i < 3; i++)
+			analytics.recordTap(occasional, NOW);
+		analytics.recordTap(HexStrings.toBytes("04A23C12", 0), NOW);
+		NfcTapStatistics statistics = analytics.summarize(NOW);
+		assertArrayEquals(new String[] { "00000001", "E004010012345678" }, statistics.getTopTagIds());
+		assertArrayEquals(new long[] { 5, 3 }, statistics.getTopCounts());
+		assertEquals(9, statistics.getTotalTaps());
+	}
+
+	@Test
+	public void countsConcurrentTapsAtABucketReset() throws Exception {
+		final TapAnalytics analytics = new TapAnalytics(4);
+		final byte[] uid = HexStrings.toBytes("04A23C12", 0);
+		// Fill the bucket a minute earlier, so that the taps below race to reset it
+		analytics.recordTap(uid, NOW - 60000);
+		final int threads = 4;
+		final int taps = 20000;
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < taps; i++)
+						analytics.recordTap(uid, NOW);
+				}
+			};
+			workers[t].start();
+		}
+		start.countDown();
+		for (Thread worker : workers)
+			worker.join();
+		assertEquals(threads * taps, analytics.tapsInLastMinute(NOW));
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+import org.junit.Test;
+
+public class TapTextIndexTest {
+	private static final byte[] UID = new byte[] { 0x04, 0x11, 0x22, 0x33 };
+
+	private static TapTextIndex index(long windowMillis, int capacity) {
+		ContextPluginSettings settings = new ContextPluginSettings();
+		settings.put(TapTextIndex.WINDOW_SETTINGS_KEY, Long.toString(windowMillis));
+		settings.put(TapTextIndex.CAPACITY_SETTINGS_KEY, Integer.toString(capacity));
+		TapTextIndex index = new TapTextIndex();
+		index.configure(settings);
+		return index;
+	}
+
+	@Test
+	public void matchesPhrasesInOrderWithinOneRecord() {
+		TapTextIndex index = index(60000, 64);
+		index.addText(1, UID, 1000, "Meeting room 4, second floor");
+		// The words of the phrase, but in another order
+		index.addText(2, UID, 1000, "Floor second: room 4");
+		// The words of the phrase, but in two records of the same tap
+		index.addText(3, UID, 1000, "Second");
+		index.addText(3, UID, 1000, "floor");
+		index.addText(4, UID, 1000, "Exit on the second floor, second door");
+		assertArrayEquals(new long[] { 1, 4 }, index.findText("second floor", 2000));
+		assertArrayEquals(new long[] { 1, 2 }, index.findText("room 4", 2000));
+		assertArrayEquals(new long[] { 1, 2, 3, 4 }, index.findText("second", 2000));
+		assertArrayEquals(new long[0], index.findText("door second", 2000));
+	}
+
+	@Test
+	public void matchesHostAndPathOfTheSameUri() {
+		TapTextIndex index = index(60000, 64);
+		index.addUri(1, UID, 1000, "www.example.com", Arrays.asList("rooms", "4"));
+		// Host of one URI and path of another
+		index.addUri(2, UID, 1000, "www.example.com", Arrays.asList("help"));
+		index.addUri(2, UID, 1000, "other.org", Arrays.asList("rooms", "4"));
+		index.addUri(3, UID, 1000, "EXAMPLE.com", Arrays.asList("rooms", "5"));
+		assertArrayEquals(new long[] { 1, 3 }, index.findUri("example.com", "/rooms", 2000));
+		assertArrayEquals(new long[] { 1 }, index.findUri("example.com", "/rooms/4", 2000));
+		assertArrayEquals(new long[] { 1, 2 }, index.findUri(null, "rooms/4", 2000));
+		assertArrayEquals(new long[] { 1, 2, 3 }, index.findUri("example.com", null, 2000));
+	}
+
+	@Test
+	public void dropsRecordsOutsideTheWindowOrCapacity() {
+		TapTextIndex index = index(10000, 16);
+		index.addText(1, UID, 1000, "badge");
+		index.addText(2, UID, 5000, "badge");
+		assertArrayEquals(new long[] { 1, 2 }, index.findText("badge", 10000));
+		assertArrayEquals(new long[] { 2 }, index.findText("badge", 12000));
+		for (int tap = 3; tap < 40; tap++)
+			index.addText(tap, UID, 12000, "badge");
+		long[] taps = index.findText("badge", 12000);
+		assertEquals(16, taps.length);
+		assertEquals(24, taps[0]);
+	}
+
+	@Test
+	public void answersQueriesWithTheTagsOfTheTaps() {
+		TapTextIndex index = index(60000, 64);
+		index.addText(1, UID, 1000, "Lobby");
+		index.addUri(1, UID, 1000, "example.com", Arrays.asList("lobby"));
+		index.addText(2, new byte[] { 0x05 }, 2000, "Lobby");
+		NfcTapQueryResult result = index.query("lobby", "example.com", null, 3000);
+		assertArrayEquals(new long[] { 1 }, result.getTapSequences());
+		assertArrayEquals(new String[] { "04112233" }, result.getTagIds());
+		assertArrayEquals(new long[] { 1000 }, result.getTapTimes());
+		assertArrayEquals(new long[] { 1, 2 }, index.query("lobby", null, null, 3000).getTapSequences());
+		assertEquals(0, index.query(null, null, null, 3000).getTapSequences().length);
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+import org.junit.Test;
+
+public class UidGateTest {
+	@Test
+	public void admitsOnlyListedUidsOfTheSameLength() {
+		UidGate gate = gate("allow", "00000001, 04A23C12B15F80");
+		assertTrue(gate.admit(bytes("00000001")));
+		assertTrue(gate.admit(bytes("04A23C12B15F80")));
+		assertFalse(gate.admit(bytes("00000000000001")));
+		assertFalse(gate.admit(bytes("0001")));
+		assertFalse(gate.admit(null));
+		assertEquals(2, gate.getPassedCount());
+		assertEquals(3, gate.getDroppedCount());
+	}
+
+	@Test
+	public void comparesLongUidsInFull() {
+		UidGate gate = gate("deny", "E004010012345678,0488A21C3D5E6F708192");
+		assertFalse(gate.admit(bytes("E004010012345678")));
+		assertFalse(gate.admit(bytes("0488A21C3D5E6F708192")));
+		assertTrue(gate.admit(bytes("E004010012345679")));
+		assertTrue(gate.admit(bytes("0488A21C3D5E6F708193")));
+	}
+
+	@Test
+	public void swapsInBulkLists() {
+		UidGate gate = new UidGate();
+		assertTrue(gate.admit(bytes("00000001")));
+		gate.swap(UidGate.MODE_ALLOW, new byte[][] { bytes("00000002"), bytes("E004010012345678") });
+		assertFalse(gate.admit(bytes("00000001")));
+		assertTrue(gate.admit(bytes("00000002")));
+		assertTrue(gate.admit(bytes("E004010012345678")));
+	}
+
+	@Test
+	public void turnsOffWhenTheModeIsRemoved() {
+		UidGate gate = gate("allow", "00000001");
+		assertFalse(gate.admit(bytes("00000002")));
+		gate.configure(new ContextPluginSettings());
+		assertTrue(gate.admit(bytes("00000002")));
+	}
+
+	private static UidGate gate(String mode, String uids) {
+		ContextPluginSettings settings = new ContextPluginSettings();
+		settings.put(UidGate.MODE_SETTINGS_KEY, mode);
+		settings.put(UidGate.UIDS_SETTINGS_KEY, uids);
+		UidGate gate = new UidGate();
+		gate.configure(settings);
+		return gate;
+	}
+
+	private static byte[] bytes(String hex) {
+		return HexStrings.toBytes(hex, 0);
+	}
+}
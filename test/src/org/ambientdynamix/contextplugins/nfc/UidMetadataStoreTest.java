@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.ambientdynamix.api.contextplugin.ContextPluginSettings;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UidMetadataStoreTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void keepsUidsOfDifferentLengthsApart() throws Exception {
+		UidMetadataStore.Builder builder = new UidMetadataStore.Builder();
+		builder.add(bytes("00000001"), "four", null, null);
+		builder.add(bytes("00000000000001"), "seven", null, null);
+		UidMetadataStore store = open(builder);
+		assertEquals(2, store.size());
+		assertEquals("four", store.lookup(bytes("00000001")).owner);
+		assertEquals("seven", store.lookup(bytes("00000000000001")).owner);
+		assertNull(store.lookup(bytes("0000000001")));
+		assertNull(store.lookup(bytes("01")));
+	}
+
+	@Test
+	public void matchesLongUidsExactly() throws Exception {
+		UidMetadataStore.Builder builder = new UidMetadataStore.Builder();
+		builder.add(bytes("E004010012345678"), "Pharmacy", "Shelf 3", "label");
+		builder.add(bytes("0488A21C3D5E6F708192"), "Ward 4", null, "pump");
+		UidMetadataStore store = open(builder);
+		UidMetadataStore.Entry label = store.lookup(bytes("E004010012345678"));
+		assertEquals("Shelf 3", label.location);
+		assertEquals("label", label.assetClass);
+		assertEquals("Ward 4", store.lookup(bytes("0488A21C3D5E6F708192")).owner);
+		assertNull(store.lookup(bytes("0488A21C3D5E6F708193")));
+		assertNull(store.lookup(bytes("E004010012345679")));
+	}
+
+	@Test
+	public void buildsStoresFromTheCommandLine() throws Exception {
+		File csv = folder.newFile("metadata.csv");
+		Writer out = new OutputStreamWriter(new FileOutputStream(csv), "UTF-8");
+		try {
+			out.write("# uid,owner,location,class\n04A23C12,Ward 4,Bed 2,pump\nE004010012345678,,Shelf 3,\n");
+		} finally {
+			out.close();
+		}
+		File built = new File(folder.getRoot(), "uids.store");
+		UidMetadataStore.Builder.main(new String[] { built.getPath(), csv.getPath() });
+		UidMetadataStore store = new UidMetadataStore();
+		store.configure(settings(built));
+		assertEquals("Bed 2", store.lookup(bytes("04A23C12")).location);
+		UidMetadataStore.Entry label = store.lookup(bytes("E004010012345678"));
+		assertNull(label.owner);
+		assertEquals("Shelf 3", label.location);
+	}
+
+	private UidMetadataStore open(UidMetadataStore.Builder builder) throws Exception {
+		File file = folder.newFile();
+		builder.write(file);
+		UidMetadataStore store = new UidMetadataStore();
+		store.configure(settings(file));
+		return store;
+	}
+
+	private static ContextPluginSettings settings(File file) {
+		ContextPluginSettings settings = new ContextPluginSettings();
+		settings.put(UidMetadataStore.FILE_SETTINGS_KEY, file.getPath());
+		return settings;
+	}
+
+	private static byte[] bytes(String hex) {
+		return HexStrings.toBytes(hex, 0);
+	}
+}
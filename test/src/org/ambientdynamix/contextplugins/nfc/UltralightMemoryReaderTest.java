@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.contextplugins.nfc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class UltralightMemoryReaderTest {
+	/**
+	 * Type 2 tag answering READ, and GET_VERSION and FAST_READ if a storage size byte is given. Like real tags, it
+	 * stops answering after an unsupported command until it is reconnected.
+	 */
+	private static class Type2Tag extends FakeTransceiver {
+		final byte[] memory;
+		private final int storageSize;
+		private boolean halted;
+
+		Type2Tag(int pages, int storageSize) {
+			memory = new byte[pages * UltralightMemoryReader.PAGE_SIZE];
+			for (int i = 0; i < memory.length; i++)
+				memory[i] = (byte) (i * 7 + 1);
+			this.storageSize = storageSize;
+		}
+
+		@Override
+		public void connect() {
+			super.connect();
+			halted = false;
+		}
+
+		@Override
+		byte[] respond(byte[] command) throws IOException {
+			if (halted)
+				throw new IOException("Tag halted");
+			int pages = memory.length / UltralightMemoryReader.PAGE_SIZE;
+			switch (command[0]) {
+			case 0x30: {
+				// READ: 4 pages, wrapping around at the end of memory
+				byte[] data = new byte[16];
+				for (int i = 0; i < data.length; i++)
+					data[i] = memory[((command[1] & 0xff) * 4 + i) % memory.length];
+				return data;
+			}
+			case 0x60:
+				if (storageSize > 0)
+					return new byte[] { 0x00, 0x04, 0x04, 0x02, 0x01, 0x00, (byte) storageSize, 0x03 };
+				break;
+			case 0x3A:
+				if (storageSize > 0 && (command[2] & 0xff) < pages && command[1] <= command[2])
+					return Arrays.copyOfRange(memory, (command[1] & 0xff) * 4, ((command[2] & 0xff) + 1) * 4);
+				break;
+			}
+			halted = true;
+			throw new IOException("Transceive failed");
+		}
+	}
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+
+	@Test
+	public void sizesFastReadsFromGetVersion() throws IOException {
+		// NTAG213, 45 pages
+		Type2Tag tag = new Type2Tag(45, 0x0F);
+		tag.maxTransceiveLength = 64;
+		NfcRawMemory dump = new UltralightMemoryReader().read(tag, UltralightMemoryReader.DEFAULT_PAGES);
+		assertEquals(45, dump.getPageCount());
+		assertArrayEquals(tag.memory, bytes(dump.getMemory()));
+		// GET_VERSION and FAST_READs of 16, 16 and 13 pages
+		assertEquals(Arrays.asList("60", "3A000F", "3A101F", "3A202C"), tag.commands);
+		assertEquals(4, dump.getTransceiveCount());
+		assertEquals(1, tag.connects);
+		assertEquals(1, tag.closes);
+	}
+
+	@Test
+	public void readsWholeMemoryInOneFastReadWhenItFits() throws IOException {
+		// Ultralight EV1 MF0UL11, 20 pages
+		Type2Tag tag = new Type2Tag(20, 0x0B);
+		NfcRawMemory dump = new UltralightMemoryReader().read(tag, UltralightMemoryReader.DEFAULT_PAGES);
+		assertArrayEquals(tag.memory, bytes(dump.getMemory()));
+		assertEquals(Arrays.asList("60", "3A0013"), tag.commands);
+	}
+
+	@Test
+	public void fallsBackToReadWithoutGetVersion() throws IOException {
+		Type2Tag tag = new Type2Tag(UltralightMemoryReader.ULTRALIGHT_C_PAGES, 0);
+		NfcRawMemory dump = new UltralightMemoryReader().read(tag, UltralightMemoryReader.ULTRALIGHT_C_PAGES);
+		assertEquals(UltralightMemoryReader.ULTRALIGHT_C_PAGES, dump.getPageCount());
+		assertArrayEquals(tag.memory, bytes(dump.getMemory()));
+		// The failed GET_VERSION, then one READ per 4 pages after reconnecting
+		assertEquals(1 + UltralightMemoryReader.ULTRALIGHT_C_PAGES / 4, dump.getTransceiveCount());
+		assertEquals("60", tag.commands.get(0));
+		assertEquals("3000", tag.commands.get(1));
+		assertEquals("302C", tag.commands.get(tag.commands.size() - 1));
+		assertEquals(2, tag.connects);
+		assertEquals(2, tag.closes);
+	}
+
+	@Test
+	public void readsOnlyTheFallbackPages() throws IOException {
+		// READ wraps around, so a 16 page read of a tag with 18 pages must not include the last two
+		Type2Tag tag = new Type2Tag(18, 0);
+		NfcRawMemory dump = new UltralightMemoryReader().read(tag, 14);
+		assertArrayEquals(Arrays.copyOf(tag.memory, 14 * 4), bytes(dump.getMemory()));
+		assertEquals(1 + 4, dump.getTransceiveCount());
+	}
+
+	@Test
+	public void closesTheTagOnShortResponses() {
+		Type2Tag tag = new Type2Tag(45, 0x0F) {
+			@Override
+			byte[] respond(byte[] command) throws IOException {
+				byte[] response = super.respond(command);
+				return command[0] == 0x3A ? Arrays.copyOf(response, 4) : response;
+			}
+		};
+		try {
+			new UltralightMemoryReader().read(tag, UltralightMemoryReader.DEFAULT_PAGES);
+			fail("Short FAST_READ response accepted");
+		} catch (IOException e) {
+			assertEquals(tag.connects, tag.closes);
+		}
+	}
+
+	@Test
+	public void mapsStorageSizeToPages() {
+		assertEquals(41, UltralightMemoryReader.pagesForStorageSize(0x0E));
+		assertEquals(135, UltralightMemoryReader.pagesForStorageSize(0x11));
+		assertEquals(231, UltralightMemoryReader.pagesForStorageSize(0x13));
+		// 2^(0x15 / 2) = 1024 user bytes
+		assertEquals(1024 / 4 + 9, UltralightMemoryReader.pagesForStorageSize(0x15));
+		assertEquals(0, UltralightMemoryReader.pagesForStorageSize(0));
+		assertEquals(0, UltralightMemoryReader.pagesForStorageSize(0x40));
+	}
+}
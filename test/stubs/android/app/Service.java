@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+
+/**
+ * JVM stand-in for the Android class, for unit tests.
+ */
+public abstract class Service extends Context {
+	@Override
+	public Object getSystemService(String name) {
+		return null;
+	}
+
+	public abstract IBinder onBind(Intent intent);
+}
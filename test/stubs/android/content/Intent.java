@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * JVM stand-in for the Android class, for unit tests.
+ */
+public class Intent implements Parcelable {
+	private final String action;
+	private final Map<String, Object> extras = new HashMap<String, Object>();
+
+	public Intent() {
+		this(null);
+	}
+
+	public Intent(String action) {
+		this.action = action;
+	}
+
+	public String getAction() {
+		return action;
+	}
+
+	public Intent putExtra(String name, byte[] value) {
+		extras.put(name, value);
+		return this;
+	}
+
+	public Intent putExtra(String name, Parcelable value) {
+		extras.put(name, value);
+		return this;
+	}
+
+	public Intent putExtra(String name, Parcelable[] value) {
+		extras.put(name, value);
+		return this;
+	}
+
+	public byte[] getByteArrayExtra(String name) {
+		return (byte[]) extras.get(name);
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T extends Parcelable> T getParcelableExtra(String name) {
+		return (T) extras.get(name);
+	}
+
+	public Parcelable[] getParcelableArrayExtra(String name) {
+		return (Parcelable[]) extras.get(name);
+	}
+
+	public int describeContents() {
+		return 0;
+	}
+
+	public void writeToParcel(Parcel dest, int flags) {
+	}
+}
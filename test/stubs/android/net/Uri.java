@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.net;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * JVM stand-in for the Android class, for unit tests, backed by {@link URI}. Like the Android class, parsing never
+ * fails, unparseable strings just have no host or path.
+ */
+public abstract class Uri implements Parcelable {
+	public static Uri parse(final String uriString) {
+		return new Uri() {
+			@Override
+			public String toString() {
+				return uriString;
+			}
+		};
+	}
+
+	public String getHost() {
+		URI uri = toUri();
+		return uri != null ? uri.getHost() : null;
+	}
+
+	public List<String> getPathSegments() {
+		URI uri = toUri();
+		if (uri == null || uri.getPath() == null)
+			return Collections.emptyList();
+		List<String> segments = new ArrayList<String>();
+		for (String segment : uri.getPath().split("/")) {
+			if (segment.length() > 0)
+				segments.add(segment);
+		}
+		return segments;
+	}
+
+	private URI toUri() {
+		try {
+			return new URI(toString());
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+
+	public int describeContents() {
+		return 0;
+	}
+
+	public void writeToParcel(Parcel dest, int flags) {
+	}
+}
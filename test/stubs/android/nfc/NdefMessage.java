@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.nfc;
+
+import java.nio.ByteBuffer;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * JVM stand-in for the Android class, for unit tests.
+ */
+public final class NdefMessage implements Parcelable {
+	private final NdefRecord[] records;
+
+	public NdefMessage(NdefRecord[] records) {
+		if (records.length == 0)
+			throw new IllegalArgumentException("Must have at least one record");
+		this.records = records.clone();
+	}
+
+	public NdefMessage(byte[] data) throws FormatException {
+		this.records = NdefRecord.parse(ByteBuffer.wrap(data));
+	}
+
+	public NdefRecord[] getRecords() {
+		return records.clone();
+	}
+
+	public byte[] toByteArray() {
+		int length = 0;
+		for (NdefRecord record : records)
+			length += record.getByteLength();
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		for (int r = 0; r < records.length; r++)
+			records[r].write(buffer, r == 0, r == records.length - 1);
+		return buffer.array();
+	}
+
+	public int describeContents() {
+		return 0;
+	}
+
+	public void writeToParcel(Parcel dest, int flags) {
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.nfc;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * JVM stand-in for the Android class, for unit tests. Encodes and parses unchunked records as in the NDEF Technical
+ * Specification, without the platform's validation of TNF specific rules.
+ */
+public final class NdefRecord implements Parcelable {
+	public static final short TNF_EMPTY = 0x00;
+	public static final short TNF_WELL_KNOWN = 0x01;
+	public static final short TNF_MIME_MEDIA = 0x02;
+	public static final short TNF_ABSOLUTE_URI = 0x03;
+	public static final short TNF_EXTERNAL_TYPE = 0x04;
+	public static final short TNF_UNKNOWN = 0x05;
+	public static final short TNF_UNCHANGED = 0x06;
+	public static final byte[] RTD_TEXT = { 0x54 };
+	public static final byte[] RTD_URI = { 0x55 };
+	public static final byte[] RTD_SMART_POSTER = { 0x53, 0x70 };
+	public static final byte[] RTD_ALTERNATIVE_CARRIER = { 0x61, 0x63 };
+	public static final byte[] RTD_HANDOVER_CARRIER = { 0x48, 0x63 };
+	public static final byte[] RTD_HANDOVER_REQUEST = { 0x48, 0x72 };
+	public static final byte[] RTD_HANDOVER_SELECT = { 0x48, 0x73 };
+	private static final byte[] EMPTY = new byte[0];
+	private final short tnf;
+	private final byte[] type;
+	private final byte[] id;
+	private final byte[] payload;
+
+	public NdefRecord(short tnf, byte[] type, byte[] id, byte[] payload) {
+		this.tnf = tnf;
+		this.type = type != null ? type.clone() : EMPTY;
+		this.id = id != null ? id.clone() : EMPTY;
+		this.payload = payload != null ? payload.clone() : EMPTY;
+	}
+
+	public NdefRecord(byte[] data) throws FormatException {
+		NdefRecord[] records = parse(ByteBuffer.wrap(data));
+		if (records.length != 1)
+			throw new FormatException("Expected one record");
+		this.tnf = records[0].tnf;
+		this.type = records[0].type;
+		this.id = records[0].id;
+		this.payload = records[0].payload;
+	}
+
+	public short getTnf() {
+		return tnf;
+	}
+
+	public byte[] getType() {
+		return type.clone();
+	}
+
+	public byte[] getId() {
+		return id.clone();
+	}
+
+	public byte[] getPayload() {
+		return payload.clone();
+	}
+
+	public byte[] toByteArray() {
+		ByteBuffer buffer = ByteBuffer.allocate(getByteLength());
+		write(buffer, true, true);
+		return buffer.array();
+	}
+
+	int getByteLength() {
+		return 2 + (payload.length < 256 ? 1 : 4) + (id.length > 0 ? 1 : 0) + type.length + id.length
+				+ payload.length;
+	}
+
+	void write(ByteBuffer buffer, boolean first, boolean last) {
+		boolean shortRecord = payload.length < 256;
+		int flags = (first ? 0x80 : 0) | (last ? 0x40 : 0) | (shortRecord ? 0x10 : 0) | (id.length > 0 ? 0x08 : 0);
+		buffer.put((byte) (flags | tnf));
+		buffer.put((byte) type.length);
+		if (shortRecord)
+			buffer.put((byte) payload.length);
+		else
+			buffer.putInt(payload.length);
+		if (id.length > 0)
+			buffer.put((byte) id.length);
+		buffer.put(type).put(id).put(payload);
+	}
+
+	static NdefRecord[] parse(ByteBuffer buffer) throws FormatException {
+		java.util.List<NdefRecord> records = new java.util.ArrayList<NdefRecord>();
+		try {
+			boolean last = false;
+			while (!last) {
+				int flags = buffer.get() & 0xff;
+				if ((flags & 0x20) != 0)
+					throw new FormatException("Chunked records are not supported");
+				last = (flags & 0x40) != 0;
+				int typeLength = buffer.get() & 0xff;
+				int payloadLength = (flags & 0x10) != 0 ? buffer.get() & 0xff : buffer.getInt();
+				int idLength = (flags & 0x08) != 0 ? buffer.get() & 0xff : 0;
+				if (payloadLength < 0)
+					throw new FormatException("Bad payload length");
+				byte[] type = new byte[typeLength];
+				byte[] id = new byte[idLength];
+				byte[] payload = new byte[payloadLength];
+				buffer.get(type).get(id).get(payload);
+				records.add(new NdefRecord((short) (flags & 0x07), type, id, payload));
+			}
+		} catch (RuntimeException e) {
+			throw new FormatException("Malformed NDEF data: " + e);
+		}
+		return records.toArray(new NdefRecord[records.size()]);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof NdefRecord))
+			return false;
+		NdefRecord other = (NdefRecord) o;
+		return tnf == other.tnf && Arrays.equals(type, other.type) && Arrays.equals(id, other.id)
+				&& Arrays.equals(payload, other.payload);
+	}
+
+	@Override
+	public int hashCode() {
+		return ((tnf * 31 + Arrays.hashCode(type)) * 31 + Arrays.hashCode(id)) * 31 + Arrays.hashCode(payload);
+	}
+
+	public int describeContents() {
+		return 0;
+	}
+
+	public void writeToParcel(Parcel dest, int flags) {
+	}
+}
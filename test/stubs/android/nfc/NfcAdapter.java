@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.nfc;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Bundle;
+
+/**
+ * JVM stand-in for the Android class, for unit tests. A single adapter records which activity has reader mode enabled.
+ */
+public final class NfcAdapter {
+	public static final String ACTION_NDEF_DISCOVERED = "android.nfc.action.NDEF_DISCOVERED";
+	public static final String ACTION_TECH_DISCOVERED = "android.nfc.action.TECH_DISCOVERED";
+	public static final String ACTION_TAG_DISCOVERED = "android.nfc.action.TAG_DISCOVERED";
+	public static final String EXTRA_TAG = "android.nfc.extra.TAG";
+	public static final String EXTRA_ID = "android.nfc.extra.ID";
+	public static final String EXTRA_NDEF_MESSAGES = "android.nfc.extra.NDEF_MESSAGES";
+	public static final String EXTRA_READER_PRESENCE_CHECK_DELAY = "presence";
+	public static final int FLAG_READER_NFC_A = 0x1;
+	public static final int FLAG_READER_NFC_B = 0x2;
+	public static final int FLAG_READER_NFC_F = 0x4;
+	public static final int FLAG_READER_NFC_V = 0x8;
+	public static final int FLAG_READER_NFC_BARCODE = 0x10;
+	public static final int FLAG_READER_SKIP_NDEF_CHECK = 0x80;
+	public static final int FLAG_READER_NO_PLATFORM_SOUNDS = 0x100;
+
+	public interface ReaderCallback {
+		public void onTagDiscovered(Tag tag);
+	}
+
+	private static final NfcAdapter DEFAULT = new NfcAdapter();
+	private Activity readerModeActivity;
+	private ReaderCallback readerCallback;
+
+	public static NfcAdapter getDefaultAdapter(Context context) {
+		return DEFAULT;
+	}
+
+	public synchronized void enableReaderMode(Activity activity, ReaderCallback callback, int flags, Bundle extras) {
+		readerModeActivity = activity;
+		readerCallback = callback;
+	}
+
+	public synchronized void disableReaderMode(Activity activity) {
+		if (readerModeActivity != activity)
+			return;
+		readerModeActivity = null;
+		readerCallback = null;
+	}
+
+	/**
+	 * Returns the callback of reader mode if it is enabled for the given activity, or else null. Not in the Android
+	 * API; stands in for tags discovered in reader mode.
+	 */
+	public synchronized ReaderCallback getReaderCallback(Activity activity) {
+		return readerModeActivity == activity ? readerCallback : null;
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.nfc;
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * JVM stand-in for the Android class, for unit tests. Tags are made with {@link #createMockTag}, like the hidden
+ * method of the platform class; the technology classes of the stand-ins never match a tag.
+ */
+public final class Tag implements Parcelable {
+	private final byte[] id;
+	private final int[] techList;
+
+	private Tag(byte[] id, int[] techList) {
+		this.id = id;
+		this.techList = techList;
+	}
+
+	public static Tag createMockTag(byte[] id, int[] techList, Bundle[] techListExtras) {
+		return new Tag(id.clone(), techList.clone());
+	}
+
+	public byte[] getId() {
+		return id.clone();
+	}
+
+	public String[] getTechList() {
+		return new String[techList.length];
+	}
+
+	public int describeContents() {
+		return 0;
+	}
+
+	public void writeToParcel(Parcel dest, int flags) {
+	}
+}
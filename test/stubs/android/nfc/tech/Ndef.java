@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.nfc.tech;
+
+import java.io.IOException;
+
+import android.nfc.NdefMessage;
+import android.nfc.Tag;
+
+/**
+ * JVM stand-in for the Android class, for unit tests. {@link #get(Tag)} never matches.
+ */
+public final class Ndef implements TagTechnology {
+	private Ndef() {
+	}
+
+	public static Ndef get(Tag tag) {
+		return null;
+	}
+
+	public NdefMessage getCachedNdefMessage() {
+		return null;
+	}
+
+	public Tag getTag() {
+		return null;
+	}
+
+	public void connect() throws IOException {
+	}
+
+	public void close() throws IOException {
+	}
+
+	public boolean isConnected() {
+		return false;
+	}
+}
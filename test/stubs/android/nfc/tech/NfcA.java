@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.nfc.tech;
+
+import java.io.IOException;
+
+import android.nfc.Tag;
+
+/**
+ * JVM stand-in for the Android class, for unit tests. {@link #get(Tag)} never matches, tag I/O is tested through
+ * stand-in transceivers.
+ */
+public final class NfcA implements TagTechnology {
+	private NfcA() {
+	}
+
+	public static NfcA get(Tag tag) {
+		return null;
+	}
+
+	public Tag getTag() {
+		return null;
+	}
+
+	public void connect() throws IOException {
+	}
+
+	public void close() throws IOException {
+	}
+
+	public boolean isConnected() {
+		return false;
+	}
+
+	public byte[] transceive(byte[] data) throws IOException {
+		throw new IOException("No tag");
+	}
+
+	public int getMaxTransceiveLength() {
+		return 0;
+	}
+
+	public void setTimeout(int timeout) {
+	}
+
+	public int getTimeout() {
+		return 0;
+	}
+
+	public byte[] getAtqa() {
+		return new byte[2];
+	}
+
+	public short getSak() {
+		return 0;
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+/**
+ * JVM stand-in for the Android class, for unit tests. Reports the newest API level the plug-in uses.
+ */
+public class Build {
+	public static class VERSION {
+		public static final int SDK_INT = VERSION_CODES.KITKAT;
+	}
+
+	public static class VERSION_CODES {
+		public static final int ICE_CREAM_SANDWICH_MR1 = 15;
+		public static final int JELLY_BEAN = 16;
+		public static final int KITKAT = 19;
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in for the Android class, for unit tests.
+ */
+public final class Bundle {
+	private final Map<String, Object> values = new HashMap<String, Object>();
+
+	public void putInt(String key, int value) {
+		values.put(key, value);
+	}
+
+	public int getInt(String key) {
+		Object value = values.get(key);
+		return value instanceof Integer ? (Integer) value : 0;
+	}
+
+	public void putString(String key, String value) {
+		values.put(key, value);
+	}
+
+	public String getString(String key) {
+		Object value = values.get(key);
+		return value instanceof String ? (String) value : null;
+	}
+
+	public void putParcelable(String key, Parcelable value) {
+		values.put(key, value);
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T extends Parcelable> T getParcelable(String key) {
+		return (T) values.get(key);
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+/**
+ * JVM stand-in for the Android class, for unit tests. Writes are dropped and reads return defaults, parcelling is not
+ * tested on the JVM.
+ */
+public final class Parcel {
+	public void writeByte(byte val) {
+	}
+
+	public void writeInt(int val) {
+	}
+
+	public void writeLong(long val) {
+	}
+
+	public void writeString(String val) {
+	}
+
+	public void writeByteArray(byte[] b) {
+	}
+
+	public void writeIntArray(int[] val) {
+	}
+
+	public void writeLongArray(long[] val) {
+	}
+
+	public void writeStringArray(String[] val) {
+	}
+
+	public void writeParcelable(Parcelable p, int flags) {
+	}
+
+	public byte readByte() {
+		return 0;
+	}
+
+	public int readInt() {
+		return 0;
+	}
+
+	public long readLong() {
+		return 0;
+	}
+
+	public String readString() {
+		return null;
+	}
+
+	public byte[] createByteArray() {
+		return null;
+	}
+
+	public int[] createIntArray() {
+		return null;
+	}
+
+	public long[] createLongArray() {
+		return null;
+	}
+
+	public String[] createStringArray() {
+		return null;
+	}
+
+	public <T extends Parcelable> T readParcelable(ClassLoader loader) {
+		return null;
+	}
+}
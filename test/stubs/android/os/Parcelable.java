@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+/**
+ * JVM stand-in for the Android interface, for unit tests.
+ */
+public interface Parcelable {
+	public int describeContents();
+
+	public void writeToParcel(Parcel dest, int flags);
+
+	public interface Creator<T> {
+		public T createFromParcel(Parcel source);
+
+		public T[] newArray(int size);
+	}
+}
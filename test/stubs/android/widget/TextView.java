@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.widget;
+
+import android.content.Context;
+import android.view.View;
+
+/**
+ * JVM stand-in for the Android class, for unit tests.
+ */
+public class TextView extends View {
+	private CharSequence text = "";
+
+	public TextView(Context context) {
+		super(context);
+	}
+
+	public void setText(CharSequence text) {
+		this.text = text;
+	}
+
+	public CharSequence getText() {
+		return text;
+	}
+}
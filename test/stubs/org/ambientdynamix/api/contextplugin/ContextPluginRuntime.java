@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.api.contextplugin;
+
+import java.util.UUID;
+
+import org.ambientdynamix.api.contextplugin.security.SecuredContextInfo;
+
+/**
+ * JVM stand-in for the Dynamix API class, for unit tests. Context events are dropped; tests capture them through
+ * the runtime's event sink instead.
+ */
+public abstract class ContextPluginRuntime {
+	private final UUID sessionId = UUID.randomUUID();
+
+	public IPluginFacade getPluginFacade() {
+		return null;
+	}
+
+	public UUID getSessionId() {
+		return sessionId;
+	}
+
+	public abstract void init(PowerScheme powerScheme, ContextPluginSettings settings) throws Exception;
+
+	public abstract void updateSettings(ContextPluginSettings settings);
+
+	public abstract void setPowerScheme(PowerScheme scheme) throws Exception;
+
+	public abstract void start();
+
+	public abstract void stop();
+
+	public abstract void destroy();
+
+	protected void sendContextEvent(SecuredContextInfo info, int expireMills) {
+	}
+
+	protected void sendContextEvent(UUID responseId, SecuredContextInfo info, int expireMills) {
+	}
+}
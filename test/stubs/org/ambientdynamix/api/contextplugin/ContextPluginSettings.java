@@ -0,0 +1,25 @@
+/*
+ * Copyright (C) the Dynamix Framework Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ambientdynamix.api.contextplugin;
+
+import java.util.HashMap;
+
+/**
+ * JVM stand-in for the Dynamix API class, for unit tests.
+ */
+public class ContextPluginSettings extends HashMap<String, String> {
+	private static final long serialVersionUID = 1L;
+}